@@ -0,0 +1,388 @@
+package cp2023.backend;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.solution.SlotAwareTransfer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Devices backed by real files, for running the system against actual disk I/O. Every device
+ * is a preallocated file of fixed-size blobs, one per slot, and a component is stored at the
+ * slot the system gives it, see {@link SlotAwareTransfer}. A transfer copies the blob of its
+ * component out of the source slot in prepare(), since the slot may be taken over by another
+ * transfer right afterwards, and into the destination slot in perform(). A system which does not
+ * report slots, such as CoordinatedStorageSystem, cannot be used: its transfers fail in prepare(),
+ * before touching any file. The copy in between
+ * is staged in a file or a buffer, depending on the mode, taken from a pool in prepare() and
+ * returned to it in perform(), so there are only as many as transfers ever held blobs at once.
+ * <p>
+ * The file of a device is named after the number behind its DeviceId, i.e. its hash code.
+ */
+public final class FileBackend implements AutoCloseable {
+    private static final int ZERO_FILL_CHUNK = 1024 * 1024;
+
+    public enum Mode {
+        /** Kernel-side copies with FileChannel.transferTo() and transferFrom() through a staging file. */
+        TRANSFER_TO,
+        /** Copies between memory-mapped device files and a staging buffer. */
+        MAPPED,
+        /** Reads and writes through a staging buffer, in chunks of the buffer size. */
+        BUFFERED
+    }
+
+    /**
+     * @param bufferSize    Largest single read or write in BUFFERED mode.
+     * @param directBuffers Whether the staging buffers live outside the heap; ignored in TRANSFER_TO mode.
+     * @param force         Whether perform() returns only once the blob is on the storage device.
+     */
+    public record Options(Mode mode, int bufferSize, boolean directBuffers, boolean force) {
+        public static final Options DEFAULT = new Options(Mode.TRANSFER_TO, 64 * 1024, true, false);
+
+        public Options {
+            Objects.requireNonNull(mode);
+            if (bufferSize <= 0)
+                throw new IllegalArgumentException("The buffer size has to be positive");
+        }
+    }
+
+    private final Path directory;
+    private final int blobSize;
+    private final Options options;
+    private final Map<DeviceId, FileChannel> channels;
+    // Only in MAPPED mode.
+    private final Map<DeviceId, MappedByteBuffer> mappings;
+    private final Queue<Staging> idleStaging;
+    private final Queue<Staging> allStaging;
+
+    private FileBackend(Path directory, int blobSize, Options options) {
+        this.directory = directory;
+        this.blobSize = blobSize;
+        this.options = options;
+        this.channels = new HashMap<>();
+        this.mappings = new HashMap<>();
+        this.idleStaging = new ConcurrentLinkedQueue<>();
+        this.allStaging = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Creates the files of the devices in the directory, overwriting existing ones, each with
+     * room for as many blobs as the device has slots. The files are zero-filled rather than left
+     * sparse, so a full disk shows up here and not in the middle of a transfer.
+     */
+    public static FileBackend create(Path directory, Map<DeviceId, Integer> deviceTotalSlots, int blobSize,
+                                     Options options) throws IOException {
+        if (blobSize <= 0)
+            throw new IllegalArgumentException("The blob size has to be positive");
+        if (options.mode() == Mode.MAPPED && deviceTotalSlots.values().stream()
+                .anyMatch(slots -> (long) slots * blobSize > Integer.MAX_VALUE))
+            throw new IllegalArgumentException("A device file would not fit in a single mapping");
+
+        Files.createDirectories(directory);
+        FileBackend backend = new FileBackend(directory, blobSize, options);
+        try {
+            ByteBuffer zeros = ByteBuffer.allocate(ZERO_FILL_CHUNK);
+            for (Map.Entry<DeviceId, Integer> device : deviceTotalSlots.entrySet()) {
+                FileChannel channel = FileChannel.open(directory.resolve("device-" + device.getKey().hashCode()),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                backend.channels.put(device.getKey(), channel);
+                long size = (long) device.getValue() * blobSize;
+                for (long position = 0; position < size; position += ZERO_FILL_CHUNK) {
+                    zeros.clear().limit((int) Math.min(ZERO_FILL_CHUNK, size - position));
+                    writeFully(channel, zeros, position);
+                }
+                if (options.mode() == Mode.MAPPED)
+                    backend.mappings.put(device.getKey(), channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        } catch (IOException | RuntimeException e) {
+            backend.close();
+            throw e;
+        }
+        return backend;
+    }
+
+    public int blobSize() {
+        return blobSize;
+    }
+
+    /**
+     * A transfer of the component's blob, to be executed by a system with the same devices.
+     * An added component gets a blob filled with {@link #fillByte(ComponentId)}.
+     */
+    public SlotAwareTransfer transfer(ComponentId component, DeviceId source, DeviceId destination) {
+        return new FileTransfer(component, source, destination);
+    }
+
+    /**
+     * Stores the blob of a component placed on the device before the system was started.
+     */
+    public void write(DeviceId device, int slot, ByteBuffer blob) throws IOException {
+        if (blob.remaining() != blobSize)
+            throw new IllegalArgumentException("A blob has " + blobSize + " bytes");
+        writeFully(channel(device), blob, offset(slot));
+    }
+
+    public ByteBuffer read(DeviceId device, int slot) throws IOException {
+        ByteBuffer blob = ByteBuffer.allocate(blobSize);
+        readFully(channel(device), blob, offset(slot));
+        return blob.flip();
+    }
+
+    /**
+     * The byte an added component's blob is filled with, so that it can be told apart later.
+     */
+    public static byte fillByte(ComponentId component) {
+        return (byte) component.hashCode();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        List<AutoCloseable> toClose = new ArrayList<>(channels.values());
+        toClose.addAll(allStaging);
+        for (AutoCloseable closeable : toClose) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                if (failure == null)
+                    failure = e instanceof IOException io ? io : new IOException(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Number of staging areas created so far, none of which is ever given up before close().
+     */
+    int stagingAreas() {
+        return allStaging.size();
+    }
+
+    private FileChannel channel(DeviceId device) {
+        FileChannel channel = channels.get(device);
+        if (channel == null)
+            throw new IllegalArgumentException("Device " + device + " has no file");
+        return channel;
+    }
+
+    private long offset(int slot) {
+        if (slot < 0)
+            throw new IllegalArgumentException("Slot " + slot + " does not exist");
+        return (long) slot * blobSize;
+    }
+
+    private Staging acquireStaging() throws IOException {
+        Staging s = idleStaging.poll();
+        return s != null ? s : newStaging();
+    }
+
+    private void releaseStaging(Staging s) {
+        idleStaging.add(s);
+    }
+
+    private Staging newStaging() throws IOException {
+        Staging s;
+        if (options.mode() == Mode.TRANSFER_TO) {
+            Path file = Files.createTempFile(directory, "staging-", "");
+            s = new Staging(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE), ByteBuffer.allocate(Math.min(options.bufferSize(), blobSize)));
+        } else {
+            s = new Staging(null, options.directBuffers()
+                    ? ByteBuffer.allocateDirect(blobSize) : ByteBuffer.allocate(blobSize));
+        }
+        allStaging.add(s);
+        return s;
+    }
+
+    /**
+     * Copies the blob out of the source slot into the staging area.
+     */
+    private void stage(Staging s, DeviceId device, int slot) throws IOException {
+        long offset = offset(slot);
+        switch (options.mode()) {
+            case TRANSFER_TO -> {
+                FileChannel source = channel(device);
+                long done = 0;
+                while (done < blobSize)
+                    done += source.transferTo(offset + done, blobSize - done, s.file.position(done));
+            }
+            case MAPPED -> s.buffer.clear().put(0, mappings.get(device), (int) offset, blobSize);
+            case BUFFERED -> {
+                s.buffer.clear();
+                FileChannel source = channel(device);
+                while (s.buffer.hasRemaining()) {
+                    int chunk = Math.min(options.bufferSize(), s.buffer.remaining());
+                    ByteBuffer part = s.buffer.slice(s.buffer.position(), chunk);
+                    readFully(source, part, offset + s.buffer.position());
+                    s.buffer.position(s.buffer.position() + chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the staging area with a new component's blob, in place.
+     */
+    private void stageNew(Staging s, ComponentId component) throws IOException {
+        fill(s.buffer, fillByte(component));
+        if (s.file != null) {
+            for (long position = 0; position < blobSize; position += s.buffer.capacity())
+                writeFully(s.file, s.buffer.clear().limit((int) Math.min(s.buffer.capacity(), blobSize - position)),
+                        position);
+        }
+    }
+
+    /**
+     * Copies the staged blob into the destination slot.
+     */
+    private void unstage(Staging s, DeviceId device, int slot) throws IOException {
+        long offset = offset(slot);
+        FileChannel destination = channel(device);
+        switch (options.mode()) {
+            case TRANSFER_TO -> {
+                long done = 0;
+                s.file.position(0);
+                while (done < blobSize)
+                    done += destination.transferFrom(s.file, offset + done, blobSize - done);
+            }
+            case MAPPED -> mappings.get(device).put((int) offset, s.buffer, 0, blobSize);
+            case BUFFERED -> {
+                for (int position = 0; position < blobSize; position += options.bufferSize()) {
+                    int chunk = Math.min(options.bufferSize(), blobSize - position);
+                    writeFully(destination, s.buffer.slice(position, chunk), offset + position);
+                }
+            }
+        }
+        if (options.force()) {
+            if (options.mode() == Mode.MAPPED)
+                mappings.get(device).force((int) offset, blobSize);
+            else
+                destination.force(false);
+        }
+    }
+
+    /**
+     * Doubles the filled prefix with every bulk copy, as direct buffers have no array to fill.
+     */
+    private static void fill(ByteBuffer buffer, byte value) {
+        int size = buffer.capacity();
+        buffer.put(0, value);
+        for (int filled = 1; filled < size; filled *= 2)
+            buffer.put(filled, buffer, 0, Math.min(filled, size - filled));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of a device file");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /**
+     * Where a transfer keeps its blob between prepare() and perform(), either a file, with the
+     * buffer used only to fill it for an added component, or a buffer holding the whole blob.
+     */
+    private record Staging(FileChannel file, ByteBuffer buffer) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            if (file != null)
+                file.close();
+        }
+    }
+
+    private final class FileTransfer implements SlotAwareTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final DeviceId dstDevId;
+        private int sourceSlot;
+        private int destinationSlot;
+        private Staging staging;
+
+        FileTransfer(ComponentId compId, DeviceId srcDevId, DeviceId dstDevId) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.dstDevId = dstDevId;
+            // Until the system reports the slots, so that a system which never does is caught.
+            this.sourceSlot = -1;
+            this.destinationSlot = -1;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return dstDevId;
+        }
+
+        @Override
+        public void setSlots(int sourceSlot, int destinationSlot) {
+            this.sourceSlot = sourceSlot;
+            this.destinationSlot = destinationSlot;
+        }
+
+        @Override
+        public void prepare() {
+            // A deleted component's blob is simply left behind, the slot is free to be overwritten.
+            if (dstDevId == null)
+                return;
+            if (destinationSlot < 0 || srcDevId != null && sourceSlot < 0)
+                throw new IllegalStateException("No slots reported for " + this
+                        + ", the system has to report them, see SlotAwareTransfer");
+            try {
+                staging = acquireStaging();
+                if (srcDevId == null)
+                    stageNew(staging, compId);
+                else
+                    stage(staging, srcDevId, sourceSlot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void perform() {
+            if (dstDevId == null)
+                return;
+            try {
+                unstage(staging, dstDevId, destinationSlot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                releaseStaging(staging);
+                staging = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "FileTransfer{" + compId + ": " + srcDevId + " slot " + sourceSlot
+                    + " -> " + dstDevId + " slot " + destinationSlot + '}';
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Bytes allocated by the system per transfer, measured on the calling thread. The transfers
+ * themselves are created up front, so only allocations of the system are counted.
+ * Moves alternate a component between two devices with free slots, adds and deletes
+ * put a component on a device and take it off again.
+ */
+public final class AllocationBenchmark {
+    private static final int WARM_UP = 200_000;
+    private static final int OPERATIONS = 1_000_000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Per-thread allocation counting is not supported by this JVM");
+            return;
+        }
+
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId moved = new ComponentId(1);
+        ComponentId added = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2, d2, 2), Map.of(moved, d1));
+        ComponentTransfer[] moves = {new EmptyTransfer(moved, d1, d2), new EmptyTransfer(moved, d2, d1)};
+        ComponentTransfer[] addAndDelete = {new EmptyTransfer(added, null, d2), new EmptyTransfer(added, d2, null)};
+
+        run(system, moves, WARM_UP);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        run(system, moves, OPERATIONS);
+        long after = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        System.out.printf("move          %6.1f bytes/op%n", (double) (after - before) / OPERATIONS);
+
+        run(system, addAndDelete, WARM_UP);
+        before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        run(system, addAndDelete, OPERATIONS);
+        after = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        System.out.printf("add or delete %6.1f bytes/op%n", (double) (after - before) / OPERATIONS);
+    }
+
+    private static void run(ConcurrentStorageSystem system, ComponentTransfer[] transfers, int operations) {
+        try {
+            for (int i = 0; i < operations; i++)
+                system.execute(transfers[i % transfers.length]);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record EmptyTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                 DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
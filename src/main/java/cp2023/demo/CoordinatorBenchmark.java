@@ -0,0 +1,98 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.CoordinatedStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput of the lock-based engine and of the single-writer coordinator for 1 to 64 caller
+ * threads. Every thread moves its own component back and forth between two devices which always
+ * have free slots, with transfers doing no work, so only the cost of the scheduling is measured.
+ */
+public final class CoordinatorBenchmark {
+    private static final int DEVICES = 8;
+    private static final int MAX_THREADS = 64;
+    private static final int WARM_UP = 50_000;
+    private static final int OPERATIONS = 400_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("threads      locks  coordinator  (moves/s)");
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            double locks = measure(newSystem(false, threads), threads);
+            double coordinated;
+            try (CoordinatedStorageSystem system = (CoordinatedStorageSystem) newSystem(true, threads)) {
+                coordinated = measure(system, threads);
+            }
+            System.out.printf("%7d %10.0f %12.0f%n", threads, locks, coordinated);
+        }
+    }
+
+    private static StorageSystem newSystem(boolean coordinated, int threads) {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 0; d < DEVICES; d++)
+            capacities.put(new DeviceId(d), MAX_THREADS);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < threads; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES));
+        return coordinated
+                ? StorageSystemFactory.newCoordinatedSystem(capacities, placement)
+                : StorageSystemFactory.newSystem(capacities, placement);
+    }
+
+    private static double measure(StorageSystem system, int threads) throws InterruptedException {
+        run(system, threads, WARM_UP);
+        long start = System.nanoTime();
+        run(system, threads, OPERATIONS);
+        return OPERATIONS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Makes the given number of moves split between the threads, each of them ending where it started.
+     */
+    private static void run(StorageSystem system, int threads, int operations) throws InterruptedException {
+        int perThread = operations / threads / 2 * 2;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            ComponentId comp = new ComponentId(t);
+            DeviceId home = new DeviceId(t % DEVICES);
+            DeviceId away = new DeviceId((t + 1) % DEVICES);
+            ComponentTransfer[] moves = {new EmptyTransfer(comp, home, away), new EmptyTransfer(comp, away, home)};
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++)
+                    execute(system, moves[i % 2]);
+            }));
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+    }
+
+    private static void execute(StorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record EmptyTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                 DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.DestinationChoosingTransfer;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+
+/**
+ * Compares the wait time (from execute() until prepare()) of moves which pick a single,
+ * skewed destination with moves which offer the system a few acceptable destinations.
+ */
+public final class DestinationChoiceBenchmark {
+    private static final int DEVICES = 6;
+    private static final int CAPACITY = 4;
+    private static final int THREADS = 16;
+    private static final int COMPONENTS_PER_THREAD = 1;
+    private static final int MOVES_PER_THREAD = 200;
+    private static final double HOT_DEVICE_PROBABILITY = 0.6;
+    private static final int CANDIDATES = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("single destination:     " + run(false));
+        System.out.println("candidate destinations: " + run(true));
+    }
+
+    private static LatencySummary run(boolean offerCandidates) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < THREADS * COMPONENTS_PER_THREAD; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+
+        StorageSystem system = StorageSystemFactory.newSystem(capacities, placement);
+        LatencySummary waits = new LatencySummary();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * COMPONENTS_PER_THREAD;
+            threads.add(new Thread(() -> {
+                Random random = new Random(first);
+                Map<ComponentId, DeviceId> owned = new HashMap<>();
+                for (int c = first; c < first + COMPONENTS_PER_THREAD; c++)
+                    owned.put(new ComponentId(c), placement.get(new ComponentId(c)));
+                List<ComponentId> ids = new ArrayList<>(owned.keySet());
+
+                for (int i = 0; i < MOVES_PER_THREAD; i++) {
+                    ComponentId comp = ids.get(random.nextInt(ids.size()));
+                    DeviceId src = owned.get(comp);
+                    Set<DeviceId> candidates = new LinkedHashSet<>();
+                    candidates.add(skewedDestination(random, src));
+                    while (offerCandidates && candidates.size() < CANDIDATES)
+                        candidates.add(uniformDestination(random, src));
+
+                    TimedMove move = new TimedMove(comp, src, candidates);
+                    execute(system, move);
+                    waits.record(move.waitNanos());
+                    owned.put(comp, move.getDestinationDeviceId());
+                }
+
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                for (ComponentId comp : ids)
+                    execute(system, new TimedMove(comp, owned.get(comp), null));
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        return waits;
+    }
+
+    private static void execute(StorageSystem system, TimedMove move) {
+        try {
+            system.execute(move);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private static DeviceId skewedDestination(Random random, DeviceId src) {
+        DeviceId hot = new DeviceId(1);
+        if (!hot.equals(src) && random.nextDouble() < HOT_DEVICE_PROBABILITY)
+            return hot;
+        return uniformDestination(random, src);
+    }
+
+    private static DeviceId uniformDestination(Random random, DeviceId src) {
+        DeviceId dst;
+        do {
+            dst = new DeviceId(random.nextInt(DEVICES) + 1);
+        } while (dst.equals(src));
+        return dst;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    private static final class TimedMove implements DestinationChoosingTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final Set<DeviceId> candidates;
+        private final long submitted;
+        private DeviceId dstDevId;
+        private long prepared;
+
+        TimedMove(ComponentId compId, DeviceId srcDevId, Set<DeviceId> candidates) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.candidates = candidates;
+            this.submitted = System.nanoTime();
+        }
+
+        long waitNanos() {
+            return prepared - submitted;
+        }
+
+        @Override
+        public Set<DeviceId> getCandidateDestinationIds() {
+            return candidates;
+        }
+
+        @Override
+        public void setDestinationDeviceId(DeviceId destination) {
+            this.dstDevId = destination;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+            prepared = System.nanoTime();
+            sleep(1);
+        }
+
+        @Override
+        public void perform() {
+            sleep(2);
+        }
+    }
+}
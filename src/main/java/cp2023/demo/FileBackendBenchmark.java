@@ -0,0 +1,115 @@
+package cp2023.demo;
+
+import cp2023.backend.FileBackend;
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.SlotAwareTransfer;
+import cp2023.solution.StorageSystemFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Moves components stored in real files between devices, every thread its own component to
+ * random devices, with the copies done in each of the ways the file backend supports.
+ * Reports moves per second and the bandwidth of the copies. Takes the directory for the device
+ * files as an optional argument, the default temporary directory otherwise; the files are removed
+ * afterwards. Results depend heavily on the page cache: with blobs fitting in memory, most
+ * copies never reach the disk.
+ */
+public final class FileBackendBenchmark {
+    private static final int DEVICES = 4;
+    private static final int CAPACITY = 8;
+    private static final int THREADS = 16;
+    private static final int MOVES_PER_THREAD = 40;
+    private static final int BLOB_SIZE = 1024 * 1024;
+
+    private static final List<FileBackend.Options> CONFIGURATIONS = List.of(
+            new FileBackend.Options(FileBackend.Mode.TRANSFER_TO, 64 * 1024, false, false),
+            new FileBackend.Options(FileBackend.Mode.MAPPED, 64 * 1024, true, false),
+            new FileBackend.Options(FileBackend.Mode.BUFFERED, 8 * 1024, false, false),
+            new FileBackend.Options(FileBackend.Mode.BUFFERED, 64 * 1024, false, false),
+            new FileBackend.Options(FileBackend.Mode.BUFFERED, 64 * 1024, true, false),
+            new FileBackend.Options(FileBackend.Mode.BUFFERED, 1024 * 1024, true, false),
+            new FileBackend.Options(FileBackend.Mode.TRANSFER_TO, 64 * 1024, false, true));
+
+    public static void main(String[] args) throws Exception {
+        Path parent = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("java.io.tmpdir"));
+        Path directory = Files.createTempDirectory(parent, "devices");
+        try {
+            // The first run only warms up the JIT and the page cache.
+            run(directory, CONFIGURATIONS.get(0), false);
+            for (FileBackend.Options options : CONFIGURATIONS)
+                run(directory, options, true);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+        }
+    }
+
+    private static void run(Path directory, FileBackend.Options options, boolean report)
+            throws IOException, InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 0; d < DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < THREADS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES));
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+
+        try (FileBackend backend = FileBackend.create(directory, capacities, BLOB_SIZE, options)) {
+            ByteBuffer blob = ByteBuffer.allocate(BLOB_SIZE);
+            for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet()) {
+                Arrays.fill(blob.array(), (byte) entry.getKey().hashCode());
+                backend.write(entry.getValue(), system.slotOf(entry.getKey()).orElseThrow(), blob.clear());
+            }
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                ComponentId comp = new ComponentId(t);
+                threads.add(new Thread(() -> {
+                    Random random = new Random(comp.hashCode());
+                    DeviceId src = placement.get(comp);
+                    for (int i = 0; i < MOVES_PER_THREAD; i++) {
+                        DeviceId dst;
+                        do {
+                            dst = new DeviceId(random.nextInt(DEVICES));
+                        } while (dst.equals(src));
+                        execute(system, backend.transfer(comp, src, dst));
+                        src = dst;
+                    }
+                }));
+            }
+
+            long start = System.nanoTime();
+            for (Thread t : threads)
+                t.start();
+            for (Thread t : threads)
+                t.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long moves = (long) THREADS * MOVES_PER_THREAD;
+            if (report)
+                System.out.printf("%-11s buffer=%7d direct=%-5b force=%-5b %8.0f moves/s %8.1f MB/s%n",
+                        options.mode(), options.bufferSize(), options.directBuffers(), options.force(),
+                        moves / seconds, moves * (double) BLOB_SIZE / seconds / (1024 * 1024));
+        }
+    }
+
+    private static void execute(ConcurrentStorageSystem system, SlotAwareTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+}
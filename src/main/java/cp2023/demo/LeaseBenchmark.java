@@ -0,0 +1,119 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.CapacityLease;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Planned migrations onto a device under background traffic which keeps all devices nearly full.
+ * The planner knows about each batch some time ahead; with leases it reserves the slots for
+ * the batch then, without them the batch competes for slots with everybody else. Reports
+ * the time from the start of a batch until all of its components have arrived.
+ */
+public final class LeaseBenchmark {
+    private static final int DEVICES = 4;
+    private static final int CAPACITY = 8;
+    private static final int FREE_SLOTS = 2;
+    private static final int BATCH = 4;
+    private static final int BATCHES = 20;
+    private static final long PLAN_AHEAD_MILLIS = 50;
+    private static final long IO_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("without leases: " + run(false));
+        System.out.println("with leases:    " + run(true));
+    }
+
+    private static LatencySummary run(boolean leases) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < DEVICES * CAPACITY - FREE_SLOTS - BATCH; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                capacities, placement);
+
+        // The background traffic keeps running until all batches are done.
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> background = new ArrayList<>();
+        for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet()) {
+            background.add(new Thread(() -> {
+                Random random = new Random(entry.getKey().hashCode());
+                DeviceId src = entry.getValue();
+                while (running.get()) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(DEVICES) + 1);
+                    } while (dst.equals(src));
+                    execute(system, new SlowTransfer(entry.getKey(), src, dst), null);
+                    src = dst;
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                execute(system, new SlowTransfer(entry.getKey(), src, null), null);
+            }));
+        }
+        for (Thread t : background)
+            t.start();
+
+        LatencySummary batches = new LatencySummary();
+        DeviceId target = new DeviceId(1);
+        for (int batch = 0; batch < BATCHES; batch++) {
+            CapacityLease lease = leases ? system.lease(target, BATCH, 10, TimeUnit.SECONDS) : null;
+            Thread.sleep(PLAN_AHEAD_MILLIS);
+
+            List<Thread> moves = new ArrayList<>();
+            for (int i = 0; i < BATCH; i++) {
+                ComponentId component = new ComponentId(1_000_000 + batch * BATCH + i);
+                moves.add(new Thread(() -> execute(system, new SlowTransfer(component, null, target), lease)));
+            }
+            long start = System.nanoTime();
+            for (Thread t : moves)
+                t.start();
+            for (Thread t : moves)
+                t.join();
+            batches.record(System.nanoTime() - start);
+            if (lease != null)
+                lease.close();
+
+            for (int i = 0; i < BATCH; i++)
+                execute(system, new SlowTransfer(new ComponentId(1_000_000 + batch * BATCH + i), target, null), null);
+        }
+
+        running.set(false);
+        for (Thread t : background)
+            t.join();
+        return batches;
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer, CapacityLease lease) {
+        try {
+            system.execute(transfer, lease);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record SlowTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+
+        @Override
+        public void perform() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+    }
+}
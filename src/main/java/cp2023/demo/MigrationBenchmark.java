@@ -0,0 +1,124 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.Migration;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves a full system to a shuffled placement with the same occupancy of every device,
+ * once by submitting all the moves at once, each from its own thread, and once through
+ * migrateTo() with a bounded number of moves running. Reports the wall-clock time of both.
+ */
+public final class MigrationBenchmark {
+    private static final int DEVICES = 16;
+    private static final int CAPACITY = 32;
+    private static final int FREE_SLOTS = 0;
+    private static final int PARALLELISM = 64;
+    private static final long IO_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("naive:    %.1fms%n", naive(round) / 1e6);
+            System.out.printf("migrateTo: %.1fms%n", planned(round) / 1e6);
+        }
+    }
+
+    private static long naive(long seed) throws InterruptedException {
+        Map<ComponentId, DeviceId> placement = placement();
+        Map<ComponentId, DeviceId> target = shuffled(placement, seed);
+        ConcurrentStorageSystem system = newSystem(placement);
+
+        List<Thread> threads = new ArrayList<>();
+        target.forEach((c, d) -> {
+            if (!d.equals(placement.get(c)))
+                threads.add(new Thread(() -> execute(system, new SlowTransfer(c, placement.get(c), d))));
+        });
+        long start = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        long elapsed = System.nanoTime() - start;
+        check(system, target);
+        return elapsed;
+    }
+
+    private static long planned(long seed) throws InterruptedException {
+        Map<ComponentId, DeviceId> placement = placement();
+        Map<ComponentId, DeviceId> target = shuffled(placement, seed);
+        ConcurrentStorageSystem system = newSystem(placement);
+
+        Migration migration = system.migrateTo(target, SlowTransfer::new, PARALLELISM);
+        migration.await();
+        System.out.println(migration);
+        check(system, target);
+        return migration.elapsedNanos();
+    }
+
+    private static Map<ComponentId, DeviceId> placement() {
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        int c = 0;
+        for (int d = 1; d <= DEVICES; d++) {
+            for (int i = 0; i < CAPACITY - FREE_SLOTS; i++)
+                placement.put(new ComponentId(c++), new DeviceId(d));
+        }
+        return placement;
+    }
+
+    private static Map<ComponentId, DeviceId> shuffled(Map<ComponentId, DeviceId> placement, long seed) {
+        List<ComponentId> components = new ArrayList<>(placement.keySet());
+        components.sort(Comparator.comparingInt(ComponentId::hashCode));
+        List<DeviceId> devices = new ArrayList<>();
+        for (ComponentId c : components)
+            devices.add(placement.get(c));
+        Collections.shuffle(devices, new Random(seed));
+
+        Map<ComponentId, DeviceId> target = new HashMap<>();
+        for (int i = 0; i < components.size(); i++)
+            target.put(components.get(i), devices.get(i));
+        return target;
+    }
+
+    private static ConcurrentStorageSystem newSystem(Map<ComponentId, DeviceId> placement) {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        return (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+    }
+
+    private static void check(ConcurrentStorageSystem system, Map<ComponentId, DeviceId> target) {
+        target.forEach((c, d) -> {
+            if (!system.locate(c).equals(Optional.of(d)))
+                throw new IllegalStateException(c + " is not on " + d);
+        });
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record SlowTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+
+        @Override
+        public void perform() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+    }
+}
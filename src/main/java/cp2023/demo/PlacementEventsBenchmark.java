@@ -0,0 +1,154 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.PlacementEvent;
+import cp2023.solution.PlacementEventPublisher;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfer throughput with several subscribers of placement events, one of which is
+ * too slow to keep up, and the delivery rate each of the subscribers gets.
+ */
+public final class PlacementEventsBenchmark {
+    private static final int DEVICES = 8;
+    private static final int CAPACITY = 4;
+    private static final int WRITERS = 16;
+    private static final long DURATION_MILLIS = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        run(0, false);
+        run(4, false);
+        run(4, true);
+    }
+
+    private static void run(int subscribers, boolean withSlowSubscriber) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 0; d < DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < WRITERS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES));
+
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, subscribers));
+        system.setPlacementEventPublisher(new PlacementEventPublisher(
+                executor, PlacementEventPublisher.DEFAULT_BUFFER_CAPACITY, PlacementEventPublisher.OverflowPolicy.MARK_GAP));
+        List<CountingSubscriber> counters = new ArrayList<>();
+        for (int s = 0; s < subscribers; s++) {
+            CountingSubscriber counter = new CountingSubscriber(withSlowSubscriber && s == 0);
+            counters.add(counter);
+            system.placementEvents().subscribe(counter);
+        }
+
+        long deadline = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+        AtomicLong transfers = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final ComponentId comp = new ComponentId(w);
+            threads.add(new Thread(() -> {
+                Random random = new Random(comp.hashCode());
+                DeviceId src = placement.get(comp);
+                while (System.nanoTime() < deadline) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(DEVICES));
+                    } while (dst.equals(src));
+                    execute(system, new NoopTransfer(comp, src, dst));
+                    src = dst;
+                    transfers.incrementAndGet();
+                }
+                // Deleting never waits and frees the slots other writers may still be waiting for.
+                execute(system, new NoopTransfer(comp, src, null));
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        double seconds = DURATION_MILLIS / 1000.0;
+        System.out.printf("%d subscribers%s: transfers/s=%.0f dropped=%d%n", subscribers,
+                withSlowSubscriber ? " (one slow)" : "", transfers.get() / seconds,
+                system.placementEvents().droppedEvents());
+        for (CountingSubscriber counter : counters)
+            System.out.printf("    %s received/s=%.0f gaps=%d%n", counter.slow ? "slow" : "fast",
+                    counter.received.get() / seconds, counter.gaps.get());
+        system.placementEvents().close();
+        executor.shutdown();
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private static final class CountingSubscriber implements Flow.Subscriber<PlacementEvent> {
+        private final boolean slow;
+        private final AtomicLong received;
+        private final AtomicLong gaps;
+        private Flow.Subscription subscription;
+        private long lastSequence;
+
+        CountingSubscriber(boolean slow) {
+            this.slow = slow;
+            this.received = new AtomicLong();
+            this.gaps = new AtomicLong();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(slow ? 1 : Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(PlacementEvent item) {
+            received.incrementAndGet();
+            if (lastSequence != 0 && item.sequence() != lastSequence + 1)
+                gaps.incrementAndGet();
+            lastSequence = item.sequence();
+            if (slow) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("panic: unexpected thread interruption", e);
+                }
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private record NoopTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
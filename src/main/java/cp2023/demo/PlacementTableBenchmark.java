@@ -0,0 +1,132 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.PlacementTable;
+import cp2023.solution.PlacementTableReader;
+import cp2023.solution.StorageSystemFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of lookups in a published placement table while other threads keep moving
+ * components as fast as they can, compared with asking the system itself, and how much keeping
+ * the table up to date slows the transfers down. The readers map the file on their own, exactly
+ * as a process on the same host would.
+ */
+public final class PlacementTableBenchmark {
+    private static final int DEVICES = 8;
+    private static final int CAPACITY = 4;
+    private static final int WRITERS = 16;
+    private static final int READERS = 4;
+    private static final long DURATION_MILLIS = 2000;
+
+    private enum Mode { NO_TABLE, TABLE, SYSTEM_LOCATE, TABLE_LOCATE, TABLE_FREE_SPACE }
+
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("placement", ".table");
+        try {
+            for (Mode mode : Mode.values())
+                run(mode, file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void run(Mode mode, Path file) throws InterruptedException, IOException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 0; d < DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < WRITERS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES));
+
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        PlacementTable table = null;
+        PlacementTableReader reader = null;
+        if (mode != Mode.NO_TABLE) {
+            table = PlacementTable.create(file, DEVICES, WRITERS);
+            system.publishPlacementTable(table);
+            reader = PlacementTableReader.open(file);
+        }
+
+        long deadline = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+        AtomicLong transfers = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final ComponentId comp = new ComponentId(w);
+            threads.add(new Thread(() -> {
+                Random random = new Random(comp.hashCode());
+                DeviceId src = placement.get(comp);
+                while (System.nanoTime() < deadline) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(DEVICES));
+                    } while (dst.equals(src));
+                    execute(system, new NoopTransfer(comp, src, dst));
+                    src = dst;
+                    transfers.incrementAndGet();
+                }
+                // Deleting never waits and frees the slots other writers may still be waiting for.
+                execute(system, new NoopTransfer(comp, src, null));
+            }));
+        }
+
+        final PlacementTableReader tableReader = reader;
+        for (int r = 0; mode.ordinal() > Mode.TABLE.ordinal() && r < READERS; r++) {
+            final int seed = r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                long done = 0;
+                while (System.nanoTime() < deadline) {
+                    switch (mode) {
+                        case SYSTEM_LOCATE -> system.locate(new ComponentId(random.nextInt(WRITERS)));
+                        case TABLE_LOCATE -> tableReader.locate(new ComponentId(random.nextInt(WRITERS)));
+                        case TABLE_FREE_SPACE -> tableReader.freeSpace(new DeviceId(random.nextInt(DEVICES)));
+                    }
+                    done++;
+                }
+                reads.addAndGet(done);
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        if (table != null)
+            table.close();
+
+        double seconds = DURATION_MILLIS / 1000.0;
+        System.out.printf("%-16s transfers/s=%10.0f reads/s=%12.0f%n",
+                mode, transfers.get() / seconds, reads.get() / seconds);
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record NoopTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package cp2023.demo;
+
+import cp2023.simulation.CrossCheck;
+import cp2023.simulation.Simulator;
+import cp2023.simulation.Workloads;
+import cp2023.trace.TraceFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates the scheduling rules on an hour of synthetic traffic in virtual time, then
+ * cross-checks the simulator against the real system on small traces.
+ * Run with a path to simulate a recorded trace instead.
+ */
+public final class PolicySimulation {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0) {
+            System.out.println(Simulator.run(TraceFile.read(Path.of(args[0]))));
+            return;
+        }
+
+        // 200 components, each moving about every 3 seconds for an hour.
+        System.out.println("zipf, an hour:");
+        System.out.println(Simulator.run(Workloads.zipf(10, 25, 200, 1200, 1.2,
+                20 * MILLIS, 200 * MILLIS, 3000 * MILLIS, 1)));
+        System.out.println("cycle-heavy, an hour:");
+        System.out.println(Simulator.run(Workloads.cycleHeavy(10, 5, 1200,
+                20 * MILLIS, 200 * MILLIS, 3000 * MILLIS, 1)));
+
+        System.out.println();
+        System.out.println("cross-check, zipf:");
+        System.out.println(CrossCheck.run(Workloads.zipf(5, 4, 12, 30, 1.2,
+                2 * MILLIS, 3 * MILLIS, 2 * MILLIS, 2)));
+        System.out.println("cross-check, cycle-heavy:");
+        System.out.println(CrossCheck.run(Workloads.cycleHeavy(4, 3, 20,
+                2 * MILLIS, 3 * MILLIS, 4 * MILLIS, 2)));
+    }
+}
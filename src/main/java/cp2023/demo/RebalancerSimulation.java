@@ -0,0 +1,172 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.Rebalancer;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bursty foreground traffic which keeps pushing components towards two hot devices,
+ * with idle gaps in between. Compares the foreground wait time (from execute() until
+ * prepare()) with and without a Rebalancer using the gaps to even the devices out.
+ */
+public final class RebalancerSimulation {
+    private static final int DEVICES = 6;
+    private static final int CAPACITY = 6;
+    // A single component per thread, so every component on a full device belongs to a thread
+    // which will eventually move it away and the workload cannot get stuck.
+    private static final int THREADS = 24;
+    private static final int BURSTS = 40;
+    private static final int MOVES_PER_BURST = 2;
+    private static final long BURST_PERIOD_MILLIS = 60;
+    private static final double HOT_DEVICE_PROBABILITY = 0.3;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("without rebalancer: " + run(false));
+        System.out.println("with rebalancer:    " + run(true));
+    }
+
+    private static LatencySummary run(boolean rebalance) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+
+        // Start with the hot devices already full.
+        ConcurrentMap<ComponentId, DeviceId> location = new ConcurrentHashMap<>();
+        for (int c = 0; c < THREADS; c++) {
+            int device = c < 2 * CAPACITY ? c / CAPACITY + 1 : 3 + c % (DEVICES - 2);
+            location.put(new ComponentId(c), new DeviceId(device));
+        }
+
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, new HashMap<>(location));
+        Rebalancer rebalancer = new Rebalancer(system,
+                (comp, src, dst) -> new Move(comp, src, dst, location, null), 500, 0.2);
+        if (rebalance)
+            rebalancer.start();
+
+        LatencySummary waits = new LatencySummary();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < THREADS; t++) {
+            final ComponentId comp = new ComponentId(t);
+            threads.add(new Thread(() -> {
+                Random random = new Random(comp.hashCode());
+                for (int burst = 1; burst <= BURSTS; burst++) {
+                    for (int i = 0; i < MOVES_PER_BURST; i++)
+                        executeWithRetry(system, location, comp, random, waits);
+                    // All threads start their bursts together, leaving idle gaps in between.
+                    sleep(Math.max(0, start + burst * BURST_PERIOD_MILLIS - System.currentTimeMillis()));
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                executeWithRetry(system, location, comp, null, null);
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        rebalancer.stop();
+        if (rebalance)
+            System.out.println("rebalancer: " + rebalancer.movesIssued() + " moves, "
+                    + rebalancer.backOffs() + " back-offs");
+        return waits;
+    }
+
+    /**
+     * The rebalancer may be moving the component at the same time, in which case
+     * the transfer is rejected and retried with the new location.
+     */
+    private static void executeWithRetry(ConcurrentStorageSystem system, Map<ComponentId, DeviceId> location,
+                                         ComponentId comp, Random random, LatencySummary waits) {
+        while (true) {
+            DeviceId src = location.get(comp);
+            DeviceId dst = random == null ? null : destination(random, src);
+            Move move = new Move(comp, src, dst, location, waits);
+            try {
+                system.execute(move);
+                return;
+            } catch (TransferException e) {
+                sleep(1);
+            }
+        }
+    }
+
+    private static DeviceId destination(Random random, DeviceId src) {
+        DeviceId dst;
+        do {
+            if (random.nextDouble() < HOT_DEVICE_PROBABILITY)
+                dst = new DeviceId(random.nextInt(2) + 1);
+            else
+                dst = new DeviceId(random.nextInt(DEVICES) + 1);
+        } while (dst.equals(src));
+        return dst;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    private static final class Move implements ComponentTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final DeviceId dstDevId;
+        private final Map<ComponentId, DeviceId> location;
+        private final LatencySummary waits;
+        private final long submitted;
+
+        Move(ComponentId compId, DeviceId srcDevId, DeviceId dstDevId,
+             Map<ComponentId, DeviceId> location, LatencySummary waits) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.dstDevId = dstDevId;
+            this.location = location;
+            this.waits = waits;
+            this.submitted = System.nanoTime();
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+            if (waits != null)
+                waits.record(System.nanoTime() - submitted);
+            sleep(1);
+        }
+
+        @Override
+        public void perform() {
+            sleep(2);
+            if (dstDevId == null)
+                location.remove(compId);
+            else
+                location.put(compId, dstDevId);
+        }
+    }
+}
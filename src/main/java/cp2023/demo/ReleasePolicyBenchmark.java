@@ -0,0 +1,99 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.ReleasePolicy;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Many nearly full devices, every component moving to a random other device over and over,
+ * so that each freed slot has many chains of waiting transfers to choose from. Compares
+ * throughput and latency of transfers under both release policies.
+ */
+public final class ReleasePolicyBenchmark {
+    private static final int DEVICES = 8;
+    private static final int CAPACITY = 4;
+    private static final int FREE_SLOTS = 2;
+    private static final int MOVES_PER_COMPONENT = 30;
+    private static final long IO_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+            for (ReleasePolicy policy : ReleasePolicy.values())
+                System.out.printf("%-13s %s%n", policy, run(policy, repetition));
+        }
+    }
+
+    private static String run(ReleasePolicy policy, long seed) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < DEVICES * CAPACITY - FREE_SLOTS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                capacities, placement);
+        system.setReleasePolicy(policy);
+
+        LatencySummary latencies = new LatencySummary();
+        List<Thread> threads = new ArrayList<>();
+        for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet()) {
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed * 1_000 + entry.getKey().hashCode());
+                DeviceId src = entry.getValue();
+                for (int i = 0; i < MOVES_PER_COMPONENT; i++) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(DEVICES) + 1);
+                    } while (dst.equals(src));
+                    long start = System.nanoTime();
+                    execute(system, new SlowMove(entry.getKey(), src, dst));
+                    latencies.record(System.nanoTime() - start);
+                    src = dst;
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                execute(system, new SlowMove(entry.getKey(), src, null));
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int transfers = threads.size() * (MOVES_PER_COMPONENT + 1);
+        return String.format("%7.1f transfers/s, moves: %s", transfers / seconds, latencies);
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record SlowMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                            DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+
+        @Override
+        public void perform() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+    }
+}
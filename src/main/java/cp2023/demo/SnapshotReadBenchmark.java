@@ -0,0 +1,110 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of locate(), freeSpace() and snapshot() while other threads keep
+ * moving components as fast as they can, and how much the readers slow the transfers down.
+ */
+public final class SnapshotReadBenchmark {
+    private static final int DEVICES = 8;
+    private static final int CAPACITY = 4;
+    private static final int WRITERS = 16;
+    private static final int READERS = 4;
+    private static final long DURATION_MILLIS = 2000;
+
+    private enum Query { NONE, LOCATE, FREE_SPACE, SNAPSHOT }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (Query query : Query.values())
+            run(query);
+    }
+
+    private static void run(Query query) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 0; d < DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < WRITERS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES));
+
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        long deadline = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+        AtomicLong transfers = new AtomicLong();
+        AtomicLong reads = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final ComponentId comp = new ComponentId(w);
+            threads.add(new Thread(() -> {
+                Random random = new Random(comp.hashCode());
+                DeviceId src = placement.get(comp);
+                while (System.nanoTime() < deadline) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(DEVICES));
+                    } while (dst.equals(src));
+                    execute(system, new NoopTransfer(comp, src, dst));
+                    src = dst;
+                    transfers.incrementAndGet();
+                }
+                // Deleting never waits and frees the slots other writers may still be waiting for.
+                execute(system, new NoopTransfer(comp, src, null));
+            }));
+        }
+
+        for (int r = 0; query != Query.NONE && r < READERS; r++) {
+            final int seed = r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                long done = 0;
+                while (System.nanoTime() < deadline) {
+                    switch (query) {
+                        case LOCATE -> system.locate(new ComponentId(random.nextInt(WRITERS)));
+                        case FREE_SPACE -> system.freeSpace(new DeviceId(random.nextInt(DEVICES)));
+                        case SNAPSHOT -> system.snapshot();
+                    }
+                    done++;
+                }
+                reads.addAndGet(done);
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        double seconds = DURATION_MILLIS / 1000.0;
+        System.out.printf("%-10s transfers/s=%10.0f reads/s=%12.0f%n",
+                query, transfers.get() / seconds, reads.get() / seconds);
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record NoopTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+import cp2023.solution.TenantTransfer;
+
+import java.util.*;
+
+/**
+ * One aggressive tenant keeps moving components as fast as it can, while a few light tenants
+ * occasionally move theirs. Compares the wait time (from execute() until prepare()) of both
+ * with a single FIFO queue, with fair queuing across equal tenants, and with fair queuing
+ * where the aggressive tenant has a lower weight and a concurrency cap.
+ */
+public final class TenantFairnessBenchmark {
+    private static final int DEVICES = 6;
+    private static final int CAPACITY = 5;
+    private static final int BULK_THREADS = 20;
+    private static final int LIGHT_TENANTS = 3;
+    private static final int THREADS_PER_LIGHT_TENANT = 2;
+    private static final int LIGHT_MOVES = 60;
+    private static final long LIGHT_GAP_MILLIS = 5;
+    private static final String BULK = "bulk";
+
+    private enum Mode {
+        SINGLE_QUEUE, EQUAL_WEIGHTS, CAPPED_BULK
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (Mode mode : Mode.values())
+            run(mode);
+    }
+
+    private static void run(Mode mode) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+
+        int components = BULK_THREADS + LIGHT_TENANTS * THREADS_PER_LIGHT_TENANT;
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < components; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        if (mode == Mode.CAPPED_BULK) {
+            system.configureTenant(BULK, 1, 8);
+            for (int t = 0; t < LIGHT_TENANTS; t++)
+                system.configureTenant("light-" + t, 4, Integer.MAX_VALUE);
+        }
+
+        LatencySummary bulkWaits = new LatencySummary();
+        LatencySummary lightWaits = new LatencySummary();
+        List<Thread> bulk = new ArrayList<>();
+        List<Thread> light = new ArrayList<>();
+        final boolean[] stop = {false};
+
+        for (int c = 0; c < components; c++) {
+            final ComponentId comp = new ComponentId(c);
+            final DeviceId first = placement.get(comp);
+            if (c < BULK_THREADS) {
+                String tenant = mode == Mode.SINGLE_QUEUE ? null : BULK;
+                bulk.add(new Thread(() -> {
+                    Random random = new Random(comp.hashCode());
+                    DeviceId src = first;
+                    while (!isStopped(stop))
+                        src = move(system, tenant, comp, src, destination(random, src), bulkWaits);
+                    move(system, tenant, comp, src, null, null);
+                }));
+            } else {
+                int lightTenant = (c - BULK_THREADS) / THREADS_PER_LIGHT_TENANT;
+                String tenant = mode == Mode.SINGLE_QUEUE ? null : "light-" + lightTenant;
+                light.add(new Thread(() -> {
+                    Random random = new Random(comp.hashCode());
+                    DeviceId src = first;
+                    for (int i = 0; i < LIGHT_MOVES; i++) {
+                        src = move(system, tenant, comp, src, destination(random, src), lightWaits);
+                        sleep(LIGHT_GAP_MILLIS);
+                    }
+                    move(system, tenant, comp, src, null, null);
+                }));
+            }
+        }
+
+        for (Thread t : bulk)
+            t.start();
+        for (Thread t : light)
+            t.start();
+        for (Thread t : light)
+            t.join();
+        synchronized (stop) {
+            stop[0] = true;
+        }
+        for (Thread t : bulk)
+            t.join();
+
+        System.out.println(mode + ":");
+        System.out.println("  bulk:  " + bulkWaits);
+        System.out.println("  light: " + lightWaits);
+    }
+
+    private static boolean isStopped(boolean[] stop) {
+        synchronized (stop) {
+            return stop[0];
+        }
+    }
+
+    private static DeviceId move(ConcurrentStorageSystem system, String tenant, ComponentId comp,
+                                 DeviceId src, DeviceId dst, LatencySummary waits) {
+        Move move = new Move(tenant, comp, src, dst, waits);
+        try {
+            system.execute(move);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+        return dst;
+    }
+
+    private static DeviceId destination(Random random, DeviceId src) {
+        DeviceId dst;
+        do {
+            dst = new DeviceId(random.nextInt(DEVICES) + 1);
+        } while (dst.equals(src));
+        return dst;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    private record Move(String getTenantId, ComponentId getComponentId, DeviceId getSourceDeviceId,
+                        DeviceId getDestinationDeviceId, LatencySummary waits, long submitted)
+            implements TenantTransfer {
+
+        Move(String tenant, ComponentId comp, DeviceId src, DeviceId dst, LatencySummary waits) {
+            this(tenant, comp, src, dst, waits, System.nanoTime());
+        }
+
+        @Override
+        public void prepare() {
+            if (waits != null)
+                waits.record(System.nanoTime() - submitted);
+            sleep(1);
+        }
+
+        @Override
+        public void perform() {
+            sleep(2);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Two full devices swapping all their components back and forth, so that every round releases
+ * a big cycle onto both of them at once. The devices are seek-bound: a transfer reads or writes
+ * in chunks and every switch of the head to another transfer costs a seek. Compares aggregate
+ * throughput with and without limiting the concurrent I/O per device.
+ */
+public final class ThrottleBenchmark {
+    private static final int CAPACITY = 16;
+    private static final int ROUNDS = 5;
+    private static final int CHUNKS = 8;
+    private static final long CHUNK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long SEEK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final int LIMIT = 1;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("unthrottled: " + run(false));
+        System.out.println("throttled:   " + run(true));
+    }
+
+    private static String run(boolean throttled) throws InterruptedException {
+        DeviceId a = new DeviceId(1);
+        DeviceId b = new DeviceId(2);
+        Map<DeviceId, Disk> disks = Map.of(a, new Disk(), b, new Disk());
+
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < 2 * CAPACITY; c++)
+            placement.put(new ComponentId(c), c < CAPACITY ? a : b);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(a, CAPACITY, b, CAPACITY), placement);
+        if (throttled) {
+            for (DeviceId d : disks.keySet())
+                system.throttle().limitDevice(d, LIMIT);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet()) {
+            threads.add(new Thread(() -> {
+                DeviceId src = entry.getValue();
+                for (int round = 0; round < ROUNDS; round++) {
+                    DeviceId dst = src.equals(a) ? b : a;
+                    execute(system, new DiskMove(entry.getKey(), src, dst, disks));
+                    src = dst;
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                execute(system, new DiskMove(entry.getKey(), src, null, disks));
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int transfers = threads.size() * (ROUNDS + 1);
+        long seeks = disks.values().stream().mapToLong(Disk::seeks).sum();
+        return String.format("%d transfers in %.3fs, %.1f transfers/s, %d seeks", transfers, seconds,
+                transfers / seconds, seeks);
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    /**
+     * Serves chunks one at a time in the order of arrival, seeking whenever the next chunk
+     * belongs to another transfer.
+     */
+    private static final class Disk {
+        private final ReentrantLock head = new ReentrantLock(true);
+        private Object position;
+        private long seeks;
+
+        void io(Object stream) {
+            for (int i = 0; i < CHUNKS; i++) {
+                head.lock();
+                try {
+                    if (position != stream) {
+                        seeks++;
+                        spin(SEEK_NANOS);
+                        position = stream;
+                    }
+                    spin(CHUNK_NANOS);
+                } finally {
+                    head.unlock();
+                }
+            }
+        }
+
+        long seeks() {
+            head.lock();
+            try {
+                return seeks;
+            } finally {
+                head.unlock();
+            }
+        }
+
+        private static void spin(long nanos) {
+            long deadline = System.nanoTime() + nanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0)
+                LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private record DiskMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                            DeviceId getDestinationDeviceId, Map<DeviceId, Disk> disks)
+            implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            disks.get(getSourceDeviceId()).io(this);
+        }
+
+        @Override
+        public void perform() {
+            if (getDestinationDeviceId() != null)
+                disks.get(getDestinationDeviceId()).io(this);
+        }
+    }
+}
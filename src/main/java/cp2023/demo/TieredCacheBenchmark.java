@@ -0,0 +1,156 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.DeviceTier;
+import cp2023.solution.StorageSystemFactory;
+import cp2023.solution.TieredCache;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Readers access components picked from a Zipf distribution, an access is cheap when the
+ * component is on the fast device and expensive otherwise, while a light stream of foreground
+ * transfers moves other components around. Compares the hit rate and the mean access time
+ * with and without a TieredCache, and reports how many transfers the cache added on top of
+ * the foreground ones.
+ */
+public final class TieredCacheBenchmark {
+    private static final int FAST_CAPACITY = 8;
+    private static final int STANDARD_DEVICES = 3;
+    private static final int STANDARD_CAPACITY = 24;
+    private static final int COMPONENTS = 60;
+    private static final int FOREGROUND_COMPONENTS = 4;
+    private static final double ZIPF_EXPONENT = 1.0;
+    private static final int READERS = 4;
+    private static final int ACCESSES_PER_READER = 3000;
+    private static final long FAST_ACCESS_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long STANDARD_ACCESS_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final long FOREGROUND_PERIOD_MILLIS = 5;
+    private static final long IO_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) throws InterruptedException {
+        run(false);
+        run(true);
+    }
+
+    private static void run(boolean cached) throws InterruptedException {
+        DeviceId fast = new DeviceId(0);
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        capacities.put(fast, FAST_CAPACITY);
+        for (int d = 1; d <= STANDARD_DEVICES; d++)
+            capacities.put(new DeviceId(d), STANDARD_CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < COMPONENTS + FOREGROUND_COMPONENTS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % STANDARD_DEVICES + 1));
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                capacities, placement);
+        system.setTier(fast, DeviceTier.FAST);
+
+        TieredCache cache = new TieredCache(system, SlowTransfer::new, 200);
+        if (cached)
+            cache.start();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong foregroundTransfers = new AtomicLong();
+        List<Thread> foreground = new ArrayList<>();
+        for (int c = COMPONENTS; c < COMPONENTS + FOREGROUND_COMPONENTS; c++) {
+            ComponentId component = new ComponentId(c);
+            DeviceId initial = placement.get(component);
+            foreground.add(new Thread(() -> {
+                Random random = new Random(component.hashCode());
+                DeviceId src = initial;
+                while (running.get()) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(STANDARD_DEVICES) + 1);
+                    } while (dst.equals(src));
+                    execute(system, new SlowTransfer(component, src, dst));
+                    foregroundTransfers.incrementAndGet();
+                    src = dst;
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FOREGROUND_PERIOD_MILLIS));
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                execute(system, new SlowTransfer(component, src, null));
+            }));
+        }
+        for (Thread t : foreground)
+            t.start();
+
+        double[] cumulative = zipf(COMPONENTS);
+        LatencySummary accesses = new LatencySummary();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Random random = new Random(r);
+            readers.add(new Thread(() -> {
+                for (int i = 0; i < ACCESSES_PER_READER; i++) {
+                    ComponentId component = new ComponentId(sample(cumulative, random));
+                    long start = System.nanoTime();
+                    cache.recordAccess(component);
+                    boolean hit = system.locate(component).flatMap(system::tier).orElse(null) == DeviceTier.FAST;
+                    LockSupport.parkNanos(hit ? FAST_ACCESS_NANOS : STANDARD_ACCESS_NANOS);
+                    accesses.record(System.nanoTime() - start);
+                }
+            }));
+        }
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : readers)
+            t.join();
+
+        cache.stop();
+        running.set(false);
+        for (Thread t : foreground)
+            t.join();
+
+        System.out.printf("%s: hit rate %.1f%%, %d promotions and %d evictions on top of %d foreground transfers, accesses: %s%n",
+                cached ? "with cache   " : "without cache", 100 * cache.hitRate(), cache.promotions(),
+                cache.evictions(), foregroundTransfers.get(), accesses);
+    }
+
+    private static double[] zipf(int n) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, ZIPF_EXPONENT);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++)
+            cumulative[k] /= sum;
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record SlowTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+
+        @Override
+        public void perform() {
+            LockSupport.parkNanos(IO_NANOS);
+        }
+    }
+}
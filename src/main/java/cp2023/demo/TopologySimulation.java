@@ -0,0 +1,167 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.DestinationChoosingTransfer;
+import cp2023.solution.StorageSystemFactory;
+import cp2023.solution.Topology;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Devices in two zones of two racks each. Every thread keeps moving its component to one of
+ * a few random candidate devices, a move within a rack being much cheaper than one across racks.
+ * Compares the share of cross-rack moves and the throughput of a system which knows the topology
+ * with one which does not.
+ */
+public final class TopologySimulation {
+    private static final int ZONES = 2;
+    private static final int RACKS_PER_ZONE = 2;
+    private static final int DEVICES_PER_RACK = 2;
+    private static final int DEVICES = ZONES * RACKS_PER_ZONE * DEVICES_PER_RACK;
+    private static final int CAPACITY = 4;
+    private static final int THREADS = 24;
+    private static final int MOVES_PER_THREAD = 150;
+    private static final int CANDIDATES = 3;
+    private static final long LOCAL_IO_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long SAME_ZONE_IO_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long REMOTE_IO_NANOS = TimeUnit.MILLISECONDS.toNanos(3);
+    private static final Map<DeviceId, Topology.Location> LOCATIONS = locations();
+
+    public static void main(String[] args) throws InterruptedException {
+        run(null);
+        run(new Topology(LOCATIONS));
+    }
+
+    private static Map<DeviceId, Topology.Location> locations() {
+        Map<DeviceId, Topology.Location> locations = new HashMap<>();
+        for (int d = 0; d < DEVICES; d++) {
+            int rack = d / DEVICES_PER_RACK;
+            locations.put(new DeviceId(d + 1),
+                    new Topology.Location("zone" + rack / RACKS_PER_ZONE, "rack" + rack % RACKS_PER_ZONE));
+        }
+        return locations;
+    }
+
+    private static void run(Topology topology) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < THREADS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                capacities, placement, topology);
+
+        AtomicLong crossRack = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            ComponentId comp = new ComponentId(t);
+            threads.add(new Thread(() -> {
+                Random random = new Random(comp.hashCode());
+                DeviceId src = placement.get(comp);
+                for (int i = 0; i < MOVES_PER_THREAD; i++) {
+                    Set<DeviceId> candidates = new HashSet<>();
+                    while (candidates.size() < CANDIDATES) {
+                        DeviceId candidate = new DeviceId(random.nextInt(DEVICES) + 1);
+                        if (!candidate.equals(src))
+                            candidates.add(candidate);
+                    }
+                    Move move = new Move(comp, src, candidates);
+                    execute(system, move);
+                    src = move.getDestinationDeviceId();
+                    if (!LOCATIONS.get(move.getSourceDeviceId()).equals(LOCATIONS.get(src)))
+                        crossRack.incrementAndGet();
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                execute(system, new Move(comp, src, null));
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long moves = (long) THREADS * MOVES_PER_THREAD;
+        System.out.printf("%s: %.1f%% cross-rack, %.0f moves/s%n",
+                topology == null ? "without topology" : "with topology   ",
+                100.0 * crossRack.get() / moves, moves / seconds);
+        if (topology != null)
+            System.out.println("counted by the system: " + system.localTransferCount() + " local, "
+                    + system.remoteTransferCount() + " remote");
+    }
+
+    private static void execute(ConcurrentStorageSystem system, Move move) {
+        try {
+            system.execute(move);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private static final class Move implements DestinationChoosingTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final Set<DeviceId> candidates;
+        private DeviceId dstDevId;
+
+        Move(ComponentId compId, DeviceId srcDevId, Set<DeviceId> candidates) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public Set<DeviceId> getCandidateDestinationIds() {
+            return candidates;
+        }
+
+        @Override
+        public void setDestinationDeviceId(DeviceId destination) {
+            this.dstDevId = destination;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+            LockSupport.parkNanos(ioNanos());
+        }
+
+        @Override
+        public void perform() {
+            LockSupport.parkNanos(ioNanos());
+        }
+
+        private long ioNanos() {
+            if (dstDevId == null)
+                return 0;
+            Topology.Location from = LOCATIONS.get(srcDevId);
+            Topology.Location to = LOCATIONS.get(dstDevId);
+            if (from.equals(to))
+                return LOCAL_IO_NANOS;
+            return from.zone().equals(to.zone()) ? SAME_ZONE_IO_NANOS : REMOTE_IO_NANOS;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.StorageSystemFactory;
+import cp2023.trace.Trace;
+import cp2023.trace.TraceFile;
+import cp2023.trace.TraceRecorder;
+import cp2023.trace.TraceReplayer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Records a synthetic workload into a trace file and replays it at 1x and 10x.
+ * Run with a path to replay an existing trace instead.
+ */
+public final class TraceReplay {
+    private static final int DEVICES = 5;
+    private static final int CAPACITY = 4;
+    private static final int THREADS = 12;
+    private static final int MOVES_PER_THREAD = 50;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path path;
+        if (args.length > 0) {
+            path = Path.of(args[0]);
+        } else {
+            path = Files.createTempFile("cp2023-", ".trace");
+            path.toFile().deleteOnExit();
+            record(path);
+            System.out.println("recorded " + Files.size(path) + " bytes into " + path);
+        }
+
+        Trace trace = TraceFile.read(path);
+        for (double speedup : new double[]{1, 10}) {
+            System.out.println(speedup + "x: " + TraceReplayer.replay(trace,
+                    StorageSystemFactory.newSystem(trace.deviceTotalSlots(), trace.componentPlacement()), speedup));
+        }
+    }
+
+    private static void record(Path path) throws IOException, InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < THREADS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+
+        try (TraceRecorder recorder = new TraceRecorder(
+                StorageSystemFactory.newSystem(capacities, placement), path, capacities, placement)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final ComponentId comp = new ComponentId(t);
+                threads.add(new Thread(() -> {
+                    Random random = new Random(comp.hashCode());
+                    DeviceId src = placement.get(comp);
+                    for (int i = 0; i < MOVES_PER_THREAD; i++) {
+                        DeviceId dst;
+                        do {
+                            dst = new DeviceId(random.nextInt(DEVICES) + 1);
+                        } while (dst.equals(src));
+                        execute(recorder, new SleepingTransfer(comp, src, dst, random));
+                        src = dst;
+                        sleep(random.nextInt(3));
+                    }
+                    // Deleting never waits and frees the slots other threads may still be waiting for.
+                    execute(recorder, new SleepingTransfer(comp, src, null, random));
+                }));
+            }
+
+            for (Thread t : threads)
+                t.start();
+            for (Thread t : threads)
+                t.join();
+        }
+    }
+
+    private static void execute(TraceRecorder recorder, ComponentTransfer transfer) {
+        try {
+            recorder.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    private record SleepingTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                    DeviceId getDestinationDeviceId, Random random) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            sleep(1 + random.nextInt(2));
+        }
+
+        @Override
+        public void perform() {
+            sleep(1 + random.nextInt(3));
+        }
+    }
+}
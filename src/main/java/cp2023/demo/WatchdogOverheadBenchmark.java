@@ -0,0 +1,100 @@
+package cp2023.demo;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StallWatchdog;
+import cp2023.solution.StorageSystemFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of transfers which do no work of their own, i.e. of the system alone, with
+ * the watchdog off and sampling every millisecond and every 100 microseconds.
+ */
+public final class WatchdogOverheadBenchmark {
+    private static final int DEVICES = 4;
+    private static final int CAPACITY = 8;
+    private static final int THREADS = 24;
+    private static final int MOVES_PER_THREAD = 20_000;
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        long[] periods = {0, 1000, 100};
+        for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+            for (long period : periods)
+                run(period);
+        }
+    }
+
+    private static void run(long periodMicros) throws InterruptedException {
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 1; d <= DEVICES; d++)
+            capacities.put(new DeviceId(d), CAPACITY);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < THREADS; c++)
+            placement.put(new ComponentId(c), new DeviceId(c % DEVICES + 1));
+
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        StallWatchdog watchdog = new StallWatchdog(system, 1_000_000, Math.max(1, periodMicros),
+                TimeUnit.MICROSECONDS, report -> System.out.println(report.toJson()));
+        if (periodMicros > 0)
+            watchdog.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet()) {
+            threads.add(new Thread(() -> {
+                Random random = new Random(entry.getKey().hashCode());
+                DeviceId src = entry.getValue();
+                for (int i = 0; i < MOVES_PER_THREAD; i++) {
+                    DeviceId dst;
+                    do {
+                        dst = new DeviceId(random.nextInt(DEVICES) + 1);
+                    } while (dst.equals(src));
+                    execute(system, new EmptyTransfer(entry.getKey(), src, dst));
+                    src = dst;
+                }
+                // Deleting never waits and frees the slots other threads may still be waiting for.
+                execute(system, new EmptyTransfer(entry.getKey(), src, null));
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        watchdog.stop();
+
+        System.out.printf("%-16s %9.0f transfers/s", periodMicros == 0 ? "no watchdog" : "every " + periodMicros + "us",
+                THREADS * (MOVES_PER_THREAD + 1) / seconds);
+        if (periodMicros > 0)
+            System.out.printf(", %d samples, %.1fus per sample, %d reports",
+                    watchdog.samples(), watchdog.meanSampleNanos() / 1e3, watchdog.reports());
+        System.out.println();
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e, e);
+        }
+    }
+
+    private record EmptyTransfer(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                 DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
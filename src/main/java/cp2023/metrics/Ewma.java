@@ -0,0 +1,50 @@
+package cp2023.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free exponentially weighted moving average. The first sample is taken as it is,
+ * every later one moves the average by the given fraction of its distance from the sample.
+ */
+public final class Ewma {
+    private static final long EMPTY = Double.doubleToRawLongBits(Double.NaN);
+
+    private final double weight;
+    private final AtomicLong bits;
+
+    /**
+     * @param weight A value from (0, 1], the share of each new sample in the average.
+     */
+    public Ewma(double weight) {
+        if (weight <= 0 || weight > 1)
+            throw new IllegalArgumentException("The weight has to be from (0, 1]");
+        this.weight = weight;
+        this.bits = new AtomicLong(EMPTY);
+    }
+
+    public void record(double sample) {
+        long current;
+        long updated;
+        do {
+            current = bits.get();
+            double average = Double.longBitsToDouble(current);
+            updated = Double.doubleToRawLongBits(Double.isNaN(average) ? sample : average + weight * (sample - average));
+        } while (!bits.compareAndSet(current, updated));
+    }
+
+    /**
+     * NaN until the first sample.
+     */
+    public double value() {
+        return Double.longBitsToDouble(bits.get());
+    }
+
+    public boolean isEmpty() {
+        return bits.get() == EMPTY;
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "n/a" : String.format("%.3fms", value() / 1e6);
+    }
+}
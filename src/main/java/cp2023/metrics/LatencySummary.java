@@ -0,0 +1,68 @@
+package cp2023.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples (in nanoseconds) from many threads and reports
+ * their distribution. Used by the benchmarks and simulations.
+ */
+public final class LatencySummary {
+    private long[] samples;
+    private int count;
+
+    public LatencySummary() {
+        this.samples = new long[1024];
+        this.count = 0;
+    }
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length)
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        samples[count++] = nanos;
+    }
+
+    public void recordAll(LatencySummary other) {
+        for (long sample : other.sortedSamples())
+            record(sample);
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized double mean() {
+        if (count == 0)
+            return 0;
+        double sum = 0;
+        for (int i = 0; i < count; i++)
+            sum += samples[i];
+        return sum / count;
+    }
+
+    /**
+     * @param fraction A value from [0, 1], e.g. 0.99 for the 99th percentile.
+     */
+    public synchronized long percentile(double fraction) {
+        if (count == 0)
+            return 0;
+        long[] sorted = sortedSamples();
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public synchronized long max() {
+        return percentile(1.0);
+    }
+
+    private synchronized long[] sortedSamples() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+                count(), mean() / 1e6, percentile(0.5) / 1e6, percentile(0.99) / 1e6, max() / 1e6);
+    }
+}
@@ -0,0 +1,44 @@
+package cp2023.simulation;
+
+import cp2023.solution.StorageSystemFactory;
+import cp2023.trace.ReplayReport;
+import cp2023.trace.Trace;
+import cp2023.trace.TraceReplayer;
+
+/**
+ * Simulates a trace and replays it in real time against a fresh ConcurrentStorageSystem.
+ * Meant for small traces, to show that the simulator still follows the real scheduling rules.
+ */
+public record CrossCheck(SimulationReport simulated, ReplayReport replayed) {
+
+    public static CrossCheck run(Trace trace) throws InterruptedException {
+        SimulationReport simulated = Simulator.run(trace);
+        ReplayReport replayed = TraceReplayer.replay(trace,
+                StorageSystemFactory.newSystem(trace.deviceTotalSlots(), trace.componentPlacement()), 1);
+        return new CrossCheck(simulated, replayed);
+    }
+
+    /**
+     * Both completed the same calls, which (for traces made by Workloads) is all of them.
+     */
+    public boolean outcomesAgree() {
+        return simulated.stuck() == 0
+                && simulated.completed() == replayed.latencies().count()
+                && simulated.mismatched() == replayed.mismatched();
+    }
+
+    /**
+     * Relative difference of the mean latencies. The real system adds the overhead of its
+     * locks and of waking threads up, so it is expected to be slightly slower.
+     */
+    public double latencyDeviation() {
+        double simulatedMean = simulated.latencies().mean();
+        return simulatedMean == 0 ? 0 : (replayed.latencies().mean() - simulatedMean) / simulatedMean;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("simulated: %s%nreplayed:  %s%noutcomes agree: %b, mean latency deviation: %+.1f%%",
+                simulated, replayed, outcomesAgree(), 100 * latencyDeviation());
+    }
+}
@@ -0,0 +1,37 @@
+package cp2023.simulation;
+
+import cp2023.base.DeviceId;
+import cp2023.metrics.LatencySummary;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @param mismatched   Calls which ended differently than in the workload, e.g. were rejected
+ *                     in the simulation but completed when recorded.
+ * @param stuck        Calls which never finished or were never issued, because the workload deadlocked.
+ * @param virtualNanos Simulated time until the last call finished.
+ * @param wallNanos    Real time the simulation took.
+ * @param waits        From issuing a call until prepare().
+ * @param latencies    From issuing a call until it finished.
+ * @param utilisation  Time-averaged fraction of occupied or reserved slots of every device.
+ */
+public record SimulationReport(int issued, int completed, int rejected, int mismatched, int stuck,
+                               long virtualNanos, long wallNanos,
+                               LatencySummary waits, LatencySummary latencies,
+                               Map<DeviceId, Double> utilisation) {
+
+    public double speedup() {
+        return wallNanos == 0 ? 0 : (double) virtualNanos / wallNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder devices = new StringBuilder();
+        new TreeMap<>(utilisation).forEach((id, u) -> devices.append(String.format(" %s=%.2f", id, u)));
+        return String.format("issued=%d completed=%d rejected=%d mismatched=%d stuck=%d virtual=%.3fs wall=%.3fs (%.0fx)%n"
+                        + "  waits:       %s%n  latencies:   %s%n  utilisation:%s",
+                issued, completed, rejected, mismatched, stuck, virtualNanos / 1e9, wallNanos / 1e9, speedup(),
+                waits, latencies, devices);
+    }
+}
@@ -0,0 +1,409 @@
+package cp2023.simulation;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.metrics.LatencySummary;
+import cp2023.trace.Trace;
+import cp2023.trace.TraceEvent;
+
+import java.util.*;
+
+/**
+ * Runs the scheduling rules of ConcurrentStorageSystem (free slots, execution chains, cycles
+ * and inbound queues) in a single thread on a virtual clock, so that a workload of hours takes
+ * seconds to evaluate. The methods below mirror the ones of ConcurrentStorageSystem with
+ * the same names, with semaphore releases turned into events scheduled at the current time.
+ * <p>
+ * Traces carry no tenants, so every transfer belongs to the default one and slots are handed
+ * over in FIFO order.
+ * <p>
+ * Like TraceReplayer, the calls on a single component are issued in order, each one no sooner
+ * than the previous one has finished. Every transfer takes exactly the recorded time to prepare
+ * and to perform, and the bookkeeping takes no time at all.
+ */
+public final class Simulator {
+    private final Map<DeviceId, SimulatedDevice> devices;
+    private final Map<ComponentId, Deque<TraceEvent>> lanes;
+    private final Set<ComponentId> activeComponents;
+    private final PriorityQueue<Event> agenda;
+    private final LatencySummary waits;
+    private final LatencySummary latencies;
+    private long now;
+    private long sequence;
+    private int issued;
+    private int completed;
+    private int rejected;
+    private int mismatched;
+
+    private Simulator(Trace trace) {
+        this.devices = new HashMap<>();
+        trace.deviceTotalSlots().forEach((id, capacity) -> devices.put(id, new SimulatedDevice(id, capacity)));
+        trace.componentPlacement().forEach((component, device) -> {
+            SimulatedDevice dev = devices.get(device);
+            dev.components.add(component);
+            dev.modifyFreeSpace(-1, 0);
+        });
+
+        this.lanes = new LinkedHashMap<>();
+        for (TraceEvent event : trace.events())
+            lanes.computeIfAbsent(event.componentId(), c -> new ArrayDeque<>()).add(event);
+
+        this.activeComponents = new HashSet<>();
+        this.agenda = new PriorityQueue<>();
+        this.waits = new LatencySummary();
+        this.latencies = new LatencySummary();
+    }
+
+    public static SimulationReport run(Trace trace) {
+        long started = System.nanoTime();
+        Simulator simulator = new Simulator(trace);
+        for (ComponentId component : simulator.lanes.keySet())
+            simulator.issueNext(component);
+
+        Event event;
+        while ((event = simulator.agenda.poll()) != null) {
+            simulator.now = event.time();
+            event.action().run();
+        }
+        return simulator.report(System.nanoTime() - started);
+    }
+
+    private SimulationReport report(long wallNanos) {
+        int stuck = activeComponents.size();
+        for (Deque<TraceEvent> lane : lanes.values())
+            stuck += lane.size();
+
+        Map<DeviceId, Double> utilisation = new HashMap<>();
+        for (SimulatedDevice dev : devices.values())
+            utilisation.put(dev.id, dev.utilisation(now));
+        return new SimulationReport(issued, completed, rejected, mismatched, stuck, now, wallNanos,
+                waits, latencies, Collections.unmodifiableMap(utilisation));
+    }
+
+    private void schedule(long time, Runnable action) {
+        agenda.add(new Event(time, sequence++, action));
+    }
+
+    private void issueNext(ComponentId component) {
+        TraceEvent event = lanes.get(component).poll();
+        if (event != null)
+            schedule(Math.max(now, event.submitNanos()), () -> execute(event));
+    }
+
+    private void execute(TraceEvent event) {
+        issued++;
+        SimulatedDevice src = event.source() == null ? null : devices.get(event.source());
+        SimulatedDevice dst = event.destination() == null ? null : devices.get(event.destination());
+        if (!isValid(event, src, dst)) {
+            rejected++;
+            if (event.outcome() == TraceEvent.Outcome.COMPLETED)
+                mismatched++;
+            issueNext(event.componentId());
+            return;
+        }
+        if (event.outcome() != TraceEvent.Outcome.COMPLETED)
+            mismatched++;
+
+        activeComponents.add(event.componentId());
+        SimulatedTransfer t = new SimulatedTransfer(event, src, dst, now);
+        if (src != null && dst != null)
+            handleMoveTransfer(t);
+        else if (src == null)
+            handleAddTransfer(t);
+        else
+            startExecutionChain(t);
+    }
+
+    private boolean isValid(TraceEvent event, SimulatedDevice src, SimulatedDevice dst) {
+        if (event.source() == null && event.destination() == null)
+            return false;
+        if (event.destination() != null && (dst == null || dst.components.contains(event.componentId())))
+            return false;
+        if (event.source() != null && (src == null || !src.components.contains(event.componentId())))
+            return false;
+        return !activeComponents.contains(event.componentId());
+    }
+
+    private void handleMoveTransfer(SimulatedTransfer p) {
+        if (p.destination.freeSpace > 0) {
+            p.destination.modifyFreeSpace(-1, now);
+            startExecutionChain(p);
+            return;
+        }
+
+        List<SimulatedTransfer> cycle = findCycle(p);
+        if (cycle.isEmpty()) {
+            if (!tryToLinkWithExecutingTransfer(p))
+                p.destination.inbound.add(p);
+        } else {
+            removeFromGraph(cycle);
+            linkTransfersInChain(cycle, true);
+            for (SimulatedTransfer t : cycle)
+                grantPrepare(t);
+        }
+    }
+
+    private void handleAddTransfer(SimulatedTransfer p) {
+        if (p.destination.freeSpace > 0) {
+            // Not a part of any chain, prepares and performs straight away.
+            p.destination.modifyFreeSpace(-1, now);
+            grantPrepare(p);
+        } else if (!tryToLinkWithExecutingTransfer(p)) {
+            p.destination.inbound.add(p);
+        }
+    }
+
+    private SimulatedTransfer buildExecutionChain(SimulatedTransfer start) {
+        List<SimulatedTransfer> chain = makeAllowedChain(start, start.source);
+        SimulatedTransfer lastInChain = chain.get(chain.size() - 1);
+        removeFromGraph(chain);
+        if (lastInChain.source != null) {
+            lastInChain.source.executingTransfers.add(lastInChain);
+            lastInChain.chainEnd = true;
+        }
+        linkTransfersInChain(chain, false);
+        return lastInChain;
+    }
+
+    private void startExecutionChain(SimulatedTransfer start) {
+        buildExecutionChain(start);
+        grantPrepare(start);
+    }
+
+    private List<SimulatedTransfer> makeAllowedChain(SimulatedTransfer v, SimulatedDevice dev) {
+        List<SimulatedTransfer> transfers = new ArrayList<>();
+        Set<DeviceId> vis = new HashSet<>();
+        transfers.add(v);
+
+        while (dev != null && !dev.inbound.isEmpty()) {
+            vis.add(dev.id);
+
+            SimulatedDevice next = dev;
+            for (SimulatedTransfer t : dev.inbound) {
+                if (t.source == null || !vis.contains(t.source.id)) {
+                    transfers.add(t);
+                    next = t.source;
+                    break;
+                }
+            }
+
+            if (next == dev)
+                break;
+            dev = next;
+        }
+        return transfers;
+    }
+
+    private void linkTransfersInChain(List<SimulatedTransfer> transfers, boolean isCycle) {
+        for (int i = 1; i < transfers.size(); i++) {
+            transfers.get(i - 1).next = transfers.get(i);
+            transfers.get(i).previous = transfers.get(i - 1);
+        }
+
+        if (isCycle) {
+            SimulatedTransfer first = transfers.get(0);
+            SimulatedTransfer last = transfers.get(transfers.size() - 1);
+            first.previous = last;
+            last.next = first;
+        }
+    }
+
+    /**
+     * With a single tenant, a transfer already waiting is always owed the slot before the arriving one.
+     */
+    private boolean tryToLinkWithExecutingTransfer(SimulatedTransfer t) {
+        Iterator<SimulatedTransfer> oldest = t.destination.executingTransfers.iterator();
+        if (!oldest.hasNext())
+            return false;
+        SimulatedTransfer lastInChain = oldest.next();
+        oldest.remove();
+
+        SimulatedTransfer queued = t.destination.inbound.poll();
+        SimulatedTransfer linked = queued == null ? t : queued;
+        lastInChain.chainEnd = false;
+        linked.previous = lastInChain;
+        lastInChain.next = linked;
+        if (lastInChain.phase != Phase.WAITING)
+            grantPrepare(linked);
+        if (lastInChain.phase == Phase.PERFORM || lastInChain.phase == Phase.FINISHED)
+            grantPerform(linked);
+        buildExecutionChain(linked);
+        if (linked != t)
+            t.destination.inbound.add(t);
+        return true;
+    }
+
+    private void removeFromGraph(Collection<SimulatedTransfer> transfers) {
+        for (SimulatedTransfer t : transfers)
+            if (t.destination != null)
+                t.destination.inbound.remove(t);
+    }
+
+    private List<SimulatedTransfer> findCycle(SimulatedTransfer v) {
+        List<SimulatedTransfer> cycle = new ArrayList<>();
+        if (!cycleDfs(v, cycle, v.destination))
+            return List.of();
+        return cycle;
+    }
+
+    private boolean cycleDfs(SimulatedTransfer v, List<SimulatedTransfer> hist, SimulatedDevice end) {
+        hist.add(v);
+        if (v.source == end)
+            return true;
+        if (v.source != null) {
+            for (SimulatedTransfer x : v.source.inbound) {
+                if (cycleDfs(x, hist, end))
+                    return true;
+            }
+        }
+
+        hist.remove(hist.size() - 1);
+        return false;
+    }
+
+    /**
+     * Within a cycle a transfer gets a permit both up front and from its predecessor,
+     * a semaphore simply keeps the surplus one.
+     */
+    private void grantPrepare(SimulatedTransfer t) {
+        if (t.prepareGranted)
+            return;
+        t.prepareGranted = true;
+        schedule(now, () -> prepare(t));
+    }
+
+    private void grantPerform(SimulatedTransfer t) {
+        t.performGranted = true;
+        if (t.awaitingPerform) {
+            t.awaitingPerform = false;
+            schedule(now, () -> perform(t));
+        }
+    }
+
+    private void prepare(SimulatedTransfer t) {
+        waits.record(now - t.issued);
+        t.phase = Phase.PREPARE;
+        if (t.next != null)
+            grantPrepare(t.next);
+        schedule(now + t.event.prepareNanos(), () -> prepared(t));
+    }
+
+    private void prepared(SimulatedTransfer t) {
+        t.phase = Phase.PERFORM;
+        if (t.next != null)
+            grantPerform(t.next);
+        vacateSource(t);
+
+        if (t.previous == null || t.performGranted)
+            perform(t);
+        else
+            t.awaitingPerform = true;
+    }
+
+    private void perform(SimulatedTransfer t) {
+        schedule(now + t.event.performNanos(), () -> finish(t));
+    }
+
+    private void finish(SimulatedTransfer t) {
+        t.phase = Phase.FINISHED;
+        if (t.source != null)
+            t.source.components.remove(t.event.componentId());
+        if (t.destination != null)
+            t.destination.components.add(t.event.componentId());
+
+        activeComponents.remove(t.event.componentId());
+        completed++;
+        latencies.record(now - t.issued);
+        issueNext(t.event.componentId());
+    }
+
+    private void vacateSource(SimulatedTransfer t) {
+        if (!t.chainEnd)
+            return;
+
+        if (t.source.executingTransfers.remove(t)) {
+            t.chainEnd = false;
+            releaseSlot(t.source);
+        }
+    }
+
+    private void releaseSlot(SimulatedDevice dev) {
+        SimulatedTransfer waiting = dev.inbound.poll();
+        if (waiting == null)
+            dev.modifyFreeSpace(1, now);
+        else
+            startExecutionChain(waiting);
+    }
+
+    private enum Phase {
+        WAITING, PREPARE, PERFORM, FINISHED
+    }
+
+    private record Event(long time, long sequence, Runnable action) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class SimulatedTransfer {
+        private final TraceEvent event;
+        private final SimulatedDevice source;
+        private final SimulatedDevice destination;
+        private final long issued;
+        private SimulatedTransfer next;
+        private SimulatedTransfer previous;
+        private Phase phase;
+        private boolean chainEnd;
+        private boolean prepareGranted;
+        private boolean performGranted;
+        private boolean awaitingPerform;
+
+        SimulatedTransfer(TraceEvent event, SimulatedDevice source, SimulatedDevice destination, long issued) {
+            this.event = event;
+            this.source = source;
+            this.destination = destination;
+            this.issued = issued;
+            this.phase = Phase.WAITING;
+        }
+    }
+
+    private static final class SimulatedDevice {
+        private final DeviceId id;
+        private final int capacity;
+        private final Set<ComponentId> components;
+        private final Queue<SimulatedTransfer> inbound;
+        private final Set<SimulatedTransfer> executingTransfers;
+        private int freeSpace;
+        private long occupiedSlotNanos;
+        private long lastChange;
+
+        SimulatedDevice(DeviceId id, int capacity) {
+            this.id = id;
+            this.capacity = capacity;
+            this.components = new HashSet<>();
+            this.inbound = new ArrayDeque<>();
+            this.executingTransfers = new LinkedHashSet<>();
+            this.freeSpace = capacity;
+        }
+
+        /**
+         * Reserved slots count as occupied, just like they do for freeSpace().
+         */
+        void modifyFreeSpace(int delta, long now) {
+            occupiedSlotNanos += (long) (capacity - freeSpace) * (now - lastChange);
+            lastChange = now;
+            freeSpace += delta;
+        }
+
+        double utilisation(long now) {
+            if (capacity == 0)
+                return 0;
+            if (now == 0)
+                return (double) (capacity - freeSpace) / capacity;
+            long occupied = occupiedSlotNanos + (long) (capacity - freeSpace) * (now - lastChange);
+            return (double) occupied / capacity / now;
+        }
+    }
+}
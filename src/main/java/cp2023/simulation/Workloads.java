@@ -0,0 +1,114 @@
+package cp2023.simulation;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.trace.Trace;
+import cp2023.trace.TraceEvent;
+
+import java.util.*;
+
+/**
+ * Synthetic workloads in the same form as recorded traces, so that they can be both simulated
+ * and replayed against a real system. Every component is moved by its own caller and deleted
+ * at the end, which keeps the workloads free of deadlocks.
+ */
+public final class Workloads {
+
+    private Workloads() {
+    }
+
+    /**
+     * Components spread evenly over the devices, each moved to a device picked with a Zipf
+     * distribution, so that a few hot devices get most of the traffic.
+     *
+     * @param components At most devices * capacity.
+     * @param exponent   0 for uniform destinations, the higher the more skewed.
+     */
+    public static Trace zipf(int devices, int capacity, int components, int movesPerComponent, double exponent,
+                             long prepareNanos, long performNanos, long meanGapNanos, long seed) {
+        if (components > devices * capacity)
+            throw new IllegalArgumentException("The components do not fit on the devices");
+
+        double[] cumulative = new double[devices];
+        double sum = 0;
+        for (int rank = 0; rank < devices; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+
+        Random random = new Random(seed);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        List<TraceEvent> events = new ArrayList<>();
+        for (int c = 0; c < components; c++) {
+            ComponentId comp = new ComponentId(c);
+            DeviceId src = new DeviceId(c % devices + 1);
+            placement.put(comp, src);
+
+            long submitted = exponential(random, meanGapNanos);
+            for (int i = 0; i < movesPerComponent; i++) {
+                DeviceId dst;
+                do {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                    dst = new DeviceId((rank < 0 ? -rank - 1 : rank) + 1);
+                } while (dst.equals(src));
+
+                long prepare = jitter(random, prepareNanos);
+                long perform = jitter(random, performNanos);
+                events.add(new TraceEvent(submitted, comp, src, dst, 0, prepare, perform, TraceEvent.Outcome.COMPLETED));
+                submitted += prepare + perform + exponential(random, meanGapNanos);
+                src = dst;
+            }
+            events.add(new TraceEvent(submitted, comp, src, null, 0,
+                    jitter(random, prepareNanos), jitter(random, performNanos), TraceEvent.Outcome.COMPLETED));
+        }
+
+        return trace(devices, capacity, placement, events);
+    }
+
+    /**
+     * All devices full and every component moved round a ring of devices in lockstep,
+     * so that nearly every transfer ends up in a cycle.
+     */
+    public static Trace cycleHeavy(int devices, int capacity, int movesPerComponent,
+                                   long prepareNanos, long performNanos, long periodNanos, long seed) {
+        Random random = new Random(seed);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        List<TraceEvent> events = new ArrayList<>();
+        for (int c = 0; c < devices * capacity; c++) {
+            ComponentId comp = new ComponentId(c);
+            int device = c % devices;
+            placement.put(comp, new DeviceId(device + 1));
+
+            for (int i = 0; i < movesPerComponent; i++) {
+                int next = (device + 1) % devices;
+                events.add(new TraceEvent(i * periodNanos, comp, new DeviceId(device + 1), new DeviceId(next + 1),
+                        0, jitter(random, prepareNanos), jitter(random, performNanos), TraceEvent.Outcome.COMPLETED));
+                device = next;
+            }
+            events.add(new TraceEvent(movesPerComponent * periodNanos, comp, new DeviceId(device + 1), null,
+                    0, jitter(random, prepareNanos), jitter(random, performNanos), TraceEvent.Outcome.COMPLETED));
+        }
+
+        return trace(devices, capacity, placement, events);
+    }
+
+    private static Trace trace(int devices, int capacity, Map<ComponentId, DeviceId> placement,
+                               List<TraceEvent> events) {
+        Map<DeviceId, Integer> slots = new HashMap<>();
+        for (int d = 1; d <= devices; d++)
+            slots.put(new DeviceId(d), capacity);
+        events.sort(Comparator.comparingLong(TraceEvent::submitNanos));
+        return new Trace(slots, placement, events);
+    }
+
+    private static long exponential(Random random, long mean) {
+        return (long) (-Math.log(1 - random.nextDouble()) * mean);
+    }
+
+    /**
+     * Uniform from [mean / 2, 3 * mean / 2].
+     */
+    private static long jitter(Random random, long mean) {
+        return mean / 2 + (long) (random.nextDouble() * mean);
+    }
+}
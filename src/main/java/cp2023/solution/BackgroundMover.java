@@ -0,0 +1,142 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+
+/**
+ * The worker thread of the {@link Rebalancer} and the {@link TieredCache}. Whenever there is no
+ * foreground traffic, it asks its policy for a move and executes it through the ordinary execute()
+ * path, never faster than the configured rate. As soon as foreground transfers are running or
+ * start to wait, it stops issuing moves and backs off. Transfers which have been waiting for
+ * a while do not stop it: they are stuck behind full devices and a move off such a device hands
+ * its slot straight to them.
+ */
+final class BackgroundMover {
+    private static final long IDLE_POLL_MILLIS = 1;
+    private static final long QUIET_PERIOD_NANOS = 2_000_000;
+
+    private final ConcurrentStorageSystem system;
+    private final MoveFactory moves;
+    private final long minIntervalNanos;
+    private final String name;
+    private final Policy policy;
+    private volatile boolean running;
+    private Thread worker;
+
+    /**
+     * @param maxMovesPerSecond Rate cap of the moves issued.
+     * @param name              Of the worker thread.
+     */
+    BackgroundMover(ConcurrentStorageSystem system, MoveFactory moves, double maxMovesPerSecond,
+                    String name, Policy policy) {
+        if (maxMovesPerSecond <= 0)
+            throw new IllegalArgumentException("The rate cap has to be positive");
+
+        this.system = system;
+        this.moves = moves;
+        this.minIntervalNanos = (long) (1e9 / maxMovesPerSecond);
+        this.name = name;
+        this.policy = policy;
+    }
+
+    synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Waits for the move in progress, if any, to finish.
+     */
+    synchronized void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        worker.join();
+        worker = null;
+    }
+
+    private void run() {
+        long lastMove = System.nanoTime() - minIntervalNanos;
+        long lastBusy = System.nanoTime() - QUIET_PERIOD_NANOS;
+        int lastWaiting = 0;
+
+        while (running) {
+            policy.tick(System.nanoTime());
+
+            int waiting = system.waitingTransferCount();
+            boolean busy = system.activeTransferCount() > waiting || waiting > lastWaiting;
+            lastWaiting = waiting;
+            if (busy) {
+                policy.backedOff();
+                lastBusy = System.nanoTime();
+                sleep(IDLE_POLL_MILLIS);
+                continue;
+            }
+
+            // Foreground traffic tends to come in bursts, give it a moment to really end.
+            if (System.nanoTime() - lastBusy < QUIET_PERIOD_NANOS
+                    || System.nanoTime() - lastMove < minIntervalNanos) {
+                sleep(IDLE_POLL_MILLIS);
+                continue;
+            }
+
+            Move move = policy.proposeMove();
+            if (move == null) {
+                sleep(IDLE_POLL_MILLIS);
+                continue;
+            }
+
+            try {
+                system.execute(moves.createMove(move.component(), move.source(), move.destination()));
+                policy.moved(move);
+            } catch (TransferException e) {
+                // A foreground transfer got to the component first, the next round will pick another one.
+            }
+            lastMove = System.nanoTime();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    /**
+     * Decides what to move, called only from the worker thread.
+     */
+    interface Policy {
+        /**
+         * Called at the start of every round, whether there is foreground traffic or not.
+         */
+        default void tick(long now) {
+        }
+
+        /**
+         * Called whenever a round is skipped because of foreground traffic.
+         */
+        default void backedOff() {
+        }
+
+        /**
+         * Reads the devices without devicesLock, so the proposal may be outdated by the time
+         * it is executed; execute() validates it. Null if nothing is worth moving.
+         */
+        Move proposeMove();
+
+        /**
+         * Called once the move has been executed.
+         */
+        void moved(Move move);
+    }
+
+    record Move(ComponentId component, DeviceId source, DeviceId destination) {
+    }
+}
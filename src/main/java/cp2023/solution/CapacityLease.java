@@ -0,0 +1,146 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Slots of a device reserved ahead of the transfers which will use them, see
+ * {@link ConcurrentStorageSystem#lease(DeviceId, int, long, java.util.concurrent.TimeUnit)}.
+ * Slots which are not free when the lease is taken are claimed as they are freed, before
+ * any transfer waiting for the device gets them. A transfer run against the lease takes
+ * a reserved slot without queueing; once all of them have been used, or the lease has
+ * expired, transfers run against it like any other. Closing the lease, or its expiry, hands
+ * the reserved slots which have not been used to the transfers waiting for the device.
+ */
+public final class CapacityLease implements AutoCloseable {
+    private final ConcurrentStorageSystem system;
+    private final Device device;
+    private final int slots;
+    private final long expiresAtNanos;
+    // Guarded by devicesLock, volatile for the getters.
+    private volatile int held;
+    private volatile int claimed;
+    private volatile int used;
+    private volatile boolean active;
+    private ScheduledFuture<?> expiry;
+
+    CapacityLease(ConcurrentStorageSystem system, Device device, int slots, long expiresAtNanos) {
+        this.system = system;
+        this.device = device;
+        this.slots = slots;
+        this.expiresAtNanos = expiresAtNanos;
+        this.claimed = slots;
+        this.active = true;
+    }
+
+    public DeviceId deviceId() {
+        return device.id();
+    }
+
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * Reserved slots which have not been used yet.
+     */
+    public int heldSlots() {
+        return held;
+    }
+
+    public int usedSlots() {
+        return used;
+    }
+
+    /**
+     * Slots still to be reserved as soon as they are freed.
+     */
+    public int claimedSlots() {
+        return claimed;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * In terms of System.nanoTime().
+     */
+    public long expiresAtNanos() {
+        return expiresAtNanos;
+    }
+
+    /**
+     * Runs the transfer onto the leased device, see {@link ConcurrentStorageSystem#execute(ComponentTransfer, CapacityLease)}.
+     */
+    public void execute(ComponentTransfer transfer) throws TransferException {
+        system.execute(transfer, this);
+    }
+
+    @Override
+    public void close() {
+        system.release(this);
+    }
+
+    Device device() {
+        return device;
+    }
+
+    ConcurrentStorageSystem system() {
+        return system;
+    }
+
+    /**
+     * Requires devicesLock to be held!
+     */
+    boolean tryUse() {
+        if (!active || held == 0)
+            return false;
+        held--;
+        used++;
+        return true;
+    }
+
+    /**
+     * A freed slot of the device goes to the lease. Requires devicesLock to be held!
+     */
+    void slotClaimed(boolean usedRightAway) {
+        claimed--;
+        if (usedRightAway)
+            used++;
+        else
+            held++;
+    }
+
+    /**
+     * @return The reserved slots to give back. Requires devicesLock to be held!
+     */
+    int end() {
+        int unused = held;
+        active = false;
+        held = 0;
+        claimed = 0;
+        if (expiry != null)
+            expiry.cancel(false);
+        return unused;
+    }
+
+    void setExpiry(ScheduledFuture<?> expiry) {
+        this.expiry = expiry;
+    }
+
+    @Override
+    public String toString() {
+        return "CapacityLease{" +
+                "device=" + device.id() +
+                ", slots=" + slots +
+                ", held=" + held +
+                ", claimed=" + claimed +
+                ", used=" + used +
+                ", active=" + active +
+                '}';
+    }
+}
@@ -5,106 +5,600 @@ import cp2023.base.ComponentTransfer;
 import cp2023.base.DeviceId;
 import cp2023.base.StorageSystem;
 import cp2023.exceptions.*;
+import cp2023.metrics.WaitHistogram;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class ConcurrentStorageSystem implements StorageSystem {
+    private static final int OPTIMISTIC_SNAPSHOT_ATTEMPTS = 4;
+    // Waiting transfers considered by a single search for the longest chain.
+    private static final int LONGEST_CHAIN_SEARCH_BUDGET = 64;
+
+    // Every thread keeps a finished transfer to reuse in its next execute() call.
+    private static final ThreadLocal<PendingTransfer> RECYCLED = ThreadLocal.withInitial(PendingTransfer::new);
+    private static final Predicate<PendingTransfer> ANY = t -> true;
+
     private final Semaphore devicesLock;
-    private final Set<ComponentId> activeComponents;
     private final ConcurrentMap<DeviceId, Device> devices;
+    private final AtomicInteger activeTransfers;
+    private final AtomicInteger waitingTransfers;
+    // Guards the state visible through snapshot(): free space and placement of components.
+    // Readers never block writers, they validate an optimistic stamp and retry instead.
+    private final StampedLock stateLock;
+    // An entry is created when a component is added and removed once it has been deleted,
+    // moving a component only updates its entry.
+    private final ConcurrentMap<ComponentId, ComponentState> components;
+    private long stateVersion;
+    // Null unless published. Guarded by stateLock, whose write lock makes the system its only writer.
+    private PlacementTable placementTable;
+    private volatile PlacementEventPublisher placementEvents;
+    private final TenantScheduler tenants;
+    private final TransferThrottle throttle;
+    private final WaitEstimator estimator;
+    // Scratch space reused under devicesLock, so that building chains and finding cycles allocates nothing.
+    private final ArrayList<PendingTransfer> chainScratch;
+    private final ArrayList<PendingTransfer> cycleScratch;
+    private final ArrayList<PendingTransfer> pathScratch;
+    private final Predicate<PendingTransfer> allowedInChain;
+    private long chainMark;
+    private int searchBudget;
+    private volatile ReleasePolicy releasePolicy;
+    // Null unless given to the factory.
+    private volatile Topology topology;
+    private final LongAdder localTransfers;
+    private final LongAdder remoteTransfers;
+    // Expires leases, started with the first one. Guarded by devicesLock.
+    private ScheduledExecutorService leaseTimer;
+    // Groups of transfers which have not been admitted yet, in the order they came. Guarded by devicesLock.
+    private final List<Group> waitingGroups;
+    // Run the members of admitted groups but the first and the moves evacuating drained devices,
+    // started when first needed. Guarded by devicesLock.
+    private ExecutorService workers;
 
     public ConcurrentStorageSystem() {
         this.devicesLock = new Semaphore(1, true);
         this.devices = new ConcurrentHashMap<>();
-        this.activeComponents = Collections.synchronizedSet(new HashSet<>());
+        this.activeTransfers = new AtomicInteger();
+        this.waitingTransfers = new AtomicInteger();
+        this.stateLock = new StampedLock();
+        this.components = new ConcurrentHashMap<>();
+        this.stateVersion = 0;
+        this.placementEvents = new PlacementEventPublisher();
+        this.tenants = new TenantScheduler();
+        this.throttle = new TransferThrottle();
+        this.estimator = new WaitEstimator();
+        this.chainScratch = new ArrayList<>();
+        this.cycleScratch = new ArrayList<>();
+        this.pathScratch = new ArrayList<>();
+        this.allowedInChain = t -> t.source() == null || t.source().visitMark() != chainMark;
+        this.chainMark = 0;
+        this.releasePolicy = ReleasePolicy.FAIR;
+        this.localTransfers = new LongAdder();
+        this.remoteTransfers = new LongAdder();
+        this.waitingGroups = new ArrayList<>();
     }
 
     @Override
     public void execute(ComponentTransfer transfer) throws TransferException {
+        execute(transfer, null);
+    }
+
+    /**
+     * Runs the transfer onto the device of the lease, in one of the slots reserved by the lease
+     * if there is one left. Otherwise the transfer waits for the next slot claimed by the lease,
+     * or, if the lease has ended or reserved all its slots, runs like any other transfer.
+     * Leased slots are taken even over the concurrency cap of the transfer's tenant.
+     * @throws IllegalArgumentException If the transfer does not go to the device of the lease.
+     */
+    public void execute(ComponentTransfer transfer, CapacityLease lease) throws TransferException {
         try {
+            ComponentState state;
             try {
                 devicesLock.acquire();
+                chooseDestination(transfer);
                 validateOrThrow(transfer);
-                activeComponents.add(transfer.getComponentId());
+                if (lease != null && (lease.system() != this
+                        || !lease.deviceId().equals(transfer.getDestinationDeviceId())))
+                    throw new IllegalArgumentException("The transfer does not go to the device of " + lease);
+                state = claim(transfer);
             } finally {
                 devicesLock.release();
             }
 
-            transfer(transfer);
+            run(transfer, state, lease);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    /**
+     * Runs the transfers so that none of them starts before all of them can. The transfers are
+     * validated and their components are marked as being operated on together, and if any
+     * transfer is invalid, none of them is run. The group is then admitted as soon as every
+     * transfer can start right away, in any of the ways a single transfer can: by taking a free
+     * slot, by following an executing chain, a member's included, or by closing a cycle with
+     * waiting transfers and other members. Until then the group takes no slot and is checked
+     * again whenever a slot, an executing chain or a waiting transfer shows up. Groups are admitted
+     * in no particular order, and if none of them can be admitted on its own, all of them are tried
+     * together, so that groups which complete each other's cycles do not hold each other up.
+     * Admitted transfers ignore the concurrency caps of their tenants, like leased ones.
+     * <p>
+     * The transfers run concurrently, the first one admitted on the calling thread and the others
+     * on worker threads, each ordered against the transfers it follows just like a single transfer.
+     * A transfer whose prepare() or perform() throws is finished all the same, as if it had moved
+     * its component, so that the slots it was handed and the transfers following it go on; once all
+     * of them have finished, the first failure is rethrown, with the others suppressed.
+     * @throws IllegalArgumentException If the group has more than one transfer of a component.
+     */
+    public GroupResult executeGroup(List<? extends ComponentTransfer> group) throws TransferException {
+        Set<ComponentId> seen = new HashSet<>();
+        for (ComponentTransfer t : group) {
+            if (!seen.add(t.getComponentId()))
+                throw new IllegalArgumentException("Component " + t.getComponentId() + " is transferred twice");
+        }
+
+        try {
+            long start = System.nanoTime();
+            Group waiting = new Group();
+            ExecutorService workers;
+            devicesLock.acquire();
+            try {
+                for (ComponentTransfer t : group) {
+                    chooseDestination(t);
+                    validateOrThrow(t);
+                }
+
+                for (ComponentTransfer t : group) {
+                    ComponentState state = claim(t);
+                    Device src = t.getSourceDeviceId() == null ? null : devices.get(t.getSourceDeviceId());
+                    Device dst = t.getDestinationDeviceId() == null ? null : devices.get(t.getDestinationDeviceId());
+                    PendingTransfer p = new PendingTransfer(t, src, dst, tenants.tenantOf(t));
+                    p.setSourceSlot(state.slot);
+                    waiting.members.add(new GroupMember(p, state));
+                }
+                waitingGroups.add(waiting);
+                admitGroups();
+                workers = workers();
+            } finally {
+                devicesLock.release();
+            }
 
-            activeComponents.remove(transfer.getComponentId());
+            waiting.admitted.acquire();
+            long admitted = System.nanoTime();
+            List<GroupMember> members = waiting.members;
+            members.sort(Comparator.comparingInt(m -> m.admissionOrder));
+            // A member may wait for any other, so none of them may be queued behind another.
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 1; i < members.size(); i++) {
+                GroupMember m = members.get(i);
+                running.add(workers.submit(() -> {
+                    runGroupMember(m);
+                    return null;
+                }));
+            }
+            Throwable failure = null;
+            if (!members.isEmpty()) {
+                try {
+                    runGroupMember(members.get(0));
+                } catch (RuntimeException | Error e) {
+                    failure = e;
+                }
+            }
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException)
+                        throw (InterruptedException) e.getCause();
+                    if (failure == null)
+                        failure = e.getCause();
+                    else
+                        failure.addSuppressed(e.getCause());
+                }
+            }
+            if (failure instanceof RuntimeException e)
+                throw e;
+            if (failure instanceof Error e)
+                throw e;
+            return new GroupResult(group.size(), admitted - start, System.nanoTime() - admitted);
         } catch (InterruptedException e) {
             throw new RuntimeException("panic: unexpected thread interruption");
         }
     }
 
-    private void transfer(ComponentTransfer transfer) throws InterruptedException {
+    /**
+     * Requires devicesLock to be held!
+     */
+    private ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "transfer-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return workers;
+    }
+
+    /**
+     * Runs an admitted member of a group and ends its claim, whether it completes or throws.
+     */
+    private void runGroupMember(GroupMember m) throws InterruptedException {
+        PendingTransfer p = m.transfer;
+        try {
+            executeTransfer(p, m.state);
+            if (topology != null && p.source() != null && p.destination() != null)
+                (Topology.distance(p.source(), p.destination()) == Topology.SAME_RACK
+                        ? localTransfers : remoteTransfers).increment();
+        } finally {
+            finishRun(p, m.state);
+        }
+    }
+
+    /**
+     * Admits the waiting groups which can start, until none can. Called at the end of every
+     * operation which may have freed a slot, started a chain or queued a transfer.
+     * Requires devicesLock to be held!
+     */
+    private void admitGroups() {
+        boolean admittedAny = true;
+        while (admittedAny && !waitingGroups.isEmpty()) {
+            admittedAny = false;
+            for (Iterator<Group> it = waitingGroups.iterator(); it.hasNext(); ) {
+                Group group = it.next();
+                if (tryAdmit(group.members)) {
+                    it.remove();
+                    group.admitted.release();
+                    admittedAny = true;
+                }
+            }
+
+            if (!admittedAny && waitingGroups.size() > 1) {
+                List<GroupMember> all = new ArrayList<>();
+                for (Group group : waitingGroups)
+                    all.addAll(group.members);
+                if (tryAdmit(all)) {
+                    for (Group group : waitingGroups)
+                        group.admitted.release();
+                    waitingGroups.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts all the members if each of them can start right away, otherwise changes nothing.
+     * First the members which the free slots and the executing chains of their destinations
+     * cannot all take look for cycles, through waiting transfers and through the other members
+     * as if those were waiting for their destinations. Then the rest take free slots and follow
+     * executing chains, which include the members leaving devices nobody else is waiting for.
+     * Requires devicesLock to be held!
+     * @return Whether the members have been started.
+     */
+    private boolean tryAdmit(List<GroupMember> members) {
+        Map<Device, Integer> slots = new HashMap<>();
+        for (GroupMember m : members) {
+            if (m.transfer.source() != null)
+                slots.computeIfAbsent(m.transfer.source(), ConcurrentStorageSystem::slotsForGroups);
+            if (m.transfer.destination() != null)
+                slots.computeIfAbsent(m.transfer.destination(), ConcurrentStorageSystem::slotsForGroups);
+        }
+
+        // Transfers on the cycles found so far.
+        Set<PendingTransfer> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Members which have neither got a slot nor been put on a cycle yet.
+        List<PendingTransfer> waitingMembers = new ArrayList<>();
+        for (GroupMember m : members) {
+            if (m.transfer.destination() != null)
+                waitingMembers.add(m.transfer);
+        }
+        List<List<PendingTransfer>> cycles = new ArrayList<>();
+        Map<Device, Integer> unclaimed = new HashMap<>(slots);
+        for (GroupMember m : members) {
+            PendingTransfer p = m.transfer;
+            if (taken.contains(p) || p.destination() == null)
+                continue;
+            int left = unclaimed.get(p.destination());
+            if (left > 0) {
+                unclaimed.put(p.destination(), left - 1);
+                waitingMembers.remove(p);
+                continue;
+            }
+            if (p.source() == null)
+                continue;
+
+            List<PendingTransfer> cycle = new ArrayList<>();
+            if (groupCycleDfs(p, cycle, p.destination(), waitingMembers, taken, new HashSet<>())) {
+                cycles.add(cycle);
+                taken.addAll(cycle);
+            }
+        }
+
+        List<GroupMember> rest = new ArrayList<>();
+        for (GroupMember m : members) {
+            if (!taken.contains(m.transfer))
+                rest.add(m);
+        }
+        List<GroupMember> started = new ArrayList<>();
+        boolean progress = true;
+        while (progress && !rest.isEmpty()) {
+            progress = false;
+            for (Iterator<GroupMember> it = rest.iterator(); it.hasNext(); ) {
+                GroupMember m = it.next();
+                PendingTransfer p = m.transfer;
+                if (p.destination() != null) {
+                    int left = slots.get(p.destination());
+                    if (left == 0)
+                        continue;
+                    slots.put(p.destination(), left - 1);
+                }
+                started.add(m);
+                it.remove();
+                progress = true;
+                if (p.source() != null && endsChains(p.source(), taken))
+                    slots.merge(p.source(), 1, Integer::sum);
+            }
+        }
+        if (!rest.isEmpty())
+            return false;
+
+        int order = 0;
+        for (List<PendingTransfer> cycle : cycles) {
+            removeFromGraph(cycle);
+            linkTransfersInChain(cycle, true);
+            for (int i = 0; i < cycle.size(); i++)
+                tenants.started(cycle.get(i));
+            freeAllWaiting(cycle);
+        }
+        for (GroupMember m : members) {
+            if (taken.contains(m.transfer))
+                m.admissionOrder = order++;
+        }
+        for (GroupMember m : started) {
+            startGroupMember(m.transfer);
+            m.admissionOrder = order++;
+        }
+        return true;
+    }
+    /**
+     * Like cycleDfs(), but skips the transfers taken by other cycles, and the members of groups
+     * are followed as if they were waiting for their destinations. Devices are visited at most
+     * once, since the members may form cycles which do not lead to the end.
+     * Requires devicesLock to be held!
+     */
+    private boolean groupCycleDfs(PendingTransfer v, List<PendingTransfer> hist, Device end,
+                                  List<PendingTransfer> waitingMembers, Set<PendingTransfer> taken,
+                                  Set<Device> visited) {
+        hist.add(v);
+        if (v.source() == end)
+            return true;
+        if (v.source() != null && visited.add(v.source())) {
+            for (PendingTransfer x = v.source().inbound().first(); x != null; x = x.listNext()) {
+                if (!taken.contains(x) && groupCycleDfs(x, hist, end, waitingMembers, taken, visited))
+                    return true;
+            }
+            for (int i = 0; i < waitingMembers.size(); i++) {
+                PendingTransfer x = waitingMembers.get(i);
+                if (x.destination() == v.source() && !taken.contains(x) && !hist.contains(x)
+                        && groupCycleDfs(x, hist, end, waitingMembers, taken, visited))
+                    return true;
+            }
+        }
+
+        hist.remove(hist.size() - 1);
+        return false;
+    }
+
+    /**
+     * Slots of the device a member of a group can get right away: the free ones and those
+     * vacated by executing chains, which are handed over unless the device has shrunk or
+     * a lease claims them. Requires devicesLock to be held!
+     */
+    private static int slotsForGroups(Device dev) {
+        if (dev.freeSpace() < 0)
+            return 0;
+        return dev.freeSpace() + (dev.claimingLease() == null ? dev.executingTransfers().size() : 0);
+    }
+
+    /**
+     * Whether a transfer leaving the device, once started, ends its chain there, so that others
+     * can follow it: nobody but the transfers on the cycles about to be started waits for the
+     * device's slots. Requires devicesLock to be held!
+     */
+    private static boolean endsChains(Device dev, Set<PendingTransfer> taken) {
+        if (dev.freeSpace() < 0 || dev.claimingLease() != null)
+            return false;
+        for (PendingTransfer t = dev.inbound().first(); t != null; t = t.listNext()) {
+            if (!taken.contains(t))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts an admitted member of a group the way execute() would if it did not have to wait.
+     * tryAdmit() has made sure there is a free slot or an executing chain to follow.
+     * Requires devicesLock to be held!
+     */
+    private void startGroupMember(PendingTransfer p) {
+        Device dst = p.destination();
+        if (dst != null && dst.freeSpace() <= 0) {
+            PendingTransfer lastInChain = dst.executingTransfers().poll();
+            lastInChain.setChainEnd(false);
+            linkWithStartedTransfer(p, lastInChain);
+            buildExecutionChain(p);
+            return;
+        }
+
+        if (dst != null)
+            modifyFreeSpace(dst, -1);
+        startExecutionChain(p);
+    }
+
+    /**
+     * Marks the component as being operated on by the validated transfer.
+     * Requires devicesLock to be held!
+     */
+    private ComponentState claim(ComponentTransfer transfer) {
+        // Keeps the destination from being removed until the transfer has finished.
+        if (transfer.getDestinationDeviceId() != null)
+            devices.get(transfer.getDestinationDeviceId()).arrivalAccepted();
+        ComponentState state = components.get(transfer.getComponentId());
+        if (state == null) {
+            state = new ComponentState();
+            components.put(transfer.getComponentId(), state);
+        }
+        state.active = true;
+        activeTransfers.incrementAndGet();
+        return state;
+    }
+
+    private void run(ComponentTransfer transfer, ComponentState state, CapacityLease lease)
+            throws InterruptedException {
+        try {
+            transfer(transfer, state, lease);
+        } finally {
+            finishRun(transfer, state);
+        }
+    }
+
+    /**
+     * Ends the transfer's claim on its component and its destination.
+     */
+    private void finishRun(ComponentTransfer transfer, ComponentState state) {
+        // Cannot have been removed, it has an accepted arrival.
+        Device destination = transfer.getDestinationDeviceId() == null ? null
+                : devices.get(transfer.getDestinationDeviceId());
+        if (destination != null)
+            destination.arrivalFinished();
+        // Removed before it stops being active, so that a concurrent add of the same
+        // component either sees it active or creates a new entry.
+        if (state.device == null)
+            components.remove(transfer.getComponentId(), state);
+        state.active = false;
+        activeTransfers.decrementAndGet();
+    }
+
+    private void transfer(ComponentTransfer transfer, ComponentState state, CapacityLease lease)
+            throws InterruptedException {
         Device src = transfer.getSourceDeviceId() == null ? null : devices.get(transfer.getSourceDeviceId());
         Device dst = transfer.getDestinationDeviceId() == null ? null : devices.get(transfer.getDestinationDeviceId());
 
         if (src != null && dst != null)
-            handleMoveTransfer(transfer, src, dst);
+            handleMoveTransfer(transfer, src, dst, state, lease);
         else if (src == null && dst != null)
-            handleAddTransfer(transfer, dst);
+            handleAddTransfer(transfer, dst, state, lease);
         else if (src != null && dst == null)
-            handleDeleteTransfer(transfer, src);
+            handleDeleteTransfer(transfer, src, state);
         else
             assert false;
     }
 
-    private void handleMoveTransfer(ComponentTransfer transfer, Device src, Device dst) throws InterruptedException {
-        PendingTransfer p = new PendingTransfer(transfer, src, dst);
+    private void handleMoveTransfer(ComponentTransfer transfer, Device src, Device dst, ComponentState state,
+                                    CapacityLease lease) throws InterruptedException {
+        PendingTransfer p = obtainTransfer(transfer, src, dst);
+        p.setSourceSlot(state.slot);
 
         devicesLock.acquire();
-        if (dst.freeSpace() > 0) {
+        boolean leased = lease != null && lease.tryUse();
+        if (leased || (dst.freeSpace() > 0 && tenants.mayStart(p.tenant()))) {
             // doesn't wait
-            dst.modifyFreeSpace(-1);
-            devicesLock.release();
-            buildExecutionChainAndExecute(p);
+            if (!leased)
+                modifyFreeSpace(dst, -1);
+            startExecutionChain(p);
         } else {
+            if (lease != null && lease.claimedSlots() > 0)
+                p.setLease(lease);
             List<PendingTransfer> cycle = findCycle(p);
             if (cycle.isEmpty()) {
                 if (!tryToLinkWithExecutingTransfer(p)) {
-                    p.destination().insertInbound(p);
+                    enqueueInbound(p);
                 }
-                devicesLock.release();
             } else {
                 removeFromGraph(cycle);
-                devicesLock.release();
                 linkTransfersInChain(cycle, true);
+                for (int i = 0; i < cycle.size(); i++)
+                    tenants.started(cycle.get(i));
                 freeAllWaiting(cycle);
             }
-
-            executeTransfer(p);
         }
+        admitGroups();
+        devicesLock.release();
+
+        executeTransfer(p, state);
+        if (topology != null)
+            (Topology.distance(src, dst) == Topology.SAME_RACK ? localTransfers : remoteTransfers).increment();
     }
 
-    private void handleAddTransfer(ComponentTransfer transfer, Device dst) throws InterruptedException {
+    private void handleAddTransfer(ComponentTransfer transfer, Device dst, ComponentState state,
+                                   CapacityLease lease) throws InterruptedException {
+        TenantScheduler.Tenant tenant = tenants.tenantOf(transfer);
         devicesLock.acquire();
 
-        if (dst.freeSpace() > 0) {
-            dst.modifyFreeSpace(-1);
+        boolean leased = lease != null && lease.tryUse();
+        if (leased || (dst.freeSpace() > 0 && tenants.mayStart(tenant))) {
+            if (!leased)
+                modifyFreeSpace(dst, -1);
+            int slot = dst.allocateSlot();
+            tenants.startedWithoutWaiting(tenant);
             devicesLock.release();
 
-            transfer.prepare();
-            transfer.perform();
-            dst.insertComponent(transfer.getComponentId());
+            if (transfer instanceof SlotAwareTransfer slotAware)
+                slotAware.setSlots(-1, slot);
+            throttledPrepare(transfer, tenant, System.nanoTime());
+            throttledPerform(transfer);
+            updatePlacement(transfer.getComponentId(), null, dst, slot);
+            finishTransfer(tenant);
         } else {
-            PendingTransfer pt = new PendingTransfer(transfer, null, dst);
+            PendingTransfer pt = obtainTransfer(transfer, null, dst);
+            if (lease != null && lease.claimedSlots() > 0)
+                pt.setLease(lease);
             if (!tryToLinkWithExecutingTransfer(pt)) {
-                dst.insertInbound(pt);
+                enqueueInbound(pt);
             }
+            admitGroups();
             devicesLock.release();
-            executeTransfer(pt);
+            executeTransfer(pt, state);
         }
     }
 
-    private void handleDeleteTransfer(ComponentTransfer transfer, Device src) throws InterruptedException {
-        buildExecutionChainAndExecute(new PendingTransfer(transfer, src, null));
+    private void handleDeleteTransfer(ComponentTransfer transfer, Device src, ComponentState state)
+            throws InterruptedException {
+        PendingTransfer p = obtainTransfer(transfer, src, null);
+        p.setSourceSlot(state.slot);
+
+        devicesLock.acquire();
+        startExecutionChain(p);
+        admitGroups();
+        devicesLock.release();
+
+        executeTransfer(p, state);
+    }
+
+    /**
+     * The calling thread's recycled transfer, unless it is still in use, e.g. because
+     * execute() has been called from within prepare().
+     */
+    private PendingTransfer obtainTransfer(ComponentTransfer transfer, Device src, Device dst) {
+        PendingTransfer t = RECYCLED.get();
+        if (t.isInUse())
+            t = new PendingTransfer();
+        t.setInUse(true);
+        return t.reset(transfer, src, dst, tenants.tenantOf(transfer));
     }
 
 
@@ -115,69 +609,122 @@ public class ConcurrentStorageSystem implements StorageSystem {
         List<PendingTransfer> chain = makeAllowedChain(start, start.source());
         PendingTransfer lastInChain = chain.get(chain.size()-1);
         removeFromGraph(chain);
+        for (int i = 0; i < chain.size(); i++)
+            tenants.started(chain.get(i));
         addExecutingTransfer(lastInChain);
         linkTransfersInChain(chain, false);
 
         return lastInChain;
     }
 
-    private void buildExecutionChainAndExecute(PendingTransfer start) throws InterruptedException {
-        devicesLock.acquire();
-        PendingTransfer lastInChain = buildExecutionChain(start);
-        devicesLock.release();
-
+    /**
+     * Lets a transfer which already has a slot on its destination start, together with
+     * the chain of transfers waiting for its source slot. Requires devicesLock to be held!
+     */
+    private void startExecutionChain(PendingTransfer start) {
+        if (start.destination() != null)
+            start.setDestinationSlot(start.destination().allocateSlot());
+        buildExecutionChain(start);
         start.prepareLock().release();
-        executeTransfer(start);
-
-        devicesLock.acquire();
-        if (lastInChain.next() == null) {
-            removeExecutingTransferAndFreeSpace(lastInChain);
-        }
-        devicesLock.release();
     }
 
+    /**
+     * Devices visited by the chain are marked with a number unique to the chain.
+     * Returns chainScratch, which stays valid until the next chain is built.
+     * Requires devicesLock to be held!
+     */
     private List<PendingTransfer> makeAllowedChain(PendingTransfer v, Device dev) {
-        List<PendingTransfer> transfers = new ArrayList<>();
-        Set<DeviceId> vis = new HashSet<>();
+        List<PendingTransfer> transfers = chainScratch;
+        transfers.clear();
+        chainMark++;
 
         transfers.add(v);
 
-        while (dev != null && !dev.inbound().isEmpty()) {
-            vis.add(dev.id());
+        if (releasePolicy == ReleasePolicy.LONGEST_CHAIN) {
+            pathScratch.clear();
+            searchBudget = LONGEST_CHAIN_SEARCH_BUDGET;
+            extendLongestChain(dev, transfers);
+            return transfers;
+        }
 
-            for (PendingTransfer t : dev.inbound()) {
-                if (t.getSourceDeviceId() == null || !vis.contains(t.getSourceDeviceId())) {
-                    transfers.add(t);
-                    if (t.getSourceDeviceId() != null)
-                        dev = devices.get(t.getSourceDeviceId());
-                    else
-                        dev = null;
-                    break;
-                }
+        // A slot claimed by a lease is not handed down the chain, the chain ends there instead.
+        while (dev != null && !dev.inbound().isEmpty() && dev.claimingLease() == null) {
+            dev.setVisitMark(chainMark);
+
+            Device next = dev;
+            PendingTransfer t = tenants.select(dev, allowedInChain);
+            if (t != null) {
+                transfers.add(t);
+                next = t.source();
             }
+
+            if (next == dev)
+                break;
+            dev = next;
         }
 
         return transfers;
     }
 
+    /**
+     * Depth-first search over the transfers waiting for the device's slot, the one in pathScratch
+     * and on. Devices on the current path are marked, so that no device is vacated twice.
+     * Requires devicesLock to be held!
+     */
+    private void extendLongestChain(Device dev, List<PendingTransfer> best) {
+        if (dev == null || dev.claimingLease() != null)
+            return;
+
+        dev.setVisitMark(chainMark);
+        for (PendingTransfer t = dev.inbound().first(); t != null && searchBudget > 0; t = t.listNext()) {
+            if (!tenants.mayStart(t.tenant()) || !allowedInChain.test(t))
+                continue;
+            searchBudget--;
+
+            pathScratch.add(t);
+            if (pathScratch.size() + 1 > best.size()) {
+                PendingTransfer start = best.get(0);
+                best.clear();
+                best.add(start);
+                for (int i = 0; i < pathScratch.size(); i++)
+                    best.add(pathScratch.get(i));
+            }
+            extendLongestChain(t.source(), best);
+            pathScratch.remove(pathScratch.size() - 1);
+        }
+        dev.setVisitMark(0);
+    }
+
     /**
      * Requires devicesLock to be held!
      */
     private void linkTransfers(PendingTransfer next, PendingTransfer previos) {
+        next.setDestinationSlot(previos.sourceSlot());
         next.setPrevious(previos);
         previos.setNext(next);
     }
 
-    private void linkTransfersInChain(List<PendingTransfer> transfers, boolean isCycle) {
-        Iterator<PendingTransfer> nextIt = transfers.iterator();
-        Iterator<PendingTransfer> it = transfers.iterator();
-        nextIt.next();
+    /**
+     * Links a transfer behind one which may have already started. Whichever of the two
+     * observes the other hands over the permits, so each of them is released exactly once.
+     * Requires devicesLock to be held!
+     */
+    private void linkWithStartedTransfer(PendingTransfer next, PendingTransfer previous) {
+        next.setDestinationSlot(previous.sourceSlot());
+        next.setPrevious(previous);
+        PendingTransfer.Phrase phrase = previous.attachNext(next);
+        if (phrase != PendingTransfer.Phrase.WAITING)
+            next.prepareLock().release();
+        if (phrase == PendingTransfer.Phrase.PERFORM || phrase == PendingTransfer.Phrase.FINISHED)
+            next.performLock().release();
+    }
 
-        while (nextIt.hasNext()) {
-            PendingTransfer next = nextIt.next();
-            PendingTransfer itTransfer = it.next();
-            itTransfer.setNext(next);
-            next.setPrevious(itTransfer);
+    private void linkTransfersInChain(List<PendingTransfer> transfers, boolean isCycle) {
+        for (int i = 1; i < transfers.size(); i++) {
+            // Each transfer takes the source slot of the previous one.
+            transfers.get(i).setDestinationSlot(transfers.get(i - 1).sourceSlot());
+            transfers.get(i - 1).setNext(transfers.get(i));
+            transfers.get(i).setPrevious(transfers.get(i - 1));
         }
 
         if (isCycle) {
@@ -188,133 +735,1093 @@ public class ConcurrentStorageSystem implements StorageSystem {
     }
 
     /**
+     * Links the transfer, or a waiting one which is owed the slot before it, behind an executing
+     * chain which will vacate a slot on its destination. In the latter case the arriving
+     * transfer takes the place of the waiting one in the inbound queue.
      * Requires devicesLock to be held!
      */
     private boolean tryToLinkWithExecutingTransfer(PendingTransfer t) {
-        ConcurrentSkipListSet<PendingTransfer> et = t.destination().executingTransfers();
-        if (et.isEmpty()) {
+        TransferList et = t.destination().executingTransfers();
+        // The slots of a shrunk device over its new capacity are not handed over,
+        // neither are those claimed by a lease.
+        if (et.isEmpty() || t.destination().freeSpace() < 0 || t.destination().claimingLease() != null) {
+            return false;
+        }
+
+        PendingTransfer linked = t;
+        PendingTransfer queued = tenants.select(t.destination(), ANY);
+        if (queued != null && (tenants.precedes(queued, t.tenant()) || !tenants.mayStart(t.tenant()))) {
+            dequeueInbound(queued);
+            linked = queued;
+        } else if (!tenants.mayStart(t.tenant())) {
             return false;
         }
 
-        PendingTransfer lastInChain = et.pollFirst();
-        linkTransfers(t, lastInChain);
-        buildExecutionChain(t);
+        PendingTransfer lastInChain = et.poll();
+        lastInChain.setChainEnd(false);
+        linkWithStartedTransfer(linked, lastInChain);
+        buildExecutionChain(linked);
+        if (linked != t)
+            enqueueInbound(t);
         return true;
     }
 
-    private void removeFromGraph(Collection<PendingTransfer> transfers) {
-        for (PendingTransfer t : transfers)
+    /**
+     * Requires devicesLock to be held!
+     */
+    private void enqueueInbound(PendingTransfer t) {
+        OptionalLong wait = estimator.waitFor(t.destination(), t.destination().inbound().size(), t.created());
+        t.setExpectedStart(wait.isPresent() ? t.created() + wait.getAsLong() : 0);
+        t.destination().inbound().add(t);
+        tenants.enqueued(t);
+        waitingTransfers.incrementAndGet();
+    }
+
+    /**
+     * Requires devicesLock to be held!
+     */
+    private void dequeueInbound(PendingTransfer t) {
+        if (t.destination().inbound().remove(t)) {
+            tenants.dequeued(t);
+            waitingTransfers.decrementAndGet();
+        }
+    }
+
+    private void removeFromGraph(List<PendingTransfer> transfers) {
+        for (int i = 0; i < transfers.size(); i++) {
+            PendingTransfer t = transfers.get(i);
             if (t.destination() != null)
-                t.destination().removeInbound(t);
+                dequeueInbound(t);
+        }
     }
 
     /** Finds a cycle if it exists. Requires devicesLock to be held.
      * @return A list containing vertices which constitute the cycle if it exists, an empty list otherwise.
+     * The list is cycleScratch, valid until the next search. Every transfer in it is followed by
+     * one waiting for its source slot and the last one vacates the destination of the first,
+     * just like in an execution chain.
      */
     private List<PendingTransfer> findCycle(PendingTransfer v) {
-        Deque<PendingTransfer> cycle = new ArrayDeque<>();
-        if (!cycleDfs(v, cycle, v.destination()))
+        cycleScratch.clear();
+        if (!cycleDfs(v, cycleScratch, v.destination()))
             return List.of();
-        return cycle.stream().toList();
+        return cycleScratch;
     }
 
     /**
+     * With a topology, the transfers within a rack are tried first, then those within a zone.
      * Requires devicesLock to be held!
      */
-    private boolean cycleDfs(PendingTransfer v, Deque<PendingTransfer> hist, Device end) {
-        hist.push(v);
+    private boolean cycleDfs(PendingTransfer v, List<PendingTransfer> hist, Device end) {
+        hist.add(v);
         if (v.source() == end)
             return true;
         if (v.source() != null) {
-            for (PendingTransfer x : v.source().inbound()) {
-                if (cycleDfs(x, hist, end))
-                    return true;
+            int farthest = topology == null ? Topology.SAME_RACK : Topology.REMOTE;
+            for (int distance = Topology.SAME_RACK; distance <= farthest; distance++) {
+                for (PendingTransfer x = v.source().inbound().first(); x != null; x = x.listNext()) {
+                    if ((farthest == Topology.SAME_RACK || Topology.distance(x.source(), x.destination()) == distance)
+                            && cycleDfs(x, hist, end))
+                        return true;
+                }
             }
         }
 
-        hist.pop();
+        hist.remove(hist.size() - 1);
         return false;
     }
 
 
     private void freeAllWaiting(List<PendingTransfer> transfers) {
-        for (PendingTransfer t : transfers) {
-            t.prepareLock().release();
+        for (int i = 0; i < transfers.size(); i++) {
+            transfers.get(i).prepareLock().release();
         }
     }
 
-    private void executeTransfer(PendingTransfer t) throws InterruptedException {
-        if (t.previous() == null || t.previous().phrase().equals(PendingTransfer.Phrase.WAITING))
-            t.prepareLock().acquire();
-        t.prepare();
-        if (t.previous() != null && (t.previous().phrase().equals(PendingTransfer.Phrase.WAITING) || t.previous().phrase().equals(PendingTransfer.Phrase.PREPARE)))
-            t.performLock().acquire();
-        t.perform();
+    /**
+     * If prepare() throws, perform() is skipped, but the slots are handed on and the placement is
+     * updated all the same: the transfers of the chain have already been given them.
+     */
+    private void executeTransfer(PendingTransfer t, ComponentState state) throws InterruptedException {
+        boolean prepared = false;
+        try {
+            prepareTransfer(t, state);
+            prepared = true;
+        } finally {
+            performTransfer(t, state, prepared);
+        }
+    }
 
-        // update the location of components
-        if (t.source() != null)
-            t.source().removeComponent(t.getComponentId());
-        if (t.destination() != null)
-            t.destination().insertComponent(t.getComponentId());
+    private void prepareTransfer(PendingTransfer t, ComponentState state) throws InterruptedException {
+        state.pending = t;
+        t.prepareLock().acquire();
+        try {
+            throttledPrepare(t, t.tenant(), t.created());
+        } finally {
+            vacateSource(t);
+        }
     }
 
-    private void addExecutingTransfer(PendingTransfer t) {
-        if (t.source() != null) {
-            t.source().executingTransfers().add(t);
+    private void performTransfer(PendingTransfer t, ComponentState state, boolean prepared)
+            throws InterruptedException {
+        if (t.previous() != null)
+            t.performLock().acquire();
+        try {
+            if (prepared)
+                throttledPerform(t);
+        } finally {
+            updatePlacement(t.getComponentId(), t.source(), t.destination(), t.destinationSlot());
+            state.pending = null;
+            finishTransfer(t.tenant());
+            t.setInUse(false);
         }
     }
 
-    private void removeExecutingTransferAndFreeSpace(PendingTransfer t) {
-        if (t.source() != null) {
-            t.source().executingTransfers().remove(t);
-            t.source().modifyFreeSpace(1);
+    /**
+     * Waiting for the throttle counts into the wait time of the tenant.
+     */
+    private void throttledPrepare(ComponentTransfer t, TenantScheduler.Tenant tenant, long accepted)
+            throws InterruptedException {
+        boolean throttled = throttle.acquire(t.getSourceDeviceId(), t.getDestinationDeviceId());
+        long started = System.nanoTime();
+        tenant.waits().record(started - accepted);
+        try {
+            t.prepare();
+        } finally {
+            if (throttled)
+                throttle.release(t.getSourceDeviceId(), t.getDestinationDeviceId());
         }
+
+        long prepared = System.nanoTime();
+        Device source = t.getSourceDeviceId() == null ? null : devices.get(t.getSourceDeviceId());
+        estimator.prepared(t.getSourceDeviceId(), t.getDestinationDeviceId(), prepared - started, prepared,
+                source != null && source.inbound().publishedSize() > 0);
     }
 
-    public void addComponent(DeviceId deviceId, ComponentId componentId) {
-        Device dev = devices.get(deviceId);
-        dev.insertComponent(componentId);
-        dev.modifyFreeSpace(-1);
+    private void throttledPerform(ComponentTransfer t) throws InterruptedException {
+        boolean throttled = throttle.acquire(t.getSourceDeviceId(), t.getDestinationDeviceId());
+        long started = System.nanoTime();
+        try {
+            t.perform();
+        } finally {
+            if (throttled)
+                throttle.release(t.getSourceDeviceId(), t.getDestinationDeviceId());
+        }
+        estimator.performed(t.getSourceDeviceId(), t.getDestinationDeviceId(), System.nanoTime() - started);
     }
 
-    public void initialiseDevices(Map<DeviceId, Integer> deviceTotalSlots) {
-        deviceTotalSlots.forEach((id, capacity) -> devices.put(id, new Device(id, capacity)));
+    /**
+     * Transfers of a capped tenant may be waiting for this one to finish, even on devices
+     * with free slots. Those of other tenants never do, so they do not take devicesLock here.
+     */
+    private void finishTransfer(TenantScheduler.Tenant tenant) throws InterruptedException {
+        if (!tenant.isCapped()) {
+            tenant.finished();
+            return;
+        }
+
+        devicesLock.acquire();
+        tenant.finished();
+        if (tenant.hasWaiting())
+            admitWaiting();
+        admitGroups();
+        devicesLock.release();
     }
 
     /**
-     * Has to be called with devicesLock held.
+     * Hands free slots to eligible waiting transfers. Requires devicesLock to be held!
      */
-    private void validateOrThrow(ComponentTransfer transfer) throws TransferException {
-        ComponentId id = transfer.getComponentId();
-        if (transfer.getSourceDeviceId() == null && transfer.getDestinationDeviceId() == null) {
-            throw new IllegalTransferType(id);
+    private void admitWaiting() {
+        for (Device dev : devices.values())
+            admitWaiting(dev);
+    }
+
+    /**
+     * Requires devicesLock to be held!
+     */
+    private void admitWaiting(Device dev) {
+        CapacityLease lease;
+        while (dev.freeSpace() > 0 && (lease = dev.claimingLease()) != null) {
+            modifyFreeSpace(dev, -1);
+            grantLeaseSlot(dev, lease);
         }
+        while (dev.freeSpace() > 0) {
+            PendingTransfer waiting = tenants.select(dev, ANY);
+            if (waiting == null)
+                break;
+            dequeueInbound(waiting);
+            modifyFreeSpace(dev, -1);
+            startExecutionChain(waiting);
+        }
+    }
 
-        if (transfer.getDestinationDeviceId() != null) {
-            DeviceId did = transfer.getDestinationDeviceId();
-            if (!devices.containsKey(did))
-                throw new DeviceDoesNotExist(did);
+    /**
+     * Moves the component between devices (either of them may be null) in a single step
+     * as far as snapshot readers are concerned.
+     */
+    private void updatePlacement(ComponentId id, Device source, Device destination, int slot) {
+        long stamp = stateLock.writeLock();
+        try {
+            // The entry of a deleted component is removed once its execute() returns.
+            ComponentState state = components.get(id);
+            if (state == null) {
+                state = new ComponentState();
+                components.put(id, state);
+            }
+            state.device = destination == null ? null : destination.id();
+            state.slot = slot;
+            stateVersion++;
+            if (placementTable != null)
+                placementTable.putComponent(id, state.device);
 
-            Device destination = devices.get(did);
-            if (transfer.getSourceDeviceId() == null && destination.contains(id))
-                throw new ComponentAlreadyExists(id, did);
+            // Published under the lock, so that events are offered in the order of their sequence numbers.
+            PlacementEvent.Type type = source == null ? PlacementEvent.Type.ADDED
+                    : destination == null ? PlacementEvent.Type.REMOVED : PlacementEvent.Type.MOVED;
+            placementEvents.publish(type, id,
+                    source == null ? null : source.id(), destination == null ? null : destination.id());
+        } finally {
+            stateLock.unlockWrite(stamp);
+        }
+    }
 
-            if (destination.contains(id))
-                throw new ComponentDoesNotNeedTransfer(id, did);
+    private void modifyFreeSpace(Device dev, int delta) {
+        long stamp = stateLock.writeLock();
+        try {
+            dev.modifyFreeSpace(delta);
+            stateVersion++;
+            publishDevice(dev);
+        } finally {
+            stateLock.unlockWrite(stamp);
         }
+    }
 
-        if (transfer.getSourceDeviceId() != null) {
-            DeviceId sid = transfer.getSourceDeviceId();
-            if (!devices.containsKey(sid))
-                throw new DeviceDoesNotExist(sid);
+    /**
+     * Requires the write lock of stateLock to be held!
+     */
+    private void publishDevice(Device dev) {
+        if (placementTable != null)
+            placementTable.putDevice(dev.id(), dev.capacity(), dev.freeSpace());
+    }
 
-            Device source = devices.get(sid);
-            if (!source.contains(id))
-                throw new ComponentDoesNotExist(id, sid);
+    private void addExecutingTransfer(PendingTransfer t) {
+        if (t.source() != null) {
+            t.source().executingTransfers().add(t);
+            t.setChainEnd(true);
         }
+    }
 
-        if (activeComponents.contains(id)) {
-            throw new ComponentIsBeingOperatedOn(id);
+    /**
+     * Once the last transfer of a chain has been prepared, its source slot is no longer
+     * needed. Unless somebody has linked to it in the meantime, the slot goes to
+     * the next waiting transfer or back to the pool of free slots.
+     */
+    private void vacateSource(PendingTransfer t) throws InterruptedException {
+        if (!t.isChainEnd())
+            return;
+
+        devicesLock.acquire();
+        if (t.source().executingTransfers().remove(t)) {
+            t.setChainEnd(false);
+            t.source().releaseSlot(t.sourceSlot());
+            releaseSlot(t.source());
+            admitGroups();
         }
+        devicesLock.release();
+    }
+
+    /**
+     * Requires devicesLock to be held!
+     */
+    private void releaseSlot(Device dev) {
+        CapacityLease lease = dev.freeSpace() < 0 ? null : dev.claimingLease();
+        if (lease != null) {
+            grantLeaseSlot(dev, lease);
+            return;
+        }
+
+        PendingTransfer waiting = dev.freeSpace() < 0 ? null : tenants.select(dev, ANY);
+        if (waiting == null) {
+            modifyFreeSpace(dev, 1);
+            return;
+        }
+
+        dequeueInbound(waiting);
+        startExecutionChain(waiting);
+    }
+
+    /**
+     * The slot goes straight to a transfer run against the lease, if one is waiting for it.
+     * Requires devicesLock to be held!
+     */
+    private void grantLeaseSlot(Device dev, CapacityLease lease) {
+        for (PendingTransfer t = dev.inbound().first(); t != null; t = t.listNext()) {
+            if (t.lease() == lease) {
+                lease.slotClaimed(true);
+                dequeueInbound(t);
+                startExecutionChain(t);
+                return;
+            }
+        }
+        lease.slotClaimed(false);
+    }
+
+    /**
+     * Reserves slots of the device for the transfers run against the returned lease. Free slots
+     * are reserved right away, the rest as soon as they are freed, ahead of transfers waiting
+     * for the device. The lease ends once the time to live has passed or it is closed,
+     * whichever comes first; the reserved slots it has not used go to the waiting transfers then.
+     */
+    public CapacityLease lease(DeviceId deviceId, int slots, long timeToLive, TimeUnit unit) {
+        if (slots <= 0)
+            throw new IllegalArgumentException("A lease has to reserve at least one slot");
+        if (timeToLive <= 0)
+            throw new IllegalArgumentException("The time to live has to be positive");
+
+        try {
+            devicesLock.acquire();
+            try {
+                Device dev = devices.get(deviceId);
+                if (dev == null || dev.isDraining())
+                    throw new IllegalArgumentException("Device " + deviceId + " does not exist");
+
+                CapacityLease lease = new CapacityLease(this, dev, slots, System.nanoTime() + unit.toNanos(timeToLive));
+                dev.addLease(lease);
+                admitWaiting(dev);
+                if (leaseTimer == null) {
+                    leaseTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "lease-expiry");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                lease.setExpiry(leaseTimer.schedule(() -> release(lease), timeToLive, unit));
+                return lease;
+            } finally {
+                devicesLock.release();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    /**
+     * Ends the lease, if it has not ended yet.
+     */
+    void release(CapacityLease lease) {
+        try {
+            devicesLock.acquire();
+            if (lease.isActive()) {
+                Device dev = lease.device();
+                int unused = lease.end();
+                dev.removeLease(lease);
+                for (int i = 0; i < unused; i++)
+                    releaseSlot(dev);
+                admitGroups();
+            }
+            devicesLock.release();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    /**
+     * Current device of the component, not counting transfers which have not finished yet.
+     * Never blocks.
+     */
+    public Optional<DeviceId> locate(ComponentId id) {
+        return Optional.ofNullable(deviceOf(id));
+    }
+
+    private DeviceId deviceOf(ComponentId id) {
+        ComponentState state = components.get(id);
+        return state == null ? null : state.device;
+    }
+
+    /**
+     * Slot the component occupies on its current device, not counting transfers which have
+     * not finished yet. Never blocks, unless transfers keep changing the state under it.
+     */
+    public OptionalInt slotOf(ComponentId id) {
+        for (int attempt = 0; attempt < OPTIMISTIC_SNAPSHOT_ATTEMPTS; attempt++) {
+            long stamp = stateLock.tryOptimisticRead();
+            if (stamp == 0)
+                continue;
+            OptionalInt slot = readSlot(id);
+            if (stateLock.validate(stamp))
+                return slot;
+        }
+
+        long stamp = stateLock.readLock();
+        try {
+            return readSlot(id);
+        } finally {
+            stateLock.unlockRead(stamp);
+        }
+    }
+
+    private OptionalInt readSlot(ComponentId id) {
+        ComponentState state = components.get(id);
+        // The device is set together with the slot, so the pair read under a valid stamp matches.
+        return state == null || state.device == null ? OptionalInt.empty() : OptionalInt.of(state.slot);
+    }
+
+    private boolean isOn(ComponentId id, DeviceId device) {
+        return device.equals(deviceOf(id));
+    }
+
+    /**
+     * Slots of the device which are neither occupied nor reserved. Never blocks.
+     */
+    public OptionalInt freeSpace(DeviceId id) {
+        Device dev = devices.get(id);
+        return dev == null ? OptionalInt.empty() : OptionalInt.of(dev.freeSpace());
+    }
+
+    /**
+     * A consistent view of all devices. Never takes devicesLock and normally does not block
+     * at all; only when transfers keep changing the state under it does it fall back to
+     * briefly blocking the (short) state updates.
+     */
+    public StorageSnapshot snapshot() {
+        for (int attempt = 0; attempt < OPTIMISTIC_SNAPSHOT_ATTEMPTS; attempt++) {
+            long stamp = stateLock.tryOptimisticRead();
+            if (stamp == 0)
+                continue;
+            StorageSnapshot snapshot = readSnapshot();
+            if (stateLock.validate(stamp))
+                return snapshot;
+        }
+
+        long stamp = stateLock.readLock();
+        try {
+            return readSnapshot();
+        } finally {
+            stateLock.unlockRead(stamp);
+        }
+    }
+
+    private StorageSnapshot readSnapshot() {
+        long version = stateVersion;
+        Map<DeviceId, Set<ComponentId>> components = new HashMap<>();
+        for (Device dev : devices.values())
+            components.put(dev.id(), new HashSet<>());
+        for (Map.Entry<ComponentId, ComponentState> entry : this.components.entrySet()) {
+            DeviceId device = entry.getValue().device;
+            Set<ComponentId> onDevice = device == null ? null : components.get(device);
+            if (onDevice != null)
+                onDevice.add(entry.getKey());
+        }
+
+        Map<DeviceId, StorageSnapshot.DeviceSnapshot> result = new HashMap<>();
+        for (Device dev : devices.values()) {
+            result.put(dev.id(), new StorageSnapshot.DeviceSnapshot(
+                    dev.id(), dev.capacity(), dev.freeSpace(),
+                    Collections.unmodifiableSet(components.getOrDefault(dev.id(), Set.of()))));
+        }
+        return new StorageSnapshot(version, Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * Starts keeping the table up to date, after writing the current state into it. Replaces
+     * the previously published table, which is left as it was; null stops publishing.
+     */
+    public void publishPlacementTable(PlacementTable table) {
+        long stamp = stateLock.writeLock();
+        try {
+            if (table != null) {
+                for (Device dev : devices.values())
+                    table.putDevice(dev.id(), dev.capacity(), dev.freeSpace());
+                for (Map.Entry<ComponentId, ComponentState> entry : components.entrySet()) {
+                    if (entry.getValue().device != null)
+                        table.putComponent(entry.getKey(), entry.getValue().device);
+                }
+            }
+            placementTable = table;
+        } finally {
+            stateLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Changes of placement made by finished transfers.
+     */
+    public PlacementEventPublisher placementEvents() {
+        return placementEvents;
+    }
+
+    /**
+     * Replaces the default publisher, e.g. to change the buffer size or the overflow policy.
+     * Subscribers of the previous publisher stop receiving events.
+     */
+    public void setPlacementEventPublisher(PlacementEventPublisher publisher) {
+        this.placementEvents = publisher;
+    }
+
+    /**
+     * Sets the share of slot hand-offs the tenant gets while its transfers are waiting, relative to
+     * other tenants (1 by default), and how many of its transfers may be in flight at once
+     * (unlimited by default). Transfers over the cap wait even if their destination has free slots.
+     * Deletes and transfers closing a cycle do not take slots and are never held back by the cap.
+     */
+    public void configureTenant(String tenantId, double weight, int concurrencyCap) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("The weight has to be positive");
+        if (concurrencyCap <= 0)
+            throw new IllegalArgumentException("The concurrency cap has to be positive");
+
+        try {
+            devicesLock.acquire();
+            tenants.configure(tenantId, weight, concurrencyCap);
+            admitWaiting();
+            devicesLock.release();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    /**
+     * {@link ReleasePolicy#FAIR} by default. Applies to slots freed from now on.
+     */
+    public void setReleasePolicy(ReleasePolicy releasePolicy) {
+        this.releasePolicy = releasePolicy;
+    }
+
+    /**
+     * Limits of concurrent I/O per device and per link, none by default.
+     */
+    public TransferThrottle throttle() {
+        return throttle;
+    }
+
+    /**
+     * Wait time of transfers (from being accepted until prepare()) per tenant.
+     */
+    public Map<String, WaitHistogram> tenantWaits() {
+        return Collections.unmodifiableMap(tenants.waits());
+    }
+
+    /**
+     * How long the transfer would wait for its slot if it were executed now, in nanoseconds, from
+     * the prepare() and perform() times of earlier transfers and the current queues. A transfer
+     * choosing its destination is estimated for the best of its candidates. Empty while there
+     * is not enough history. Takes no locks and costs the same however long the queues are.
+     */
+    public OptionalLong estimateWait(ComponentTransfer transfer) {
+        long now = System.nanoTime();
+        if (transfer instanceof DestinationChoosingTransfer choosing
+                && choosing.getCandidateDestinationIds() != null
+                && !choosing.getCandidateDestinationIds().isEmpty()) {
+            OptionalLong best = OptionalLong.empty();
+            for (DeviceId candidate : choosing.getCandidateDestinationIds()) {
+                OptionalLong wait = estimateWait(candidate, now);
+                if (wait.isPresent() && (best.isEmpty() || wait.getAsLong() < best.getAsLong()))
+                    best = wait;
+            }
+            return best;
+        }
+
+        if (transfer.getDestinationDeviceId() == null)
+            return OptionalLong.of(0);
+        return estimateWait(transfer.getDestinationDeviceId(), now);
+    }
+
+    private OptionalLong estimateWait(DeviceId destination, long now) {
+        Device dev = devices.get(destination);
+        return dev == null || dev.isDraining() ? OptionalLong.empty()
+                : estimator.waitFor(dev, dev.inbound().publishedSize(), now);
+    }
+
+    /**
+     * Time left until the component's transfer in flight finishes, in nanoseconds. Empty if there
+     * is no such transfer, not enough history, or the transfer is an add which did not have to wait.
+     */
+    public OptionalLong eta(ComponentId id) {
+        ComponentState state = components.get(id);
+        PendingTransfer t = state == null ? null : state.pending;
+        if (t == null)
+            return OptionalLong.empty();
+
+        OptionalLong prepare = estimator.prepareTime(t.getSourceDeviceId(), t.getDestinationDeviceId());
+        OptionalLong perform = estimator.performTime(t.getSourceDeviceId(), t.getDestinationDeviceId());
+        if (prepare.isEmpty() || perform.isEmpty())
+            return OptionalLong.empty();
+
+        long now = System.nanoTime();
+        long elapsed = now - t.phraseSince();
+        switch (t.phrase()) {
+            case WAITING -> {
+                long start = t.expectedStart();
+                if (start == 0) {
+                    OptionalLong wait = t.destination() == null ? OptionalLong.of(0)
+                            : estimator.waitFor(t.destination(), 0, now);
+                    if (wait.isEmpty())
+                        return OptionalLong.empty();
+                    start = now + wait.getAsLong();
+                }
+                return OptionalLong.of(Math.max(0, start - now) + prepare.getAsLong() + perform.getAsLong());
+            }
+            case PREPARE -> {
+                return OptionalLong.of(Math.max(0, prepare.getAsLong() - elapsed) + perform.getAsLong());
+            }
+            case PERFORM -> {
+                return OptionalLong.of(Math.max(0, perform.getAsLong() - elapsed));
+            }
+            default -> {
+                return OptionalLong.of(0);
+            }
+        }
+    }
+
+    /**
+     * Number of transfers queued in inbound queues, waiting for a slot to be freed.
+     */
+    public int waitingTransferCount() {
+        return waitingTransfers.get();
+    }
+
+    /**
+     * Number of transfers which have been accepted and have not finished yet.
+     */
+    public int activeTransferCount() {
+        return activeTransfers.get();
+    }
+
+    /**
+     * Finished moves between devices in the same rack. Only counted with a topology.
+     */
+    public long localTransferCount() {
+        return localTransfers.sum();
+    }
+
+    /**
+     * Finished moves between racks, or involving a device the topology does not know.
+     * Only counted with a topology.
+     */
+    public long remoteTransferCount() {
+        return remoteTransfers.sum();
+    }
+
+    /**
+     * Passes every transfer being executed to the visitor, in place: takes no locks and copies
+     * nothing but the map iterator, transfers may start and finish meanwhile. Walks all the components, as the pending
+     * transfer of each lives in its ComponentState rather than in a registry of its own, which
+     * would cost every transfer an allocation.
+     */
+    void forEachPendingTransfer(Consumer<PendingTransfer> visitor) {
+        for (ComponentState state : components.values()) {
+            PendingTransfer t = state.pending;
+            if (t != null)
+                visitor.accept(t);
+        }
+    }
+
+    /**
+     * Takes devicesLock for a consistent view, unless it cannot get it within the timeout,
+     * e.g. because the lock has leaked. Then the graph is read without it and marked as such.
+     */
+    WaitsForGraph waitsForGraph(long timeoutNanos) throws InterruptedException {
+        boolean locked = devicesLock.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        try {
+            List<PendingTransfer> pending = new ArrayList<>();
+            forEachPendingTransfer(pending::add);
+            return WaitsForGraph.of(devices.values(), pending, locked, System.nanoTime());
+        } finally {
+            if (locked)
+                devicesLock.release();
+        }
+    }
+
+    boolean isBeingOperatedOn(ComponentId id) {
+        ComponentState state = components.get(id);
+        return state != null && state.active;
+    }
+
+    /**
+     * Components placed on the device, read without any lock.
+     */
+    List<ComponentId> componentsOn(DeviceId device) {
+        List<ComponentId> result = new ArrayList<>();
+        components.forEach((id, state) -> {
+            if (device.equals(state.device))
+                result.add(id);
+        });
+        return result;
+    }
+
+    Collection<Device> devices() {
+        return devices.values();
+    }
+
+    public void addComponent(DeviceId deviceId, ComponentId componentId) {
+        Device dev = devices.get(deviceId);
+        updatePlacement(componentId, null, dev, dev.allocateSlot());
+        modifyFreeSpace(dev, -1);
+    }
+
+    public void initialiseDevices(Map<DeviceId, Integer> deviceTotalSlots) {
+        deviceTotalSlots.forEach((id, capacity) -> devices.put(id, newDevice(id, capacity)));
+    }
+
+    /**
+     * Has to be called before the devices are initialised.
+     */
+    void useTopology(Topology topology) {
+        this.topology = topology;
+        tenants.preferLocal();
+    }
+
+    private Device newDevice(DeviceId id, int capacity) {
+        Device dev = new Device(id, capacity);
+        if (topology != null)
+            dev.setLocation(topology.locate(id).orElse(null));
+        return dev;
+    }
+
+    /**
+     * Adds an empty device, which can be used by transfers right away.
+     */
+    public void addDevice(DeviceId id, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("A device cannot have capacity <= 0");
+
+        try {
+            devicesLock.acquire();
+            try {
+                if (devices.containsKey(id))
+                    throw new IllegalArgumentException("Device " + id + " already exists");
+                long stamp = stateLock.writeLock();
+                try {
+                    Device dev = newDevice(id, capacity);
+                    devices.put(id, dev);
+                    stateVersion++;
+                    publishDevice(dev);
+                } finally {
+                    stateLock.unlockWrite(stamp);
+                }
+            } finally {
+                devicesLock.release();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    /**
+     * The tier only matters to whoever places components by it, e.g. a {@link TieredCache}.
+     */
+    public void setTier(DeviceId id, DeviceTier tier) {
+        Device dev = devices.get(id);
+        if (dev == null)
+            throw new IllegalArgumentException("Device " + id + " does not exist");
+        dev.setTier(tier);
+    }
+
+    public Optional<DeviceTier> tier(DeviceId id) {
+        Device dev = devices.get(id);
+        return dev == null ? Optional.empty() : Optional.of(dev.tier());
+    }
+
+    /**
+     * Changes the number of slots of the device. Added slots go straight to the transfers waiting
+     * for the device. A device may be shrunk below the number of components it holds, its free
+     * space is negative then and no transfer gets in until enough components have left.
+     */
+    public void resizeDevice(DeviceId id, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("A device cannot have capacity <= 0");
+
+        try {
+            devicesLock.acquire();
+            try {
+                Device dev = devices.get(id);
+                if (dev == null)
+                    throw new IllegalArgumentException("Device " + id + " does not exist");
+                long stamp = stateLock.writeLock();
+                try {
+                    int delta = capacity - dev.capacity();
+                    dev.setCapacity(capacity);
+                    dev.modifyFreeSpace(delta);
+                    stateVersion++;
+                    publishDevice(dev);
+                } finally {
+                    stateLock.unlockWrite(stamp);
+                }
+                admitWaiting(dev);
+                admitGroups();
+            } finally {
+                devicesLock.release();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption");
+        }
+    }
+
+    /**
+     * Stops the device from accepting transfers, waits until it is empty and removes it.
+     * Transfers already waiting for the device still get there. New ones fail with
+     * DeviceDoesNotExist and destination choosing transfers skip the device.
+     * @param evacuation Creates the moves which take components off the device, all of them at
+     *                   once, spread over the devices with the most free slots. Components which
+     *                   arrive later are evacuated as they come. If null, it is up to the clients
+     *                   to move or delete them.
+     */
+    public void drainAndRemoveDevice(DeviceId id, MoveFactory evacuation) throws InterruptedException {
+        Device dev;
+        ExecutorService workers;
+        devicesLock.acquire();
+        try {
+            dev = devices.get(id);
+            if (dev == null)
+                throw new IllegalArgumentException("Device " + id + " does not exist");
+            dev.startDraining();
+            workers = workers();
+        } finally {
+            devicesLock.release();
+        }
+
+        while (true) {
+            devicesLock.acquire();
+            try {
+                if (dev.isEmpty()) {
+                    long stamp = stateLock.writeLock();
+                    try {
+                        devices.remove(id);
+                        stateVersion++;
+                        if (placementTable != null)
+                            placementTable.removeDevice(id);
+                    } finally {
+                        stateLock.unlockWrite(stamp);
+                    }
+                    return;
+                }
+            } finally {
+                devicesLock.release();
+            }
+
+            if (evacuation != null)
+                evacuate(dev, evacuation, workers);
+            dev.awaitDrainProgress();
+        }
+    }
+
+    /**
+     * Moves the components which are on the device and not being operated on, all at once, and
+     * waits for the moves to finish. Each one goes to the device with the most free slots left
+     * by the moves before it.
+     */
+    private void evacuate(Device dev, MoveFactory evacuation, ExecutorService workers) throws InterruptedException {
+        Map<Device, Integer> planned = new HashMap<>();
+        List<Future<?>> moves = new ArrayList<>();
+        for (ComponentId c : componentsOn(dev.id())) {
+            Device target = null;
+            int targetRoom = 0;
+            for (Device candidate : devices.values()) {
+                int room = candidate.freeSpace() - planned.getOrDefault(candidate, 0);
+                if (!candidate.isDraining() && (target == null || room > targetRoom)) {
+                    target = candidate;
+                    targetRoom = room;
+                }
+            }
+            if (target == null)
+                break;
+            if (isBeingOperatedOn(c))
+                continue;
+
+            planned.merge(target, 1, Integer::sum);
+            ComponentTransfer move = evacuation.createMove(c, dev.id(), target.id());
+            moves.add(workers.submit(() -> {
+                try {
+                    execute(move);
+                } catch (TransferException e) {
+                    // A client got to the component first, the next round will see where it is.
+                }
+            }));
+        }
+
+        for (Future<?> move : moves) {
+            try {
+                move.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Evacuating " + dev.id() + " failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Starts moving the given components to the given devices, with at most the given number
+     * of moves running at a time, see {@link Migration} for how they are scheduled. Components
+     * which are not mentioned stay where they are. Returns right away.
+     * @param moves Creates the moves, including the hops through devices outside the target placement.
+     */
+    public Migration migrateTo(Map<ComponentId, DeviceId> target, MoveFactory moves, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("At least one move has to be allowed to run");
+
+        StorageSnapshot snapshot = snapshot();
+        Map<DeviceId, Integer> occupancy = new HashMap<>();
+        Map<ComponentId, DeviceId> location = new HashMap<>();
+        for (StorageSnapshot.DeviceSnapshot dev : snapshot.devices().values()) {
+            occupancy.put(dev.id(), dev.capacity() - dev.freeSpace());
+            for (ComponentId c : dev.components())
+                location.put(c, dev.id());
+        }
+
+        for (Map.Entry<ComponentId, DeviceId> entry : target.entrySet()) {
+            DeviceId current = location.get(entry.getKey());
+            if (current == null)
+                throw new IllegalArgumentException("Component " + entry.getKey() + " does not exist");
+            Device dev = devices.get(entry.getValue());
+            if (dev == null || dev.isDraining())
+                throw new IllegalArgumentException("Device " + entry.getValue() + " does not exist");
+            if (!current.equals(entry.getValue())) {
+                occupancy.merge(current, -1, Integer::sum);
+                occupancy.merge(entry.getValue(), 1, Integer::sum);
+            }
+        }
+        for (StorageSnapshot.DeviceSnapshot dev : snapshot.devices().values()) {
+            if (occupancy.get(dev.id()) > dev.capacity())
+                throw new IllegalArgumentException("The target placement does not fit on device " + dev.id());
+        }
+
+        Migration migration = new Migration(this, moves, parallelism, snapshot, target);
+        migration.start();
+        return migration;
+    }
+
+    /**
+     * Picks the candidate destination which can take the component soonest: a device with
+     * free slots first (the more the better), then one with an executing chain to link to,
+     * then the one with the shortest inbound queue. Has to be called with devicesLock held.
+     */
+    private void chooseDestination(ComponentTransfer transfer) throws TransferException {
+        if (!(transfer instanceof DestinationChoosingTransfer choosing)
+                || choosing.getCandidateDestinationIds() == null
+                || choosing.getCandidateDestinationIds().isEmpty())
+            return;
+
+        ComponentId id = transfer.getComponentId();
+        Device source = transfer.getSourceDeviceId() == null ? null : devices.get(transfer.getSourceDeviceId());
+        Device best = null;
+        DeviceId draining = null;
+        for (DeviceId did : choosing.getCandidateDestinationIds()) {
+            Device candidate = devices.get(did);
+            if (candidate == null)
+                throw new DeviceDoesNotExist(did);
+
+            if (isOn(id, did)) {
+                if (transfer.getSourceDeviceId() == null)
+                    throw new ComponentAlreadyExists(id, did);
+                continue;
+            }
+
+            if (candidate.isDraining()) {
+                draining = did;
+                continue;
+            }
+
+            if (best == null || isBetterDestination(candidate, best, source))
+                best = candidate;
+        }
+
+        if (best == null && draining != null)
+            throw new DeviceDoesNotExist(draining);
+        if (best == null)
+            throw new ComponentDoesNotNeedTransfer(id, transfer.getSourceDeviceId());
+        choosing.setDestinationDeviceId(best.id());
+    }
+
+    /**
+     * Among equally good devices, the closest to the source is better. With a topology, all devices
+     * with free slots are equally good, as the transfer starts right away on any of them.
+     * Has to be called with devicesLock held.
+     */
+    private boolean isBetterDestination(Device candidate, Device best, Device source) {
+        int rank = destinationRank(candidate);
+        int bestRank = destinationRank(best);
+        int distance = Topology.distance(source, candidate);
+        int bestDistance = Topology.distance(source, best);
+        if (topology != null && rank < 0 && bestRank < 0 && distance != bestDistance)
+            return distance < bestDistance;
+        if (rank != bestRank)
+            return rank < bestRank;
+        return distance < bestDistance;
+    }
+
+    /**
+     * Lower is better. Has to be called with devicesLock held.
+     */
+    private int destinationRank(Device dev) {
+        if (dev.freeSpace() > 0)
+            return -dev.freeSpace();
+        if (!dev.executingTransfers().isEmpty())
+            return 0;
+        return 1 + dev.inbound().size();
+    }
+
+    /**
+     * Has to be called with devicesLock held.
+     */
+    private void validateOrThrow(ComponentTransfer transfer) throws TransferException {
+        ComponentId id = transfer.getComponentId();
+        if (transfer.getSourceDeviceId() == null && transfer.getDestinationDeviceId() == null) {
+            throw new IllegalTransferType(id);
+        }
+
+        if (transfer.getDestinationDeviceId() != null) {
+            DeviceId did = transfer.getDestinationDeviceId();
+            if (!devices.containsKey(did) || devices.get(did).isDraining())
+                throw new DeviceDoesNotExist(did);
+
+            if (transfer.getSourceDeviceId() == null && isOn(id, did))
+                throw new ComponentAlreadyExists(id, did);
+
+            if (isOn(id, did))
+                throw new ComponentDoesNotNeedTransfer(id, did);
+        }
+
+        if (transfer.getSourceDeviceId() != null) {
+            DeviceId sid = transfer.getSourceDeviceId();
+            if (!devices.containsKey(sid))
+                throw new DeviceDoesNotExist(sid);
+
+            if (!isOn(id, sid))
+                throw new ComponentDoesNotExist(id, sid);
+        }
+
+        if (isBeingOperatedOn(id)) {
+            throw new ComponentIsBeingOperatedOn(id);
+        }
+    }
+
+    private static final class Group {
+        final List<GroupMember> members = new ArrayList<>();
+        // Released once all the members have been started.
+        final Semaphore admitted = new Semaphore(0);
+    }
+
+    private static final class GroupMember {
+        final PendingTransfer transfer;
+        final ComponentState state;
+        // Position among the members of the group in the order they were started, set on admission.
+        int admissionOrder;
+
+        GroupMember(PendingTransfer transfer, ComponentState state) {
+            this.transfer = transfer;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Where a component is and what is being done to it. Written under devicesLock or by the thread
+     * executing the component's transfer, read from anywhere.
+     */
+    private static final class ComponentState {
+        // Null once the component has been deleted.
+        volatile DeviceId device;
+        // Slot on the device, -1 once the component has been deleted.
+        volatile int slot = -1;
+        volatile boolean active;
+        // Set from acceptance until the end of perform(), for the StallWatchdog.
+        volatile PendingTransfer pending;
     }
 }
@@ -0,0 +1,345 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.*;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An alternative engine in which a single coordinator thread owns all of the scheduling state:
+ * devices, their inbound queues and executing chain ends, the placement and the components being
+ * operated on. Nothing of it is shared, so there are no locks. Callers publish their requests into
+ * a {@link RequestRing} and park until the coordinator signals them; the coordinator takes the
+ * requests in batches, in the order they were published.
+ * <p>
+ * A transfer sends three requests: its submission, the start of its prepare() and its end, and
+ * the end of its perform(). The coordinator answers the submission either with a rejection or,
+ * as soon as the transfer may start, with a permission to prepare, followed by a permission to
+ * perform once the transfer which vacates its slot has prepared. Slots are handed over exactly
+ * like in {@link ConcurrentStorageSystem}: to the transfers waiting for a device in the order
+ * they came, through chains of transfers each waiting for the slot of the previous one, and
+ * through cycles of waiting transfers, which start all at once. Only the core API is supported,
+ * none of the extensions of ConcurrentStorageSystem.
+ * <p>
+ * The placement is updated when the coordinator takes the end of a perform(), which may be just
+ * after execute() has returned. It still precedes any request published after execute() returned.
+ */
+public final class CoordinatedStorageSystem implements StorageSystem, AutoCloseable {
+    private static final int RING_CAPACITY = 1024;
+    private static final int SUBMITTED = 0;
+    private static final int PREPARING = 1;
+    private static final int PREPARED = 2;
+    private static final int PERFORMED = 3;
+
+    // Every thread reuses its call for all of its transfers, they never overlap.
+    private final ThreadLocal<Call> calls;
+    private final RequestRing<Call> ring;
+    private final Thread coordinator;
+
+    // Owned by the coordinator.
+    private final Map<DeviceId, Node> devices;
+    private final Map<ComponentId, DeviceId> placement;
+    private final Set<ComponentId> active;
+    private int visitMark;
+
+    CoordinatedStorageSystem(Map<DeviceId, Integer> deviceTotalSlots, Map<ComponentId, DeviceId> componentPlacement) {
+        this.calls = ThreadLocal.withInitial(Call::new);
+        this.ring = new RequestRing<>(RING_CAPACITY);
+        this.devices = new HashMap<>();
+        this.placement = new HashMap<>(componentPlacement);
+        this.active = new HashSet<>();
+        deviceTotalSlots.forEach((id, capacity) -> devices.put(id, new Node(capacity)));
+        componentPlacement.values().forEach(id -> devices.get(id).free--);
+
+        this.coordinator = new Thread(this::coordinate, "coordinator");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    @Override
+    public void execute(ComponentTransfer transfer) throws TransferException {
+        Call call = calls.get();
+        if (!call.released) {
+            // The coordinator has not taken the end of the previous transfer yet.
+            call = new Call();
+            calls.set(call);
+        }
+        call.reset(transfer);
+        ring.publish(SUBMITTED, call);
+        while (!call.mayPrepare)
+            LockSupport.park(this);
+        if (call.failure != null)
+            throw call.failure;
+
+        ring.publish(PREPARING, call);
+        transfer.prepare();
+        ring.publish(PREPARED, call);
+        while (!call.mayPerform)
+            LockSupport.park(this);
+        transfer.perform();
+        ring.publish(PERFORMED, call);
+    }
+
+    /**
+     * Stops the coordinator, transfers still in progress never finish. Waits for the coordinator
+     * to exit, unless the calling thread is interrupted, which leaves its interrupt flag set.
+     */
+    @Override
+    public void close() {
+        coordinator.interrupt();
+        try {
+            coordinator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void coordinate() {
+        while (ring.consume(this::handle))
+            ;
+    }
+
+    private void handle(int kind, Call call) {
+        switch (kind) {
+            case SUBMITTED -> submitted(call);
+            case PREPARING -> preparing(call);
+            case PREPARED -> prepared(call);
+            case PERFORMED -> performed(call);
+            default -> throw new IllegalStateException("Unknown request " + kind);
+        }
+    }
+
+    private void submitted(Call t) {
+        TransferException failure = validate(t.transfer);
+        if (failure != null) {
+            t.failure = failure;
+            t.released = true;
+            allowPrepare(t);
+            return;
+        }
+
+        ComponentTransfer transfer = t.transfer;
+        active.add(transfer.getComponentId());
+        t.source = transfer.getSourceDeviceId() == null ? null : devices.get(transfer.getSourceDeviceId());
+        t.destination = transfer.getDestinationDeviceId() == null ? null : devices.get(transfer.getDestinationDeviceId());
+
+        Node dst = t.destination;
+        if (dst == null || dst.free > 0) {
+            if (dst != null)
+                dst.free--;
+            start(t, null);
+        } else if (!dst.chainEnds.isEmpty()) {
+            start(t, dst.chainEnds.poll());
+        } else if (!startCycle(t)) {
+            dst.inbound.add(t);
+        }
+    }
+
+    /**
+     * The transfer has a slot, either a free one or the one the previous transfer vacates.
+     * The transfers waiting for its source slot follow it in a chain.
+     */
+    private void start(Call t, Call previous) {
+        while (true) {
+            t.previous = previous;
+            if (previous == null) {
+                allowPrepare(t);
+                allowPerform(t);
+            } else {
+                previous.next = t;
+                if (previous.phase >= PREPARING)
+                    allowPrepare(t);
+                if (previous.phase >= PREPARED)
+                    allowPerform(t);
+            }
+
+            Node src = t.source;
+            if (src == null)
+                return;
+            Call waiting = src.inbound.poll();
+            if (waiting == null) {
+                src.chainEnds.add(t);
+                return;
+            }
+            previous = t;
+            t = waiting;
+        }
+    }
+
+    /**
+     * Looks for waiting transfers, each of which would take the source slot of the previous one,
+     * the last one leaving the destination of the given one. Devices are visited at most once.
+     */
+    private boolean startCycle(Call t) {
+        visitMark++;
+        if (!findCycle(t, t))
+            return false;
+
+        // The transfers found are linked through previous, from the last one back to t.
+        Call last = t.previous;
+        for (Call c = last; c != t; c = c.previous)
+            c.destination.inbound.remove(c);
+        t.previous = last;
+        last.next = t;
+        for (Call c = last; c != t; c = c.previous)
+            c.previous.next = c;
+        for (Call c = last; ; c = c.previous) {
+            allowPrepare(c);
+            if (c == t)
+                break;
+        }
+        return true;
+    }
+
+    private boolean findCycle(Call t, Call v) {
+        Node src = v.source;
+        if (src == null || src.visitMark == visitMark)
+            return false;
+        src.visitMark = visitMark;
+
+        for (Call x : src.inbound) {
+            x.previous = v;
+            if (x.source == t.destination) {
+                t.previous = x;
+                return true;
+            }
+            if (findCycle(t, x))
+                return true;
+        }
+        return false;
+    }
+
+    private void preparing(Call t) {
+        t.phase = PREPARING;
+        if (t.next != null)
+            allowPrepare(t.next);
+    }
+
+    /**
+     * The source slot goes to the next transfer in the chain, or if there is none yet,
+     * to the first transfer waiting for the device, or back to the free slots.
+     */
+    private void prepared(Call t) {
+        t.phase = PREPARED;
+        if (t.next != null) {
+            allowPerform(t.next);
+            return;
+        }
+
+        Node src = t.source;
+        if (src == null || !src.chainEnds.remove(t))
+            return;
+        Call waiting = src.inbound.poll();
+        if (waiting == null)
+            src.free++;
+        else
+            start(waiting, null);
+    }
+
+    private void performed(Call t) {
+        ComponentId id = t.transfer.getComponentId();
+        if (t.transfer.getDestinationDeviceId() == null)
+            placement.remove(id);
+        else
+            placement.put(id, t.transfer.getDestinationDeviceId());
+        active.remove(id);
+        t.next = null;
+        t.previous = null;
+        t.released = true;
+    }
+
+    private TransferException validate(ComponentTransfer transfer) {
+        ComponentId id = transfer.getComponentId();
+        DeviceId sid = transfer.getSourceDeviceId();
+        DeviceId did = transfer.getDestinationDeviceId();
+        DeviceId current = placement.get(id);
+        if (sid == null && did == null)
+            return new IllegalTransferType(id);
+        if (did != null && !devices.containsKey(did))
+            return new DeviceDoesNotExist(did);
+        if (sid == null && current != null)
+            return new ComponentAlreadyExists(id, current);
+        if (did != null && did.equals(current))
+            return new ComponentDoesNotNeedTransfer(id, did);
+        if (sid != null && !devices.containsKey(sid))
+            return new DeviceDoesNotExist(sid);
+        if (sid != null && !sid.equals(current))
+            return new ComponentDoesNotExist(id, sid);
+        if (active.contains(id))
+            return new ComponentIsBeingOperatedOn(id);
+        return null;
+    }
+
+    private static void allowPrepare(Call t) {
+        if (t.mayPrepare)
+            return;
+        t.mayPrepare = true;
+        LockSupport.unpark(t.thread);
+    }
+
+    private static void allowPerform(Call t) {
+        t.mayPerform = true;
+        LockSupport.unpark(t.thread);
+    }
+
+    /**
+     * A device as seen by the coordinator.
+     */
+    private static final class Node {
+        private int free;
+        private final ArrayDeque<Call> inbound;
+        // Transfers leaving the device which have not handed their slot to anybody yet.
+        private final ArrayDeque<Call> chainEnds;
+        private int visitMark;
+
+        Node(int capacity) {
+            this.free = capacity;
+            this.inbound = new ArrayDeque<>();
+            this.chainEnds = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * A transfer in progress. The caller only reads the permissions, everything else belongs
+     * to the coordinator from the submission until it releases the call.
+     */
+    private static final class Call {
+        private final Thread thread;
+        private ComponentTransfer transfer;
+        private Node source;
+        private Node destination;
+        private Call previous;
+        private Call next;
+        private int phase;
+        private TransferException failure;
+        private volatile boolean mayPrepare;
+        private volatile boolean mayPerform;
+        private volatile boolean released;
+
+        Call() {
+            this.thread = Thread.currentThread();
+            this.released = true;
+        }
+
+        void reset(ComponentTransfer transfer) {
+            this.transfer = transfer;
+            this.source = null;
+            this.destination = null;
+            this.previous = null;
+            this.next = null;
+            this.phase = SUBMITTED;
+            this.failure = null;
+            this.mayPrepare = false;
+            this.mayPerform = false;
+            this.released = false;
+        }
+    }
+}
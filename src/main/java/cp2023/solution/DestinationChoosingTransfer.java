@@ -0,0 +1,19 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+
+import java.util.Set;
+
+/**
+ * A transfer which does not care about the exact destination device.
+ * The system picks one of the candidates while validating the transfer and reports it
+ * through {@link #setDestinationDeviceId(DeviceId)} before {@link #prepare()} is called.
+ * From then on {@link #getDestinationDeviceId()} has to return the chosen device.
+ */
+public interface DestinationChoosingTransfer extends ComponentTransfer {
+
+    Set<DeviceId> getCandidateDestinationIds();
+
+    void setDestinationDeviceId(DeviceId destination);
+}
@@ -1,67 +1,229 @@
 package cp2023.solution;
 
-import cp2023.base.ComponentId;
 import cp2023.base.DeviceId;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Device {
     private final DeviceId id;
-    private final int capacity;
-    private int freeSpace;
-    private final ConcurrentMap<ComponentId, Boolean> components;
-    private final Queue<PendingTransfer> inbound;
-    private final ConcurrentSkipListSet<PendingTransfer> executingTransfers;
+    private volatile int capacity;
+    private volatile int freeSpace;
+    private volatile DeviceTier tier;
+    // Null unless the system has a topology which knows the device.
+    private volatile Topology.Location location;
+    // Set once the device is being drained, it does not accept any new transfers then.
+    private volatile boolean draining;
+    // Transfers to this device which have been accepted and have not finished yet.
+    private final AtomicInteger arrivals;
+    // Released while draining whenever the device may have become empty or a component has arrived.
+    private final Semaphore drainProgress;
+    // Active leases in the order they were taken. Guarded by devicesLock.
+    private final ArrayDeque<CapacityLease> leases;
+    private final TransferList inbound;
+    // The inbound transfers again, in one queue per tenant which has ever waited for the device.
+    // Guarded by devicesLock.
+    private final ArrayList<TenantScheduler.Queue> tenantQueues;
+    private final TransferList executingTransfers;
+    // Slot numbers below the capacity held by no component and no arriving transfer, used as
+    // a stack. There are always at least as many as free and leased slots together.
+    // Guarded by devicesLock.
+    private int[] freeSlots;
+    private int freeSlotCount;
+    // Slots held by a component or an arriving transfer, possibly over a reduced capacity.
+    private boolean[] heldSlots;
+    // Marks the device as visited by the chain currently being built, see makeAllowedChain().
+    private long visitMark;
 
     public Device(DeviceId id, int capacity) {
         this.id = id;
         this.capacity = capacity;
-        this.components = new ConcurrentHashMap<>();
-        this.inbound = new LinkedList<>();
-        this.executingTransfers = new ConcurrentSkipListSet<>();
+        this.inbound = new TransferList();
+        this.tenantQueues = new ArrayList<>();
+        this.executingTransfers = new TransferList();
         this.freeSpace = capacity;
+        this.tier = DeviceTier.STANDARD;
+        this.arrivals = new AtomicInteger();
+        this.drainProgress = new Semaphore(0);
+        this.leases = new ArrayDeque<>();
+        this.freeSlots = new int[capacity];
+        // Handed out from slot 0 up.
+        for (int i = 0; i < capacity; i++)
+            freeSlots[i] = capacity - 1 - i;
+        this.freeSlotCount = capacity;
+        this.heldSlots = new boolean[capacity];
     }
 
-    public void modifyFreeSpace(int delta) {
+    /**
+     * Writes are serialised by the system, reads may happen at any time.
+     */
+    void modifyFreeSpace(int delta) {
         freeSpace += delta;
-    }
-
-    public boolean contains(ComponentId id) {
-        return components.containsKey(id);
+        // Both this and arrivalFinished() write before they read, so one of them sees the device empty.
+        if (draining && isEmpty())
+            drainProgress.release();
     }
 
     public DeviceId id() {
         return id;
     }
 
-    public Queue<PendingTransfer> inbound() {
-        return inbound;
+    public int capacity() {
+        return capacity;
     }
 
-    public ConcurrentSkipListSet<PendingTransfer> executingTransfers() {
-        return executingTransfers;
+    /**
+     * Writes are serialised by the system, free space has to be adjusted separately.
+     * Slots over a reduced capacity stop being handed out, those still held are dropped
+     * once they are released. Requires devicesLock to be held!
+     */
+    void setCapacity(int capacity) {
+        if (capacity > freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        if (capacity > heldSlots.length)
+            heldSlots = Arrays.copyOf(heldSlots, capacity);
+        int kept = 0;
+        for (int i = 0; i < freeSlotCount; i++) {
+            if (freeSlots[i] < capacity)
+                freeSlots[kept++] = freeSlots[i];
+        }
+        freeSlotCount = kept;
+        for (int slot = this.capacity; slot < capacity; slot++) {
+            if (!heldSlots[slot])
+                freeSlots[freeSlotCount++] = slot;
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Takes a free slot for a component arriving on a slot which is free or leased.
+     * Requires devicesLock to be held!
+     */
+    int allocateSlot() {
+        if (freeSlotCount == 0)
+            throw new IllegalStateException("No free slot on " + id + " for an admitted transfer");
+        int slot = freeSlots[--freeSlotCount];
+        heldSlots[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Requires devicesLock to be held!
+     */
+    void releaseSlot(int slot) {
+        heldSlots[slot] = false;
+        if (slot < capacity)
+            freeSlots[freeSlotCount++] = slot;
+    }
+
+    public DeviceTier tier() {
+        return tier;
+    }
+
+    void setTier(DeviceTier tier) {
+        this.tier = tier;
+    }
+
+    public Topology.Location location() {
+        return location;
     }
 
-    void insertInbound(PendingTransfer t) {
-        inbound.add(t);
+    void setLocation(Topology.Location location) {
+        this.location = location;
     }
 
-    void removeInbound(PendingTransfer t) {
-        inbound.remove(t);
+    public boolean isDraining() {
+        return draining;
+    }
+
+    void startDraining() {
+        draining = true;
+    }
+
+    void addLease(CapacityLease lease) {
+        leases.add(lease);
+    }
+
+    void removeLease(CapacityLease lease) {
+        leases.remove(lease);
+    }
+
+    /**
+     * The oldest lease still claiming slots, which gets the next slot freed on this device.
+     * Requires devicesLock to be held!
+     */
+    CapacityLease claimingLease() {
+        if (leases.isEmpty())
+            return null;
+        for (CapacityLease lease : leases) {
+            if (lease.claimedSlots() > 0)
+                return lease;
+        }
+        return null;
+    }
+
+    void arrivalAccepted() {
+        arrivals.incrementAndGet();
+    }
+
+    void arrivalFinished() {
+        arrivals.decrementAndGet();
+        if (draining)
+            drainProgress.release();
+    }
+
+    /**
+     * Waits until the draining device may have become empty or got a component to evacuate
+     * since the last call.
+     */
+    void awaitDrainProgress() throws InterruptedException {
+        drainProgress.acquire();
+        drainProgress.drainPermits();
+    }
+
+    /**
+     * Nothing is stored on the device, reserved on it or on the way to it.
+     */
+    boolean isEmpty() {
+        return freeSpace == capacity && arrivals.get() == 0;
+    }
+
+    /**
+     * Transfers waiting for a slot on this device. Guarded by devicesLock.
+     */
+    TransferList inbound() {
+        return inbound;
+    }
+
+    /**
+     * See TenantScheduler. Guarded by devicesLock.
+     */
+    ArrayList<TenantScheduler.Queue> tenantQueues() {
+        return tenantQueues;
+    }
+
+    /**
+     * Last transfers of executing chains, which will vacate a slot on this device once they
+     * have been prepared. Guarded by devicesLock.
+     */
+    TransferList executingTransfers() {
+        return executingTransfers;
     }
 
-    void insertComponent(ComponentId id) {
-        components.put(id, true);
+    long visitMark() {
+        return visitMark;
     }
 
-    void removeComponent(ComponentId id) {
-        components.remove(id);
+    void setVisitMark(long visitMark) {
+        this.visitMark = visitMark;
     }
 
+    /**
+     * Negative while a shrunk device still holds more components than its new capacity.
+     */
     public int freeSpace() {
         return freeSpace;
     }
@@ -72,8 +234,10 @@ public class Device {
                 "id=" + id +
                 ", capacity=" + capacity +
                 ", freeSpace=" + freeSpace +
-                ", components=" + components +
-                ", inbound=" + inbound +
+                ", tier=" + tier +
+                ", location=" + location +
+                ", draining=" + draining +
+                ", inbound=" + inbound.size() +
                 '}';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package cp2023.solution;
+
+/**
+ * How fast a device is. Every device starts as {@link #STANDARD}, see
+ * {@link ConcurrentStorageSystem#setTier(cp2023.base.DeviceId, DeviceTier)}.
+ */
+public enum DeviceTier {
+    FAST,
+    STANDARD
+}
@@ -0,0 +1,9 @@
+package cp2023.solution;
+
+/**
+ * The outcome of {@link ConcurrentStorageSystem#executeGroup(java.util.List)}.
+ * @param admissionWaitNanos From the call until all transfers of the group could start.
+ * @param executionNanos     From then until all transfers of the group finished.
+ */
+public record GroupResult(int transfers, long admissionWaitNanos, long executionNanos) {
+}
@@ -0,0 +1,289 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A migration to a target placement started by
+ * {@link ConcurrentStorageSystem#migrateTo(Map, MoveFactory, int)}, with its progress.
+ * <p>
+ * A coordinator thread keeps a model of the free slots of the devices and schedules the moves
+ * as a list: whenever a move finishes, every move whose destination has a free slot in the model
+ * is started, as long as fewer than the given number of moves are running. Moves out of devices
+ * which others are waiting to get into go first, as they unblock the most. The model only frees
+ * the source slot of a move once it has finished, so a started move never waits for another one
+ * (unless foreground transfers take the slot). When nothing is running and nothing can be started,
+ * every remaining destination is full, and as the target placement fits, the remaining moves
+ * contain cycles; as many disjoint ones as the concurrency bound allows are started, each as
+ * a whole, to be executed by the system at once. A cycle longer than the bound is broken by moving
+ * one of its components to a device with a spare slot first, and is only started as a whole
+ * (exceeding the bound) when there is no such device.
+ */
+public final class Migration {
+    private final ConcurrentStorageSystem system;
+    private final MoveFactory moves;
+    private final int parallelism;
+    // The model, owned by the coordinator thread.
+    private final Map<ComponentId, DeviceId> location;
+    private final Map<ComponentId, DeviceId> remaining;
+    private final Map<DeviceId, Integer> free;
+    private final Set<ComponentId> running;
+    private final BlockingQueue<Outcome> outcomes;
+    private final ExecutorService workers;
+
+    private final AtomicInteger plannedMoves;
+    private final AtomicInteger completedMoves;
+    private final AtomicInteger failedMoves;
+    private final AtomicInteger hops;
+    private final AtomicInteger cycles;
+    private final CountDownLatch finished;
+    private final long startNanos;
+    private volatile long endNanos;
+
+    Migration(ConcurrentStorageSystem system, MoveFactory moves, int parallelism,
+              StorageSnapshot snapshot, Map<ComponentId, DeviceId> target) {
+        this.system = system;
+        this.moves = moves;
+        this.parallelism = parallelism;
+        this.location = new HashMap<>();
+        this.remaining = new LinkedHashMap<>();
+        this.free = new HashMap<>();
+        this.running = new HashSet<>();
+        this.outcomes = new LinkedBlockingQueue<>();
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "migration-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.plannedMoves = new AtomicInteger();
+        this.completedMoves = new AtomicInteger();
+        this.failedMoves = new AtomicInteger();
+        this.hops = new AtomicInteger();
+        this.cycles = new AtomicInteger();
+        this.finished = new CountDownLatch(1);
+        this.startNanos = System.nanoTime();
+
+        for (StorageSnapshot.DeviceSnapshot dev : snapshot.devices().values()) {
+            free.put(dev.id(), dev.freeSpace());
+            for (ComponentId c : dev.components())
+                location.put(c, dev.id());
+        }
+        target.forEach((c, d) -> {
+            if (!d.equals(location.get(c)))
+                remaining.put(c, d);
+        });
+        plannedMoves.set(remaining.size());
+    }
+
+    void start() {
+        Thread coordinator = new Thread(this::run, "migration");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * Moves known so far, including the hops through spare slots.
+     */
+    public int plannedMoves() {
+        return plannedMoves.get();
+    }
+
+    public int completedMoves() {
+        return completedMoves.get();
+    }
+
+    /**
+     * Moves rejected by the system, e.g. because a client was operating on the component, or
+     * which threw anything else, e.g. while creating the move. Such components are left where they are.
+     */
+    public int failedMoves() {
+        return failedMoves.get();
+    }
+
+    public int hops() {
+        return hops.get();
+    }
+
+    public int cycles() {
+        return cycles.get();
+    }
+
+    public boolean isDone() {
+        return finished.getCount() == 0;
+    }
+
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Until now or until the migration finished.
+     */
+    public long elapsedNanos() {
+        return (isDone() ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    private void run() {
+        try {
+            while (!remaining.isEmpty()) {
+                startReady();
+                if (running.isEmpty() && !breakDeadlock()) {
+                    // Only possible when failed moves left components where the plan did not expect them.
+                    failedMoves.addAndGet(remaining.size());
+                    break;
+                }
+
+                finish(outcomes.take());
+                Outcome next;
+                while ((next = outcomes.poll()) != null)
+                    finish(next);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        } finally {
+            workers.shutdown();
+            endNanos = System.nanoTime();
+            finished.countDown();
+        }
+    }
+
+    private void startReady() {
+        if (running.size() >= parallelism)
+            return;
+
+        Map<DeviceId, Integer> blocked = new HashMap<>();
+        List<ComponentId> ready = new ArrayList<>();
+        remaining.forEach((c, d) -> {
+            if (running.contains(c))
+                return;
+            if (free.getOrDefault(d, 0) > 0)
+                ready.add(c);
+            else
+                blocked.merge(d, 1, Integer::sum);
+        });
+        ready.sort(Comparator.comparingInt((ComponentId c) -> blocked.getOrDefault(location.get(c), 0)).reversed());
+
+        for (ComponentId c : ready) {
+            if (running.size() >= parallelism)
+                return;
+            DeviceId destination = remaining.get(c);
+            if (free.getOrDefault(destination, 0) > 0)
+                submit(c, destination);
+        }
+    }
+
+    /**
+     * Called when nothing is running and nothing can be started. Starts as many disjoint
+     * cycles as the concurrency bound allows.
+     * @return False if there is no cycle to start.
+     */
+    private boolean breakDeadlock() {
+        Map<DeviceId, List<ComponentId>> leaving = new HashMap<>();
+        remaining.forEach((c, d) -> leaving.computeIfAbsent(location.get(c), x -> new ArrayList<>()).add(c));
+
+        List<ComponentId> cycle = findCycle(leaving);
+        if (cycle.isEmpty())
+            return false;
+
+        if (cycle.size() > parallelism) {
+            for (Map.Entry<DeviceId, Integer> spare : free.entrySet()) {
+                if (spare.getValue() > 0 && !spare.getKey().equals(location.get(cycle.get(0)))) {
+                    hops.incrementAndGet();
+                    plannedMoves.incrementAndGet();
+                    submit(cycle.get(0), spare.getKey());
+                    return true;
+                }
+            }
+        }
+
+        do {
+            cycles.incrementAndGet();
+            for (ComponentId c : cycle) {
+                leaving.get(location.get(c)).remove(c);
+                submit(c, remaining.get(c));
+            }
+            cycle = findCycle(leaving);
+        } while (!cycle.isEmpty() && running.size() + cycle.size() <= parallelism);
+        return true;
+    }
+
+    /**
+     * Follows the remaining moves from device to device, each full device has a component to
+     * leave it as long as the target placement fits.
+     * @param leaving The components still to be moved, by their current device.
+     */
+    private List<ComponentId> findCycle(Map<DeviceId, List<ComponentId>> leaving) {
+        for (DeviceId start : leaving.keySet()) {
+            Map<DeviceId, Integer> visited = new HashMap<>();
+            List<ComponentId> path = new ArrayList<>();
+            DeviceId device = start;
+            while (!visited.containsKey(device)) {
+                List<ComponentId> out = leaving.get(device);
+                if (out == null || out.isEmpty())
+                    break;
+                visited.put(device, path.size());
+                path.add(out.get(0));
+                device = remaining.get(out.get(0));
+            }
+            if (visited.containsKey(device))
+                return path.subList(visited.get(device), path.size());
+        }
+        return List.of();
+    }
+
+    private void submit(ComponentId c, DeviceId destination) {
+        DeviceId source = location.get(c);
+        running.add(c);
+        free.merge(destination, -1, Integer::sum);
+        workers.execute(() -> {
+            // Whatever happens, the planner waits for an outcome of every move.
+            Throwable failure = null;
+            try {
+                system.execute(moves.createMove(c, source, destination));
+            } catch (Throwable e) {
+                failure = e;
+            }
+            outcomes.add(new Outcome(c, source, destination, failure));
+        });
+    }
+
+    private void finish(Outcome outcome) {
+        ComponentId c = outcome.component();
+        running.remove(c);
+        if (outcome.failure() != null) {
+            failedMoves.incrementAndGet();
+            remaining.remove(c);
+            free.merge(outcome.destination(), 1, Integer::sum);
+            return;
+        }
+
+        completedMoves.incrementAndGet();
+        location.put(c, outcome.destination());
+        free.merge(outcome.source(), 1, Integer::sum);
+        if (outcome.destination().equals(remaining.get(c)))
+            remaining.remove(c);
+    }
+
+    @Override
+    public String toString() {
+        return "Migration{" +
+                "completed=" + completedMoves.get() + "/" + plannedMoves.get() +
+                ", failed=" + failedMoves.get() +
+                ", hops=" + hops.get() +
+                ", cycles=" + cycles.get() +
+                ", elapsed=" + String.format("%.3fms", elapsedNanos() / 1e6) +
+                ", done=" + isDone() +
+                '}';
+    }
+
+    private record Outcome(ComponentId component, DeviceId source, DeviceId destination, Throwable failure) {
+    }
+}
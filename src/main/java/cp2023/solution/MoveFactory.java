@@ -0,0 +1,15 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+
+/**
+ * Creates the transfers which the system issues on its own, e.g. when rebalancing devices.
+ * The returned transfer does the actual data movement in its prepare() and perform().
+ */
+@FunctionalInterface
+public interface MoveFactory {
+
+    ComponentTransfer createMove(ComponentId componentId, DeviceId source, DeviceId destination);
+}
@@ -6,23 +6,165 @@ import cp2023.base.DeviceId;
 
 import java.util.concurrent.Semaphore;
 
+/**
+ * Transfers are recycled: every thread keeps one for its next execute() call, see
+ * {@link #reset(ComponentTransfer, Device, Device, TenantScheduler.Tenant)}.
+ */
 public class PendingTransfer implements ComponentTransfer, Comparable<PendingTransfer> {
-    private final ComponentTransfer originalTransfer;
-    private final Device source;
-    private final Device destination;
+    private ComponentTransfer originalTransfer;
+    private Device source;
+    private Device destination;
+    // Slot numbers on the devices, -1 if there is none. The destination slot is set once
+    // the transfer gets a slot, before it is allowed to prepare. Guarded by devicesLock.
+    private int sourceSlot;
+    private int destinationSlot;
+    private TenantScheduler.Tenant tenant;
+    private long created;
     private final Semaphore prepareLock;
     private final Semaphore performLock;
     private PendingTransfer next;
     private PendingTransfer previous;
     private volatile Phrase phrase;
+    private volatile long phraseSince;
+    private volatile boolean chainEnd;
+    private double fairTag;
+    // When the transfer was expected to start preparing as it started waiting, 0 if unknown.
+    private volatile long expectedStart;
+    // The lease whose slot the transfer is waiting for, if any.
+    private CapacityLease lease;
+    // Intrusive links of the TransferList (an inbound queue or executing chain ends) the transfer is on.
+    private TransferList list;
+    private PendingTransfer listPrevious;
+    private PendingTransfer listNext;
+    // Intrusive links of the tenant queue of the inbound queue the transfer is on, see TenantScheduler.
+    private TenantScheduler.Queue queue;
+    private PendingTransfer queuePrevious;
+    private PendingTransfer queueNext;
+    // Whether the transfer is being executed, only ever accessed by the thread which owns it.
+    private boolean inUse;
 
-    public PendingTransfer(ComponentTransfer originalTransfer, Device source, Device destination) {
+    PendingTransfer() {
+        this.performLock = new Semaphore(0);
+        this.prepareLock = new Semaphore(0);
+        this.phrase = Phrase.FINISHED;
+    }
+
+    PendingTransfer(ComponentTransfer originalTransfer, Device source, Device destination,
+                    TenantScheduler.Tenant tenant) {
+        this();
+        reset(originalTransfer, source, destination, tenant);
+    }
+
+    /**
+     * Prepares a finished transfer for reuse. By the time a transfer has finished, no other
+     * transfer will touch it any more: its previous one released both of its permits before
+     * it could perform, and it is on no inbound queue and no executing chain end. Within a cycle
+     * it may be left with a surplus prepare permit, which is drained here.
+     */
+    PendingTransfer reset(ComponentTransfer originalTransfer, Device source, Device destination,
+                          TenantScheduler.Tenant tenant) {
         this.originalTransfer = originalTransfer;
         this.source = source;
         this.destination = destination;
-        this.performLock = new Semaphore(0);
-        this.prepareLock = new Semaphore(0);
+        this.sourceSlot = -1;
+        this.destinationSlot = -1;
+        this.tenant = tenant;
+        this.created = System.nanoTime();
+        this.prepareLock.drainPermits();
+        this.performLock.drainPermits();
+        this.next = null;
+        this.previous = null;
+        this.chainEnd = false;
+        this.fairTag = 0;
+        this.lease = null;
+        this.expectedStart = 0;
+        this.list = null;
+        this.listPrevious = null;
+        this.listNext = null;
+        this.queue = null;
+        this.queuePrevious = null;
+        this.queueNext = null;
+        this.phraseSince = created;
         this.phrase = Phrase.WAITING;
+        return this;
+    }
+
+    boolean isInUse() {
+        return inUse;
+    }
+
+    void setInUse(boolean inUse) {
+        this.inUse = inUse;
+    }
+
+    long expectedStart() {
+        return expectedStart;
+    }
+
+    void setExpectedStart(long expectedStart) {
+        this.expectedStart = expectedStart;
+    }
+
+    CapacityLease lease() {
+        return lease;
+    }
+
+    void setLease(CapacityLease lease) {
+        this.lease = lease;
+    }
+
+    TransferList list() {
+        return list;
+    }
+
+    void setList(TransferList list) {
+        this.list = list;
+    }
+
+    PendingTransfer listPrevious() {
+        return listPrevious;
+    }
+
+    void setListPrevious(PendingTransfer listPrevious) {
+        this.listPrevious = listPrevious;
+    }
+
+    /**
+     * The following transfer on the same TransferList, null if this one is the last.
+     */
+    PendingTransfer listNext() {
+        return listNext;
+    }
+
+    void setListNext(PendingTransfer listNext) {
+        this.listNext = listNext;
+    }
+
+    TenantScheduler.Queue queue() {
+        return queue;
+    }
+
+    void setQueue(TenantScheduler.Queue queue) {
+        this.queue = queue;
+    }
+
+    PendingTransfer queuePrevious() {
+        return queuePrevious;
+    }
+
+    void setQueuePrevious(PendingTransfer queuePrevious) {
+        this.queuePrevious = queuePrevious;
+    }
+
+    /**
+     * The following transfer of the same tenant waiting for the same device, null if this one is the last.
+     */
+    PendingTransfer queueNext() {
+        return queueNext;
+    }
+
+    void setQueueNext(PendingTransfer queueNext) {
+        this.queueNext = queueNext;
     }
 
     @Override
@@ -42,26 +184,49 @@ public class PendingTransfer implements ComponentTransfer, Comparable<PendingTra
 
     @Override
     public void prepare() {
-        phrase = Phrase.PREPARE;
-        if (next != null)
-            next.prepareLock.release();
-        originalTransfer.prepare();
-        phrase = Phrase.PERFORM;
-        if (next != null)
-            next.performLock.release();
+        if (originalTransfer instanceof SlotAwareTransfer slotAware)
+            slotAware.setSlots(sourceSlot, destinationSlot);
+        PendingTransfer n = advance(Phrase.PREPARE);
+        if (n != null)
+            n.prepareLock.release();
+        try {
+            originalTransfer.prepare();
+        } finally {
+            // Even if prepare() failed, the next transfer must not wait for the slot forever.
+            n = advance(Phrase.PERFORM);
+            if (n != null)
+                n.performLock.release();
+        }
+    }
+
+    private synchronized PendingTransfer advance(Phrase phrase) {
+        this.phrase = phrase;
+        this.phraseSince = System.nanoTime();
+        return next;
+    }
+
+    /**
+     * Sets the next transfer and returns the phrase this one was in at that moment.
+     * Together with advance() it guarantees that either this transfer notices the new
+     * next transfer or the caller notices the phrase change, never neither.
+     */
+    synchronized Phrase attachNext(PendingTransfer next) {
+        this.next = next;
+        return phrase;
     }
 
     @Override
     public void perform() {
         originalTransfer.perform();
+        phraseSince = System.nanoTime();
         phrase = Phrase.FINISHED;
     }
 
-    public PendingTransfer next() {
+    public synchronized PendingTransfer next() {
         return next;
     }
 
-    public void setNext(PendingTransfer next) {
+    public synchronized void setNext(PendingTransfer next) {
         this.next = next;
     }
 
@@ -73,6 +238,42 @@ public class PendingTransfer implements ComponentTransfer, Comparable<PendingTra
         return destination;
     }
 
+    int sourceSlot() {
+        return sourceSlot;
+    }
+
+    void setSourceSlot(int sourceSlot) {
+        this.sourceSlot = sourceSlot;
+    }
+
+    int destinationSlot() {
+        return destinationSlot;
+    }
+
+    void setDestinationSlot(int destinationSlot) {
+        this.destinationSlot = destinationSlot;
+    }
+
+    TenantScheduler.Tenant tenant() {
+        return tenant;
+    }
+
+    long created() {
+        return created;
+    }
+
+    /**
+     * Weighted fair queuing tag, given when the transfer starts waiting in an inbound queue.
+     * Guarded by devicesLock.
+     */
+    double fairTag() {
+        return fairTag;
+    }
+
+    void setFairTag(double fairTag) {
+        this.fairTag = fairTag;
+    }
+
     @Override
     public String toString() {
         return "PendingTransfer{" +
@@ -87,6 +288,13 @@ public class PendingTransfer implements ComponentTransfer, Comparable<PendingTra
         return phrase;
     }
 
+    /**
+     * When the transfer entered its current phrase, as given by System.nanoTime().
+     */
+    long phraseSince() {
+        return phraseSince;
+    }
+
     public PendingTransfer previous() {
         return previous;
     }
@@ -95,6 +303,18 @@ public class PendingTransfer implements ComponentTransfer, Comparable<PendingTra
         this.previous = previous;
     }
 
+    /**
+     * Whether this is the last transfer of an executing chain, i.e. one whose source slot
+     * will be vacated once it has been prepared.
+     */
+    public boolean isChainEnd() {
+        return chainEnd;
+    }
+
+    void setChainEnd(boolean chainEnd) {
+        this.chainEnd = chainEnd;
+    }
+
     public Semaphore prepareLock() {
         return prepareLock;
     }
@@ -0,0 +1,17 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+/**
+ * A change of the placement of a component. Sequence numbers grow by one with every change,
+ * so a subscriber which has missed events (see {@link PlacementEventPublisher.OverflowPolicy})
+ * notices a gap in them.
+ */
+public record PlacementEvent(long sequence, Type type, ComponentId componentId,
+                             DeviceId source, DeviceId destination) {
+
+    public enum Type {
+        ADDED, MOVED, REMOVED
+    }
+}
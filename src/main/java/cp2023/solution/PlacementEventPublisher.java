@@ -0,0 +1,129 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes placement changes to any number of subscribers. Every subscriber has its own
+ * bounded buffer and is served by its own task on the executor, which delivers everything
+ * buffered (up to the requested demand) in one batch. Publishing never blocks: when
+ * a subscriber's buffer is full, the event is dropped for that subscriber only.
+ */
+public class PlacementEventPublisher implements Flow.Publisher<PlacementEvent>, AutoCloseable {
+    public static final int DEFAULT_BUFFER_CAPACITY = Flow.defaultBufferSize();
+
+    public enum OverflowPolicy {
+        /** The subscriber stays, it finds out about the missed events from a gap in sequence numbers. */
+        MARK_GAP,
+        /** The subscriber is cancelled and receives onError. */
+        DROP_SUBSCRIBER
+    }
+
+    private final SubmissionPublisher<PlacementEvent> publisher;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong sequence;
+    private final AtomicLong dropped;
+
+    public PlacementEventPublisher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUFFER_CAPACITY, OverflowPolicy.MARK_GAP);
+    }
+
+    public PlacementEventPublisher(Executor executor, int bufferCapacity, OverflowPolicy overflowPolicy) {
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        this.overflowPolicy = overflowPolicy;
+        this.sequence = new AtomicLong();
+        this.dropped = new AtomicLong();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PlacementEvent> subscriber) {
+        publisher.subscribe(new GuardedSubscriber(subscriber));
+    }
+
+    /**
+     * Calls have to be serialised by the caller, so that events are offered in the order
+     * of their sequence numbers.
+     */
+    void publish(PlacementEvent.Type type, ComponentId componentId, DeviceId source, DeviceId destination) {
+        // Counted even with nobody listening, so that a late subscriber can tell how much it has missed.
+        long number = sequence.incrementAndGet();
+        if (!publisher.hasSubscribers())
+            return;
+
+        PlacementEvent event = new PlacementEvent(number, type, componentId, source, destination);
+        publisher.offer(event, (subscriber, item) -> {
+            dropped.incrementAndGet();
+            if (overflowPolicy == OverflowPolicy.DROP_SUBSCRIBER)
+                ((GuardedSubscriber) subscriber).overflowed = true;
+            return false;
+        });
+    }
+
+    public int subscriberCount() {
+        return publisher.getNumberOfSubscribers();
+    }
+
+    /**
+     * Events dropped because of full buffers, summed over all subscribers.
+     */
+    public long droppedEvents() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    /**
+     * The onDrop handler runs on the publishing thread, so a subscriber to be dropped is
+     * only marked there and gets cancelled from its own delivery task.
+     */
+    private static final class GuardedSubscriber implements Flow.Subscriber<PlacementEvent> {
+        private final Flow.Subscriber<? super PlacementEvent> delegate;
+        private Flow.Subscription subscription;
+        private volatile boolean overflowed;
+        private boolean cancelled;
+
+        GuardedSubscriber(Flow.Subscriber<? super PlacementEvent> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(PlacementEvent item) {
+            if (cancelled)
+                return;
+            if (overflowed) {
+                cancelled = true;
+                subscription.cancel();
+                delegate.onError(new IllegalStateException("subscriber dropped: it could not keep up with placement events"));
+                return;
+            }
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!cancelled)
+                delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (!cancelled)
+                delegate.onComplete();
+        }
+    }
+}
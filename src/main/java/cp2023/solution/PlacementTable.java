@@ -0,0 +1,266 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Placement of components and free space of devices, kept in a memory-mapped file, so that other
+ * processes on the host can read it through a {@link PlacementTableReader} without asking the
+ * system. The system updates the table in place, under its own state lock, so there is a single
+ * writer. Readers do not lock anything: every update makes the sequence number odd before it
+ * touches the table and even again afterwards, and a reader which sees it odd or changed while
+ * it was reading retries.
+ * <p>
+ * Layout, in the native byte order (a reader with a different one does not recognise the magic):
+ * a 32 byte header, then an open-addressing table of devices, then one of components, both with
+ * linear probing and a power of two of entries.
+ * <pre>
+ *   header:    magic, format, device entries, component entries (ints),
+ *              sequence (long), status, component count (ints)
+ *   device:    used, id, capacity, free space (ints)
+ *   component: used, id, device id (ints)
+ * </pre>
+ * Ids are the numbers behind ComponentId and DeviceId, i.e. their hash codes.
+ */
+public final class PlacementTable implements AutoCloseable {
+    static final int MAGIC = 0x4350504c; // "CPPL"
+    static final int FORMAT = 1;
+    static final int DEVICE_ENTRIES_OFFSET = 8;
+    static final int COMPONENT_ENTRIES_OFFSET = 12;
+    static final int SEQUENCE_OFFSET = 16;
+    static final int STATUS_OFFSET = 24;
+    static final int COMPONENT_COUNT_OFFSET = 28;
+    static final int HEADER_SIZE = 32;
+    static final int DEVICE_ENTRY_SIZE = 16;
+    static final int COMPONENT_ENTRY_SIZE = 12;
+
+    /** The table is kept up to date. */
+    static final int STATUS_LIVE = 0;
+    /** More devices or components than the table was sized for, it is no longer updated. */
+    static final int STATUS_OVERFLOWED = 1;
+    /** The writer has closed the table, it is no longer updated. */
+    static final int STATUS_CLOSED = 2;
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int deviceMask;
+    private final int componentMask;
+    private final int componentsOffset;
+    private long sequence;
+    private int deviceCount;
+    private int componentCount;
+    private boolean stopped;
+
+    private PlacementTable(MappedByteBuffer buffer, int deviceEntries, int componentEntries) {
+        this.buffer = buffer;
+        this.deviceMask = deviceEntries - 1;
+        this.componentMask = componentEntries - 1;
+        this.componentsOffset = HEADER_SIZE + deviceEntries * DEVICE_ENTRY_SIZE;
+        this.sequence = 0;
+        this.deviceCount = 0;
+        this.componentCount = 0;
+    }
+
+    /**
+     * Creates or overwrites the file. The tables get at least twice as many entries as there may
+     * be devices or components, so that probe sequences stay short.
+     */
+    public static PlacementTable create(Path path, int maxDevices, int maxComponents) throws IOException {
+        if (maxDevices <= 0 || maxComponents <= 0)
+            throw new IllegalArgumentException("The table has to have room for at least one device and one component");
+
+        int deviceEntries = entriesFor(maxDevices);
+        int componentEntries = entriesFor(maxComponents);
+        long size = HEADER_SIZE + (long) deviceEntries * DEVICE_ENTRY_SIZE + (long) componentEntries * COMPONENT_ENTRY_SIZE;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The table would not fit in a single mapping");
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(DEVICE_ENTRIES_OFFSET, deviceEntries);
+        buffer.putInt(COMPONENT_ENTRIES_OFFSET, componentEntries);
+        buffer.putInt(STATUS_OFFSET, STATUS_LIVE);
+        // Written last, a reader which recognises the magic sees the rest of the header.
+        INTS.setRelease(buffer, 4, FORMAT);
+        INTS.setRelease(buffer, 0, MAGIC);
+        return new PlacementTable(buffer, deviceEntries, componentEntries);
+    }
+
+    private static int entriesFor(int max) {
+        return Integer.highestOneBit(Math.max(2 * max - 1, 1)) << 1;
+    }
+
+    /**
+     * Index of the first entry to probe for the id, shared with the readers.
+     */
+    static int home(int id, int mask) {
+        int h = id * 0x9e3779b9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    /**
+     * Number of updates made so far.
+     */
+    public long version() {
+        return sequence / 2;
+    }
+
+    public boolean isOverflowed() {
+        return status() == STATUS_OVERFLOWED;
+    }
+
+    private int status() {
+        return buffer.getInt(STATUS_OFFSET);
+    }
+
+    void putDevice(DeviceId id, int capacity, int freeSpace) {
+        if (stopped)
+            return;
+        begin();
+        int entry = findDevice(id.hashCode());
+        boolean present = buffer.getInt(entry) != 0;
+        if (present || deviceCount < deviceMask / 2 + 1) {
+            buffer.putInt(entry + 4, id.hashCode());
+            buffer.putInt(entry + 8, capacity);
+            buffer.putInt(entry + 12, freeSpace);
+            buffer.putInt(entry, 1);
+            if (!present)
+                deviceCount++;
+        } else {
+            overflow();
+        }
+        end();
+    }
+
+    void removeDevice(DeviceId id) {
+        if (stopped)
+            return;
+        begin();
+        int entry = findDevice(id.hashCode());
+        if (buffer.getInt(entry) != 0) {
+            removeEntry(HEADER_SIZE, DEVICE_ENTRY_SIZE, deviceMask, entry);
+            deviceCount--;
+        }
+        end();
+    }
+
+    /**
+     * @param device Null if the component has been deleted.
+     */
+    void putComponent(ComponentId id, DeviceId device) {
+        if (stopped)
+            return;
+        begin();
+        int entry = findComponent(id.hashCode());
+        boolean present = buffer.getInt(entry) != 0;
+        if (device == null) {
+            if (present) {
+                removeEntry(componentsOffset, COMPONENT_ENTRY_SIZE, componentMask, entry);
+                componentCount--;
+            }
+        } else if (present || componentCount < componentMask / 2 + 1) {
+            buffer.putInt(entry + 4, id.hashCode());
+            buffer.putInt(entry + 8, device.hashCode());
+            buffer.putInt(entry, 1);
+            if (!present)
+                componentCount++;
+        } else {
+            overflow();
+        }
+        buffer.putInt(COMPONENT_COUNT_OFFSET, componentCount);
+        end();
+    }
+
+    private void overflow() {
+        buffer.putInt(STATUS_OFFSET, STATUS_OVERFLOWED);
+        stopped = true;
+    }
+
+    /**
+     * Marks the table as no longer updated. The mapping itself goes away with the buffer.
+     */
+    @Override
+    public void close() {
+        if (stopped)
+            return;
+        begin();
+        buffer.putInt(STATUS_OFFSET, STATUS_CLOSED);
+        stopped = true;
+        end();
+    }
+
+    private void begin() {
+        sequence++;
+        LONGS.setOpaque(buffer, SEQUENCE_OFFSET, sequence);
+        // Readers must not see any of the following writes without the odd sequence number.
+        VarHandle.storeStoreFence();
+    }
+
+    private void end() {
+        sequence++;
+        LONGS.setRelease(buffer, SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * The entry of the device, or the empty one where it would go.
+     */
+    private int findDevice(int id) {
+        int i = home(id, deviceMask);
+        while (true) {
+            int entry = HEADER_SIZE + i * DEVICE_ENTRY_SIZE;
+            if (buffer.getInt(entry) == 0 || buffer.getInt(entry + 4) == id)
+                return entry;
+            i = (i + 1) & deviceMask;
+        }
+    }
+
+    private int findComponent(int id) {
+        int i = home(id, componentMask);
+        while (true) {
+            int entry = componentsOffset + i * COMPONENT_ENTRY_SIZE;
+            if (buffer.getInt(entry) == 0 || buffer.getInt(entry + 4) == id)
+                return entry;
+            i = (i + 1) & componentMask;
+        }
+    }
+
+    /**
+     * Removes the entry and shifts the following ones back where needed, so that no probe
+     * sequence gets broken and no tombstones pile up.
+     */
+    private void removeEntry(int offset, int entrySize, int mask, int entry) {
+        int hole = (entry - offset) / entrySize;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            int next = offset + i * entrySize;
+            if (buffer.getInt(next) == 0)
+                break;
+            int home = home(buffer.getInt(next + 4), mask);
+            // The entry may fill the hole unless its home lies cyclically in (hole, i].
+            boolean stays = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (stays)
+                continue;
+            int target = offset + hole * entrySize;
+            for (int b = 0; b < entrySize; b += 4)
+                buffer.putInt(target + b, buffer.getInt(next + b));
+            hole = i;
+        }
+        buffer.putInt(offset + hole * entrySize, 0);
+    }
+}
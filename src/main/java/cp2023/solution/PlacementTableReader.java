@@ -0,0 +1,186 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+import static cp2023.solution.PlacementTable.*;
+
+/**
+ * Reads a {@link PlacementTable} published by a system, possibly one in another process.
+ * Reads go straight to the mapped file, take no locks and copy nothing but the answer; a read
+ * which overlaps an update is retried. Safe to use from any number of threads.
+ * <p>
+ * An update takes the writer well under a microsecond, so a reader which keeps finding one in
+ * progress for longer than the writer timeout gives up: the writer has most likely died in the
+ * middle of it, and the table will never become readable again.
+ */
+public final class PlacementTableReader {
+    public static final long DEFAULT_WRITER_TIMEOUT_MILLIS = 1000;
+    // The clock is only read every so many spins, as long as the writer keeps up it never is.
+    private static final int SPINS_PER_CLOCK_READ = 1024;
+
+    private final MappedByteBuffer buffer;
+    private final long writerTimeoutNanos;
+    private final int deviceMask;
+    private final int componentMask;
+    private final int componentsOffset;
+
+    private PlacementTableReader(MappedByteBuffer buffer, long writerTimeoutNanos) {
+        this.buffer = buffer;
+        this.writerTimeoutNanos = writerTimeoutNanos;
+        int deviceEntries = buffer.getInt(DEVICE_ENTRIES_OFFSET);
+        this.deviceMask = deviceEntries - 1;
+        this.componentMask = buffer.getInt(COMPONENT_ENTRIES_OFFSET) - 1;
+        this.componentsOffset = HEADER_SIZE + deviceEntries * DEVICE_ENTRY_SIZE;
+    }
+
+    public static PlacementTableReader open(Path path) throws IOException {
+        return open(path, DEFAULT_WRITER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param writerTimeout How long a read waits for an update in progress to end before it
+     *                      throws IllegalStateException.
+     */
+    public static PlacementTableReader open(Path path, long writerTimeout, TimeUnit unit) throws IOException {
+        if (writerTimeout <= 0)
+            throw new IllegalArgumentException("The writer timeout has to be positive");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("not a placement table: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if ((int) INTS.getAcquire(buffer, 0) != MAGIC)
+            throw new IOException("not a placement table: " + path);
+        int format = buffer.getInt(4);
+        if (format != FORMAT)
+            throw new IOException("unsupported placement table format " + format);
+        return new PlacementTableReader(buffer, unit.toNanos(writerTimeout));
+    }
+
+    /**
+     * Device the component was on after the latest update, if any.
+     * @throws IllegalStateException If the table has overflowed or the writer is not responding.
+     */
+    public Optional<DeviceId> locate(ComponentId id) {
+        int device = 0;
+        boolean found;
+        long sequence;
+        do {
+            sequence = beginRead();
+            int i = home(id.hashCode(), componentMask);
+            found = false;
+            // Bounded, a read overlapping an update may see the table in any state.
+            for (int probes = 0; probes <= componentMask; probes++) {
+                int entry = componentsOffset + i * COMPONENT_ENTRY_SIZE;
+                if (buffer.getInt(entry) == 0)
+                    break;
+                if (buffer.getInt(entry + 4) == id.hashCode()) {
+                    device = buffer.getInt(entry + 8);
+                    found = true;
+                    break;
+                }
+                i = (i + 1) & componentMask;
+            }
+        } while (!validate(sequence));
+        return found ? Optional.of(new DeviceId(device)) : Optional.empty();
+    }
+
+    /**
+     * Slots of the device which were neither occupied nor reserved after the latest update.
+     * @throws IllegalStateException If the table has overflowed or the writer is not responding.
+     */
+    public OptionalInt freeSpace(DeviceId id) {
+        int freeSpace = 0;
+        boolean found;
+        long sequence;
+        do {
+            sequence = beginRead();
+            int i = home(id.hashCode(), deviceMask);
+            found = false;
+            for (int probes = 0; probes <= deviceMask; probes++) {
+                int entry = HEADER_SIZE + i * DEVICE_ENTRY_SIZE;
+                if (buffer.getInt(entry) == 0)
+                    break;
+                if (buffer.getInt(entry + 4) == id.hashCode()) {
+                    freeSpace = buffer.getInt(entry + 12);
+                    found = true;
+                    break;
+                }
+                i = (i + 1) & deviceMask;
+            }
+        } while (!validate(sequence));
+        return found ? OptionalInt.of(freeSpace) : OptionalInt.empty();
+    }
+
+    public int componentCount() {
+        int count;
+        long sequence;
+        do {
+            sequence = beginRead();
+            count = buffer.getInt(COMPONENT_COUNT_OFFSET);
+        } while (!validate(sequence));
+        return count;
+    }
+
+    /**
+     * Number of updates made so far.
+     * @throws IllegalStateException If the writer is not responding.
+     */
+    public long version() {
+        return stableSequence() / 2;
+    }
+
+    /**
+     * False once the writer has closed the table or it has overflowed.
+     */
+    public boolean isLive() {
+        return buffer.getInt(STATUS_OFFSET) == STATUS_LIVE;
+    }
+
+    private long beginRead() {
+        long sequence = stableSequence();
+        if (buffer.getInt(STATUS_OFFSET) == STATUS_OVERFLOWED)
+            throw new IllegalStateException("The placement table has overflowed and is no longer updated");
+        return sequence;
+    }
+
+    private long stableSequence() {
+        long deadline = 0;
+        for (int spins = 1; ; spins++) {
+            long sequence = (long) LONGS.getAcquire(buffer, SEQUENCE_OFFSET);
+            if ((sequence & 1) == 0)
+                return sequence;
+            if (spins % SPINS_PER_CLOCK_READ == 0) {
+                long now = System.nanoTime();
+                if (deadline == 0)
+                    deadline = now + writerTimeoutNanos;
+                else if (now - deadline > 0)
+                    throw new IllegalStateException("The writer of the placement table is not responding,"
+                            + " it has been in the middle of an update for too long");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * True if no update has started since the read began.
+     */
+    private boolean validate(long sequence) {
+        VarHandle.loadLoadFence();
+        return (long) LONGS.getOpaque(buffer, SEQUENCE_OFFSET) == sequence;
+    }
+}
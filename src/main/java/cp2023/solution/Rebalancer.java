@@ -0,0 +1,100 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evens out device utilisation in the background. Whenever there is no foreground
+ * traffic, it moves components from the fullest device to the emptiest one, never faster
+ * than the configured rate, see {@link BackgroundMover} for when it backs off.
+ */
+public class Rebalancer {
+    private final ConcurrentStorageSystem system;
+    private final double imbalanceThreshold;
+    private final AtomicLong movesIssued;
+    private final AtomicLong backOffs;
+    private final BackgroundMover mover;
+
+    /**
+     * @param maxMovesPerSecond  Rate cap of the moves issued by the rebalancer.
+     * @param imbalanceThreshold Minimal difference of fill ratios (from [0, 1]) between the fullest
+     *                           and the emptiest device which is worth a move.
+     */
+    public Rebalancer(ConcurrentStorageSystem system, MoveFactory moves,
+                      double maxMovesPerSecond, double imbalanceThreshold) {
+        this.system = system;
+        this.imbalanceThreshold = imbalanceThreshold;
+        this.movesIssued = new AtomicLong();
+        this.backOffs = new AtomicLong();
+        this.mover = new BackgroundMover(system, moves, maxMovesPerSecond, "rebalancer", new BackgroundMover.Policy() {
+            @Override
+            public void backedOff() {
+                backOffs.incrementAndGet();
+            }
+
+            @Override
+            public BackgroundMover.Move proposeMove() {
+                return Rebalancer.this.proposeMove();
+            }
+
+            @Override
+            public void moved(BackgroundMover.Move move) {
+                movesIssued.incrementAndGet();
+            }
+        });
+    }
+
+    public void start() {
+        mover.start();
+    }
+
+    /**
+     * Waits for the move in progress, if any, to finish.
+     */
+    public void stop() throws InterruptedException {
+        mover.stop();
+    }
+
+    public long movesIssued() {
+        return movesIssued.get();
+    }
+
+    public long backOffs() {
+        return backOffs.get();
+    }
+
+    /**
+     * The move only goes to a device which had a free slot, but if a foreground transfer takes
+     * that slot first, the move waits for the device like any other transfer, behind those
+     * already waiting.
+     */
+    private BackgroundMover.Move proposeMove() {
+        Device fullest = null;
+        Device emptiest = null;
+        for (Device d : system.devices()) {
+            if (fullest == null || fill(d) > fill(fullest))
+                fullest = d;
+            if (!d.isDraining() && (emptiest == null || fill(d) < fill(emptiest)))
+                emptiest = d;
+        }
+
+        if (fullest == null || emptiest == null || fullest == emptiest || emptiest.freeSpace() <= 0)
+            return null;
+
+        double gap = fill(fullest) - fill(emptiest);
+        double gapAfterMove = gap - 1.0 / fullest.capacity() - 1.0 / emptiest.capacity();
+        if (gap < imbalanceThreshold || gapAfterMove < 0)
+            return null;
+
+        for (ComponentId c : system.componentsOn(fullest.id())) {
+            if (!system.isBeingOperatedOn(c))
+                return new BackgroundMover.Move(c, fullest.id(), emptiest.id());
+        }
+        return null;
+    }
+
+    private static double fill(Device d) {
+        return 1.0 - (double) d.freeSpace() / d.capacity();
+    }
+}
@@ -0,0 +1,18 @@
+package cp2023.solution;
+
+/**
+ * How the system picks the chain of waiting transfers to start when a slot is freed.
+ */
+public enum ReleasePolicy {
+    /**
+     * On every device along the chain, the waiting transfer owed the slot first is taken, see
+     * {@link TenantScheduler}. The chain ends at the first device with no eligible waiting transfer.
+     */
+    FAIR,
+    /**
+     * Of the chains the freed slot may start, the longest one is taken, so that as many
+     * transfers as possible start at once. The search is bounded, chains of equal length
+     * are taken in the order of arrival. Fair shares of tenants are not guaranteed then.
+     */
+    LONGEST_CHAIN
+}
@@ -0,0 +1,110 @@
+package cp2023.solution;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded multi-producer, single-consumer queue of requests on a pre-allocated ring of slots.
+ * A producer claims a sequence number with a single atomic increment, fills the slot and
+ * publishes it by writing the sequence number into it; the consumer takes the slots in sequence
+ * order as they get published, so the requests of a single producer are consumed in the order
+ * they were published. Nothing is allocated once the ring exists. A producer which gets ahead of
+ * the consumer by the whole ring waits for it, the consumer parks when there is nothing to take.
+ */
+final class RequestRing<T> {
+    private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int SPINS = MULTI_CORE ? 1000 : 0;
+
+    private final Slot<T>[] slots;
+    private final int mask;
+    private final AtomicLong claimed;
+    // Written by the consumer only.
+    private volatile long consumed;
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+
+    /**
+     * @param capacity A power of two.
+     */
+    @SuppressWarnings("unchecked")
+    RequestRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("The capacity has to be a power of two");
+
+        this.slots = (Slot<T>[]) new Slot<?>[capacity];
+        for (int i = 0; i < capacity; i++)
+            slots[i] = new Slot<>(i - capacity);
+        this.mask = capacity - 1;
+        this.claimed = new AtomicLong();
+        this.consumed = 0;
+    }
+
+    void publish(int kind, T request) {
+        long sequence = claimed.getAndIncrement();
+        while (sequence - consumed >= slots.length)
+            Thread.yield();
+
+        Slot<T> slot = slots[(int) (sequence & mask)];
+        slot.kind = kind;
+        slot.request = request;
+        slot.published = sequence;
+        if (consumerParked)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Hands all the requests published so far to the handler, in sequence order, waiting for
+     * at least one. Only to be called by the consumer thread.
+     * @return False if the thread was interrupted while waiting.
+     */
+    boolean consume(Handler<T> handler) {
+        long next = consumed;
+        Slot<T> slot = slots[(int) (next & mask)];
+        if (slot.published != next && !await(slot, next))
+            return false;
+
+        do {
+            handler.handle(slot.kind, slot.request);
+            slot.request = null;
+            next++;
+            slot = slots[(int) (next & mask)];
+        } while (slot.published == next);
+        consumed = next;
+        return true;
+    }
+
+    private boolean await(Slot<T> slot, long sequence) {
+        for (int i = 0; i < SPINS; i++) {
+            if (slot.published == sequence)
+                return true;
+            Thread.onSpinWait();
+        }
+
+        consumer = Thread.currentThread();
+        while (slot.published != sequence) {
+            // Either the producer sees the flag and unparks, or this check sees its slot.
+            consumerParked = true;
+            if (slot.published != sequence)
+                LockSupport.park(this);
+            consumerParked = false;
+            if (Thread.interrupted())
+                return false;
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    interface Handler<T> {
+        void handle(int kind, T request);
+    }
+
+    private static final class Slot<T> {
+        private volatile long published;
+        private int kind;
+        private T request;
+
+        Slot(long published) {
+            this.published = published;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentTransfer;
+
+/**
+ * A transfer which needs to know the slots it moves the component between, e.g. because
+ * the storage behind the devices addresses components by slot number. The system reports them
+ * through {@link #setSlots(int, int)} right before {@link #prepare()} is called. Slots of a device
+ * are numbered from 0 below its capacity, a missing source or destination has slot -1.
+ * The destination slot is one nobody else holds: either a free one or the source slot of the
+ * transfer this one follows in a chain, in which case it is vacated by the time perform() is called.
+ */
+public interface SlotAwareTransfer extends ComponentTransfer {
+
+    void setSlots(int sourceSlot, int destinationSlot);
+}
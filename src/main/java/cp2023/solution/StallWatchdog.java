@@ -0,0 +1,171 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Periodically looks for transfers which have been in the same phrase for longer than
+ * a threshold: waiting for a slot or for their chain to start, or stuck in a chain which
+ * has stopped moving. Whenever new ones show up, it reports them together with the current
+ * waits-for graph.
+ * <p>
+ * A sample walks the components in place, reading the volatile phrase of every pending
+ * transfer, and takes no locks, so it can be left on under full load. It costs time linear
+ * in the number of components, and a quiet one allocates at most the iterator over them.
+ * devicesLock is only taken to dump the graph when something has stalled.
+ */
+public class StallWatchdog {
+    private static final long LOCK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ConcurrentStorageSystem system;
+    private final long thresholdNanos;
+    private final long periodNanos;
+    private final Consumer<StallReport> listener;
+    private final Set<PendingTransfer> reported;
+    private final AtomicLong samples;
+    private final AtomicLong sampleNanos;
+    private final AtomicLong reports;
+    private final Sample sample;
+    private volatile boolean running;
+    private Thread worker;
+
+    public StallWatchdog(ConcurrentStorageSystem system, long threshold, long period, TimeUnit unit,
+                         Consumer<StallReport> listener) {
+        if (threshold <= 0 || period <= 0)
+            throw new IllegalArgumentException("The threshold and the period have to be positive");
+
+        this.system = system;
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.periodNanos = unit.toNanos(period);
+        this.listener = listener;
+        this.reported = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.samples = new AtomicLong();
+        this.sampleNanos = new AtomicLong();
+        this.reports = new AtomicLong();
+        this.sample = new Sample();
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        worker = new Thread(this::run, "stall-watchdog");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        worker.join();
+        worker = null;
+    }
+
+    public long samples() {
+        return samples.get();
+    }
+
+    /**
+     * Mean time a sample took, including dumping the graph when there was something to report.
+     */
+    public double meanSampleNanos() {
+        long n = samples.get();
+        return n == 0 ? 0 : (double) sampleNanos.get() / n;
+    }
+
+    public long reports() {
+        return reports.get();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                check();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("panic: unexpected thread interruption", e);
+            }
+            LockSupport.parkNanos(periodNanos);
+        }
+    }
+
+    /**
+     * Takes a single sample, reporting transfers which have stalled since the previous one.
+     * Called by the watchdog's own thread once started.
+     *
+     * @return The report passed to the listener, null if nothing new has stalled.
+     */
+    public synchronized StallReport check() throws InterruptedException {
+        long start = System.nanoTime();
+        sample.start = start;
+        sample.stalled = null;
+        sample.stillStalled = null;
+        sample.fresh = false;
+        system.forEachPendingTransfer(sample);
+        List<ComponentId> stalled = sample.stalled;
+        Set<PendingTransfer> stillStalled = sample.stillStalled;
+        boolean fresh = sample.fresh;
+        sample.stalled = null;
+        sample.stillStalled = null;
+
+        StallReport report = null;
+        if (stalled == null) {
+            reported.clear();
+        } else {
+            reported.retainAll(stillStalled);
+            reported.addAll(stillStalled);
+        }
+        if (fresh) {
+            Collections.sort(stalled);
+            report = new StallReport(List.copyOf(stalled), system.waitsForGraph(LOCK_TIMEOUT_NANOS));
+            reports.incrementAndGet();
+            listener.accept(report);
+        }
+        samples.incrementAndGet();
+        sampleNanos.addAndGet(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Visits the pending transfers during a sample. Reused, so that a quiet sample allocates
+     * nothing of its own; the lists are allocated only once something has stalled.
+     */
+    private final class Sample implements Consumer<PendingTransfer> {
+        private long start;
+        private List<ComponentId> stalled;
+        private Set<PendingTransfer> stillStalled;
+        private boolean fresh;
+
+        @Override
+        public void accept(PendingTransfer t) {
+            if (t.phrase() != PendingTransfer.Phrase.FINISHED && start - t.phraseSince() >= thresholdNanos) {
+                if (stalled == null) {
+                    stalled = new ArrayList<>();
+                    stillStalled = Collections.newSetFromMap(new IdentityHashMap<>());
+                }
+                stalled.add(t.getComponentId());
+                stillStalled.add(t);
+                fresh |= !reported.contains(t);
+            }
+        }
+    }
+
+    public record StallReport(List<ComponentId> stalled, WaitsForGraph graph) {
+
+        public String toJson() {
+            StringJoiner ids = new StringJoiner(",", "[", "]");
+            for (ComponentId id : stalled)
+                ids.add('"' + id.toString() + '"');
+            return "{\"stalled\":" + ids + ",\"graph\":" + graph.toJson() + "}";
+        }
+
+        public String toDot() {
+            return graph.toDot(stalled);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A point-in-time view of the placement of components and the occupancy of devices.
+ * The version grows with every change of the state, so two snapshots with the same
+ * version describe the same state.
+ */
+public record StorageSnapshot(long version, Map<DeviceId, DeviceSnapshot> devices) {
+
+    /**
+     * @param freeSpace Slots which are neither occupied nor reserved by an ongoing transfer.
+     */
+    public record DeviceSnapshot(DeviceId id, int capacity, int freeSpace, Set<ComponentId> components) {
+    }
+}
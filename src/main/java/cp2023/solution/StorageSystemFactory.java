@@ -19,6 +19,38 @@ public final class StorageSystemFactory {
     public static StorageSystem newSystem(
             Map<DeviceId, Integer> deviceTotalSlots,
             Map<ComponentId, DeviceId> componentPlacement) {
+        return newSystem(deviceTotalSlots, componentPlacement, null);
+    }
+
+    /**
+     * @param topology Where the devices sit, see {@link Topology}; null if unknown.
+     */
+    public static StorageSystem newSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            Topology topology) {
+        validate(deviceTotalSlots, componentPlacement);
+
+        ConcurrentStorageSystem sys = new ConcurrentStorageSystem();
+        if (topology != null)
+            sys.useTopology(topology);
+        sys.initialiseDevices(deviceTotalSlots);
+        componentPlacement.forEach((componentId, deviceId) -> sys.addComponent(deviceId, componentId));
+        return sys;
+    }
+
+    /**
+     * A system run by the single-writer engine, see {@link CoordinatedStorageSystem}.
+     */
+    public static CoordinatedStorageSystem newCoordinatedSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement) {
+        validate(deviceTotalSlots, componentPlacement);
+        return new CoordinatedStorageSystem(deviceTotalSlots, componentPlacement);
+    }
+
+    private static void validate(Map<DeviceId, Integer> deviceTotalSlots,
+                                 Map<ComponentId, DeviceId> componentPlacement) {
         // https://moodle.mimuw.edu.pl/mod/forum/discuss.php?d=9261
         if (deviceTotalSlots.isEmpty()) {
             throw new IllegalArgumentException("Cannot initialise a system without devices");
@@ -47,10 +79,5 @@ public final class StorageSystemFactory {
                 throw new IllegalArgumentException("Device overflow");
             }
         }
-
-        ConcurrentStorageSystem sys = new ConcurrentStorageSystem();
-        sys.initialiseDevices(deviceTotalSlots);
-        componentPlacement.forEach((componentId, deviceId) -> sys.addComponent(deviceId, componentId));
-        return sys;
     }
 }
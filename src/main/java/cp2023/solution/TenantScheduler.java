@@ -0,0 +1,249 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentTransfer;
+import cp2023.metrics.WaitHistogram;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Weighted fair queuing of waiting transfers across tenants. A transfer which has to wait gets
+ * a virtual finish tag, max(virtual time, last tag of its tenant) + 1 / weight, and whenever
+ * a slot is handed over, the eligible waiting transfer with the lowest tag gets it. With a single
+ * tenant this is plain FIFO. A transfer is not eligible while its tenant has as many transfers
+ * in flight as its cap allows. With a topology, a transfer within a rack (or failing that, a zone)
+ * may take the slot instead, if its tag is at most {@link #LOCALITY_WINDOW} above the lowest one,
+ * so a transfer is overtaken only by the few which are owed a slot nearly as much as it is.
+ * <p>
+ * Besides its device's inbound queue, a waiting transfer is on a FIFO {@link Queue} of its tenant
+ * for that device. Tags grow along such a queue, so a hand-off compares only the heads of the
+ * queues and costs as much as there are tenants waiting for the device, however deep their backlogs.
+ * <p>
+ * Unless stated otherwise, the methods require devicesLock to be held.
+ */
+final class TenantScheduler {
+    // In units of virtual time, i.e. of transfers of a tenant with weight 1.
+    static final double LOCALITY_WINDOW = 4;
+
+    private final ConcurrentMap<String, Tenant> tenants;
+    private double virtualTime;
+    private volatile boolean preferLocal;
+
+    TenantScheduler() {
+        this.tenants = new ConcurrentHashMap<>();
+        this.virtualTime = 0;
+    }
+
+    /**
+     * Does not require devicesLock.
+     */
+    Tenant tenantOf(ComponentTransfer transfer) {
+        String id = transfer instanceof TenantTransfer tenantTransfer ? tenantTransfer.getTenantId() : null;
+        return tenants.computeIfAbsent(id == null ? TenantTransfer.DEFAULT_TENANT : id, Tenant::new);
+    }
+
+    void configure(String id, double weight, int concurrencyCap) {
+        Tenant tenant = tenants.computeIfAbsent(id, Tenant::new);
+        tenant.weight = weight;
+        tenant.concurrencyCap = concurrencyCap;
+    }
+
+    /**
+     * Does not require devicesLock, to be called before any transfer.
+     */
+    void preferLocal() {
+        preferLocal = true;
+    }
+
+    /**
+     * Does not require devicesLock.
+     */
+    Map<String, WaitHistogram> waits() {
+        Map<String, WaitHistogram> waits = new ConcurrentHashMap<>();
+        tenants.forEach((id, tenant) -> waits.put(id, tenant.waits));
+        return waits;
+    }
+
+    void enqueued(PendingTransfer t) {
+        Tenant tenant = t.tenant();
+        tenant.lastTag = nextTag(tenant);
+        t.setFairTag(tenant.lastTag);
+        tenant.waiting++;
+        queueOf(t.destination(), tenant).add(t);
+    }
+
+    void dequeued(PendingTransfer t) {
+        t.tenant().waiting--;
+        t.queue().remove(t);
+    }
+
+    /**
+     * The transfer got a slot, possibly over the cap of its tenant: deletes and cycles
+     * never wait for the cap, as they do not take any slots.
+     */
+    void started(PendingTransfer t) {
+        t.tenant().inFlight.incrementAndGet();
+        virtualTime = Math.max(virtualTime, t.fairTag());
+    }
+
+    void startedWithoutWaiting(Tenant tenant) {
+        tenant.inFlight.incrementAndGet();
+    }
+
+    boolean mayStart(Tenant tenant) {
+        return tenant.inFlight.get() < tenant.concurrencyCap;
+    }
+
+    /**
+     * Whether the queued transfer is owed a slot before one of the arriving tenant.
+     */
+    boolean precedes(PendingTransfer queued, Tenant arriving) {
+        return queued.fairTag() <= nextTag(arriving);
+    }
+
+    /**
+     * @return The eligible waiting transfer with the lowest tag, or a closer one within the window,
+     * null if there is none.
+     */
+    PendingTransfer select(Device device, Predicate<PendingTransfer> allowed) {
+        List<Queue> queues = device.tenantQueues();
+        PendingTransfer best = null;
+        for (int i = 0; i < queues.size(); i++) {
+            Queue queue = queues.get(i);
+            if (queue.first == null || !mayStart(queue.tenant))
+                continue;
+            // The first allowed transfer is the best one of the queue, usually its head.
+            for (PendingTransfer t = queue.first; t != null && (best == null || t.fairTag() < best.fairTag());
+                 t = t.queueNext()) {
+                if (allowed.test(t)) {
+                    best = t;
+                    break;
+                }
+            }
+        }
+        if (best == null || !preferLocal)
+            return best;
+
+        double limit = best.fairTag() + LOCALITY_WINDOW;
+        int bestDistance = distance(best);
+        for (int i = 0; i < queues.size() && bestDistance > Topology.SAME_RACK; i++) {
+            Queue queue = queues.get(i);
+            if (!mayStart(queue.tenant))
+                continue;
+            for (PendingTransfer t = queue.first; t != null && t.fairTag() <= limit; t = t.queueNext()) {
+                int distance = distance(t);
+                if (distance < bestDistance && allowed.test(t)) {
+                    best = t;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static Queue queueOf(Device device, Tenant tenant) {
+        List<Queue> queues = device.tenantQueues();
+        for (int i = 0; i < queues.size(); i++) {
+            if (queues.get(i).tenant == tenant)
+                return queues.get(i);
+        }
+        Queue queue = new Queue(tenant);
+        queues.add(queue);
+        return queue;
+    }
+
+    private static int distance(PendingTransfer t) {
+        return Topology.distance(t.source(), t.destination());
+    }
+
+    private double nextTag(Tenant tenant) {
+        return Math.max(virtualTime, tenant.lastTag) + 1 / tenant.weight;
+    }
+
+    static final class Tenant {
+        private final String id;
+        private final AtomicInteger inFlight;
+        private final WaitHistogram waits;
+        private volatile double weight;
+        private volatile int concurrencyCap;
+        private double lastTag;
+        private int waiting;
+
+        Tenant(String id) {
+            this.id = id;
+            this.inFlight = new AtomicInteger();
+            this.waits = new WaitHistogram();
+            this.weight = 1;
+            this.concurrencyCap = Integer.MAX_VALUE;
+        }
+
+        String id() {
+            return id;
+        }
+
+        WaitHistogram waits() {
+            return waits;
+        }
+
+        boolean isCapped() {
+            return concurrencyCap != Integer.MAX_VALUE;
+        }
+
+        /**
+         * Does not require devicesLock.
+         */
+        void finished() {
+            inFlight.decrementAndGet();
+        }
+
+        boolean hasWaiting() {
+            return waiting > 0;
+        }
+    }
+
+    /**
+     * Transfers of one tenant waiting for one device, in the order they started waiting, which
+     * is also the order of their tags. Linked through the transfers, like a TransferList.
+     * Kept even when empty, as the tenant is likely to wait for the device again.
+     */
+    static final class Queue {
+        private final Tenant tenant;
+        private PendingTransfer first;
+        private PendingTransfer last;
+
+        Queue(Tenant tenant) {
+            this.tenant = tenant;
+        }
+
+        void add(PendingTransfer t) {
+            t.setQueue(this);
+            t.setQueuePrevious(last);
+            t.setQueueNext(null);
+            if (last == null)
+                first = t;
+            else
+                last.setQueueNext(t);
+            last = t;
+        }
+
+        void remove(PendingTransfer t) {
+            PendingTransfer previous = t.queuePrevious();
+            PendingTransfer next = t.queueNext();
+            if (previous == null)
+                first = next;
+            else
+                previous.setQueueNext(next);
+            if (next == null)
+                last = previous;
+            else
+                next.setQueuePrevious(previous);
+            t.setQueue(null);
+            t.setQueuePrevious(null);
+            t.setQueueNext(null);
+        }
+    }
+}
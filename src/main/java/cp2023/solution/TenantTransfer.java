@@ -0,0 +1,14 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentTransfer;
+
+/**
+ * A transfer issued on behalf of a tenant. Slots are handed over to waiting transfers fairly
+ * across tenants, see {@link ConcurrentStorageSystem#configureTenant(String, double, int)}.
+ * Transfers of other kinds, and those returning null, belong to {@link #DEFAULT_TENANT}.
+ */
+public interface TenantTransfer extends ComponentTransfer {
+    String DEFAULT_TENANT = "default";
+
+    String getTenantId();
+}
@@ -0,0 +1,186 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps frequently accessed components on {@link DeviceTier#FAST} devices. Callers report
+ * accesses through {@link #recordAccess(ComponentId)}, which counts them per component; the
+ * counts are halved periodically, so they follow the recent popularity (a decayed LFU).
+ * In the background, the hottest component off the fast tier is promoted to a fast device
+ * with a free slot, and if there is none, the coldest component on the fast tier is evicted
+ * to a standard device to make room, provided the hot one is clearly hotter. Moves go
+ * only to devices with free slots, never faster than the configured rate and only while
+ * there is no foreground traffic, through the same {@link BackgroundMover} as the Rebalancer.
+ */
+public class TieredCache {
+    private static final long AGING_PERIOD_NANOS = 1_000_000_000;
+    // A hot component replaces a cold one only if it has been accessed this many times more.
+    private static final double HYSTERESIS = 2;
+    // Marks a count which has decayed to nothing and is about to be removed from the map,
+    // so that an access does not count into it any more.
+    private static final int FORGOTTEN = -1;
+
+    private final ConcurrentStorageSystem system;
+    private final ConcurrentMap<ComponentId, AtomicInteger> accesses;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final AtomicLong promotions;
+    private final AtomicLong evictions;
+    private final BackgroundMover mover;
+    // Only accessed by the mover's thread.
+    private long lastAging;
+
+    /**
+     * @param maxMovesPerSecond Rate cap of the promotions and evictions together.
+     */
+    public TieredCache(ConcurrentStorageSystem system, MoveFactory moves, double maxMovesPerSecond) {
+        this.system = system;
+        this.accesses = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.promotions = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.lastAging = System.nanoTime();
+        this.mover = new BackgroundMover(system, moves, maxMovesPerSecond, "tiered-cache", new BackgroundMover.Policy() {
+            @Override
+            public void tick(long now) {
+                if (now - lastAging >= AGING_PERIOD_NANOS) {
+                    age();
+                    lastAging = now;
+                }
+            }
+
+            @Override
+            public BackgroundMover.Move proposeMove() {
+                return TieredCache.this.proposeMove();
+            }
+
+            @Override
+            public void moved(BackgroundMover.Move move) {
+                boolean promotion = system.tier(move.destination()).orElse(DeviceTier.STANDARD) == DeviceTier.FAST;
+                (promotion ? promotions : evictions).incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * To be called whenever the component is read or written. It is a hit if the component
+     * is on the fast tier at that moment.
+     */
+    public void recordAccess(ComponentId id) {
+        while (true) {
+            AtomicInteger count = accesses.get(id);
+            if (count == null)
+                count = accesses.computeIfAbsent(id, c -> new AtomicInteger());
+            int current = count.get();
+            if (current == FORGOTTEN)
+                accesses.remove(id, count);
+            else if (count.compareAndSet(current, current + 1))
+                break;
+        }
+
+        Optional<DeviceTier> tier = system.locate(id).flatMap(system::tier);
+        if (tier.isPresent() && tier.get() == DeviceTier.FAST)
+            hits.increment();
+        else
+            misses.increment();
+    }
+
+    public void start() {
+        mover.start();
+    }
+
+    /**
+     * Waits for the move in progress, if any, to finish.
+     */
+    public void stop() throws InterruptedException {
+        mover.stop();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public double hitRate() {
+        long hits = hits();
+        long all = hits + misses();
+        return all == 0 ? 0 : (double) hits / all;
+    }
+
+    public long promotions() {
+        return promotions.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Promotions go to fast devices and evictions to standard ones, which tells them apart
+     * once the move is done.
+     */
+    private BackgroundMover.Move proposeMove() {
+        Device fastWithRoom = null;
+        Device standardWithRoom = null;
+        for (Device d : system.devices()) {
+            if (d.isDraining() || d.freeSpace() <= 0)
+                continue;
+            if (d.tier() == DeviceTier.FAST && (fastWithRoom == null || d.freeSpace() > fastWithRoom.freeSpace()))
+                fastWithRoom = d;
+            if (d.tier() == DeviceTier.STANDARD
+                    && (standardWithRoom == null || d.freeSpace() > standardWithRoom.freeSpace()))
+                standardWithRoom = d;
+        }
+
+        Candidate hottest = null;
+        Candidate coldest = null;
+        for (Map.Entry<ComponentId, AtomicInteger> entry : accesses.entrySet()) {
+            ComponentId id = entry.getKey();
+            Optional<DeviceId> device = system.locate(id);
+            if (device.isEmpty() || system.isBeingOperatedOn(id))
+                continue;
+            int count = Math.max(0, entry.getValue().get());
+            boolean fast = system.tier(device.get()).orElse(DeviceTier.STANDARD) == DeviceTier.FAST;
+            if (!fast && count > 0 && (hottest == null || count > hottest.accesses()))
+                hottest = new Candidate(id, device.get(), count);
+            if (fast && (coldest == null || count < coldest.accesses()))
+                coldest = new Candidate(id, device.get(), count);
+        }
+
+        if (hottest != null && fastWithRoom != null)
+            return new BackgroundMover.Move(hottest.id(), hottest.device(), fastWithRoom.id());
+        if (hottest != null && coldest != null && standardWithRoom != null
+                && hottest.accesses() > HYSTERESIS * coldest.accesses())
+            return new BackgroundMover.Move(coldest.id(), coldest.device(), standardWithRoom.id());
+        return null;
+    }
+
+    /**
+     * Halves every count and forgets the components which have not been accessed for a while.
+     * A count is marked as forgotten before it is removed, so that an access racing with
+     * the removal goes to a fresh count rather than being lost.
+     */
+    private void age() {
+        for (Map.Entry<ComponentId, AtomicInteger> entry : accesses.entrySet()) {
+            AtomicInteger count = entry.getValue();
+            if (count.updateAndGet(c -> c / 2 > 0 ? c / 2 : FORGOTTEN) == FORGOTTEN)
+                accesses.remove(entry.getKey(), count);
+        }
+    }
+
+    private record Candidate(ComponentId id, DeviceId device, int accesses) {
+    }
+}
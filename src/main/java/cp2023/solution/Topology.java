@@ -0,0 +1,49 @@
+package cp2023.solution;
+
+import cp2023.base.DeviceId;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Where the devices sit: each one in a rack, each rack in a zone. Given to
+ * {@link StorageSystemFactory#newSystem(Map, Map, Topology)}, it makes the system prefer
+ * transfers within a rack whenever it has a choice between otherwise equally good ones:
+ * when picking a destination out of the candidates, when picking which of the transfers
+ * waiting for a freed slot gets it and when searching for a cycle. Devices it does not
+ * know about are as far from everything as devices in another zone.
+ */
+public final class Topology {
+    static final int SAME_RACK = 0;
+    static final int SAME_ZONE = 1;
+    static final int REMOTE = 2;
+
+    private final Map<DeviceId, Location> locations;
+
+    public Topology(Map<DeviceId, Location> locations) {
+        this.locations = Map.copyOf(locations);
+    }
+
+    public Optional<Location> locate(DeviceId device) {
+        return Optional.ofNullable(locations.get(device));
+    }
+
+    /**
+     * An add or a delete does not cross anything, so a missing device is close to everything.
+     */
+    static int distance(Device a, Device b) {
+        if (a == null || b == null)
+            return SAME_RACK;
+        Location x = a.location();
+        Location y = b.location();
+        if (x == null || y == null || !x.zone().equals(y.zone()))
+            return REMOTE;
+        return x.rack().equals(y.rack()) ? SAME_RACK : SAME_ZONE;
+    }
+
+    /**
+     * Racks are told apart by their names within a zone.
+     */
+    public record Location(String zone, String rack) {
+    }
+}
@@ -0,0 +1,103 @@
+package cp2023.solution;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A FIFO list of transfers linked through the transfers themselves, so that adding and
+ * removing allocates nothing. A transfer can be on at most one list at a time, which holds
+ * since a transfer waiting in an inbound queue has not started and an executing chain end has.
+ * Iterate with {@code for (t = list.first(); t != null; t = t.listNext())}.
+ * Guarded by devicesLock.
+ * <p>
+ * The head and the size are also read without devicesLock, to estimate waits. They are written
+ * with release semantics and such readers use the published accessors, which read them with
+ * acquire semantics: a value read that way may be out of date, but it is one the list really
+ * had, together with everything written to the transfer it leads to before it was linked in.
+ */
+final class TransferList {
+    private static final VarHandle HEAD;
+    private static final VarHandle SIZE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(TransferList.class, "head", PendingTransfer.class);
+            SIZE = lookup.findVarHandle(TransferList.class, "size", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private PendingTransfer head;
+    private PendingTransfer tail;
+    private int size;
+
+    void add(PendingTransfer t) {
+        t.setList(this);
+        t.setListPrevious(tail);
+        t.setListNext(null);
+        if (tail == null)
+            HEAD.setRelease(this, t);
+        else
+            tail.setListNext(t);
+        tail = t;
+        SIZE.setRelease(this, size + 1);
+    }
+
+    /**
+     * @return Whether the transfer was on this list.
+     */
+    boolean remove(PendingTransfer t) {
+        if (t.list() != this)
+            return false;
+
+        if (t.listPrevious() == null)
+            HEAD.setRelease(this, t.listNext());
+        else
+            t.listPrevious().setListNext(t.listNext());
+        if (t.listNext() == null)
+            tail = t.listPrevious();
+        else
+            t.listNext().setListPrevious(t.listPrevious());
+
+        t.setList(null);
+        t.setListPrevious(null);
+        t.setListNext(null);
+        SIZE.setRelease(this, size - 1);
+        return true;
+    }
+
+    PendingTransfer first() {
+        return head;
+    }
+
+    PendingTransfer poll() {
+        PendingTransfer first = head;
+        if (first != null)
+            remove(first);
+        return first;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * For readers not holding devicesLock.
+     */
+    PendingTransfer publishedFirst() {
+        return (PendingTransfer) HEAD.getAcquire(this);
+    }
+
+    /**
+     * For readers not holding devicesLock.
+     */
+    int publishedSize() {
+        return (int) SIZE.getAcquire(this);
+    }
+}
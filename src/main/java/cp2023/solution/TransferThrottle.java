@@ -0,0 +1,149 @@
+package cp2023.solution;
+
+import cp2023.base.DeviceId;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits the number of transfers doing I/O at once: per source device, per destination
+ * device, per device in either direction and per (source, destination) link. A transfer counts as doing I/O while it is in
+ * prepare() and while it is in perform(), but not in between, when it may be waiting for
+ * the previous transfer of its chain or cycle to be prepared. Since it never holds its
+ * permits while waiting for another transfer, the limits cannot deadlock a chain or a cycle,
+ * they only stretch it out.
+ * <p>
+ * All permits a transfer needs are taken at once or not at all. Without any limits set,
+ * transfers do not touch the throttle's monitor at all.
+ */
+public class TransferThrottle {
+    private final ConcurrentMap<DeviceId, Integer> sourceLimits;
+    private final ConcurrentMap<DeviceId, Integer> destinationLimits;
+    private final ConcurrentMap<DeviceId, Integer> deviceLimits;
+    private final ConcurrentMap<Link, Integer> linkLimits;
+    private final Map<DeviceId, Integer> reading;
+    private final Map<DeviceId, Integer> writing;
+    private final Map<DeviceId, Integer> busy;
+    private final Map<Link, Integer> onLink;
+    private volatile boolean limited;
+
+    public TransferThrottle() {
+        this.sourceLimits = new ConcurrentHashMap<>();
+        this.destinationLimits = new ConcurrentHashMap<>();
+        this.deviceLimits = new ConcurrentHashMap<>();
+        this.linkLimits = new ConcurrentHashMap<>();
+        this.reading = new HashMap<>();
+        this.writing = new HashMap<>();
+        this.busy = new HashMap<>();
+        this.onLink = new HashMap<>();
+        this.limited = false;
+    }
+
+    /**
+     * At most the given number of transfers (moves and deletes) out of the device at once.
+     */
+    public synchronized void limitSource(DeviceId device, int limit) {
+        sourceLimits.put(device, checkLimit(limit));
+        changed();
+    }
+
+    /**
+     * At most the given number of transfers (moves and adds) into the device at once.
+     */
+    public synchronized void limitDestination(DeviceId device, int limit) {
+        destinationLimits.put(device, checkLimit(limit));
+        changed();
+    }
+
+    /**
+     * At most the given number of transfers into or out of the device at once, e.g. for
+     * a device which has a single head for both reads and writes. A move between two
+     * limited devices takes a permit on each of them.
+     */
+    public synchronized void limitDevice(DeviceId device, int limit) {
+        deviceLimits.put(device, checkLimit(limit));
+        changed();
+    }
+
+    /**
+     * At most the given number of moves from the source to the destination at once.
+     */
+    public synchronized void limitLink(DeviceId source, DeviceId destination, int limit) {
+        linkLimits.put(new Link(source, destination), checkLimit(limit));
+        changed();
+    }
+
+    public synchronized void removeLimits() {
+        sourceLimits.clear();
+        destinationLimits.clear();
+        deviceLimits.clear();
+        linkLimits.clear();
+        changed();
+    }
+
+    private static int checkLimit(int limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("A limit has to be positive");
+        return limit;
+    }
+
+    private void changed() {
+        limited = !sourceLimits.isEmpty() || !destinationLimits.isEmpty()
+                || !deviceLimits.isEmpty() || !linkLimits.isEmpty();
+        notifyAll();
+    }
+
+    /**
+     * Either device may be null.
+     *
+     * @return Whether the permits have been taken and have to be given back through
+     * {@link #release(DeviceId, DeviceId)}.
+     */
+    boolean acquire(DeviceId source, DeviceId destination) throws InterruptedException {
+        if (!limited)
+            return false;
+
+        Link link = source == null || destination == null ? null : new Link(source, destination);
+        synchronized (this) {
+            while (!fits(reading, sourceLimits, source)
+                    || !fits(writing, destinationLimits, destination)
+                    || !fits(busy, deviceLimits, source)
+                    || !fits(busy, deviceLimits, destination)
+                    || !fits(onLink, linkLimits, link))
+                wait();
+
+            add(reading, source, 1);
+            add(writing, destination, 1);
+            add(busy, source, 1);
+            add(busy, destination, 1);
+            add(onLink, link, 1);
+        }
+        return true;
+    }
+
+    synchronized void release(DeviceId source, DeviceId destination) {
+        add(reading, source, -1);
+        add(writing, destination, -1);
+        add(busy, source, -1);
+        add(busy, destination, -1);
+        add(onLink, source == null || destination == null ? null : new Link(source, destination), -1);
+        notifyAll();
+    }
+
+    private static <K> boolean fits(Map<K, Integer> inFlight, Map<K, Integer> limits, K key) {
+        if (key == null)
+            return true;
+        Integer limit = limits.get(key);
+        return limit == null || inFlight.getOrDefault(key, 0) < limit;
+    }
+
+    private static <K> void add(Map<K, Integer> inFlight, K key, int delta) {
+        if (key != null)
+            inFlight.merge(key, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    private record Link(DeviceId source, DeviceId destination) {
+    }
+}
@@ -0,0 +1,136 @@
+package cp2023.solution;
+
+import cp2023.base.DeviceId;
+import cp2023.metrics.Ewma;
+
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns how long prepare() and perform() take per device and per link, and how often
+ * a component leaves a device which has transfers waiting for it, i.e. how fast its queue
+ * drains. Everything is a moving average updated without locks, and an estimate only reads
+ * a few of them together with the published sizes and heads of the device's lists, which are
+ * read without devicesLock and may be slightly out of date, see {@link TransferList}.
+ * <p>
+ * The estimates are point estimates which follow the recent durations, which is what a client
+ * choosing a timeout or a destination needs; keeping whole distributions per device and per link
+ * would cost more on every transfer without changing them.
+ */
+final class WaitEstimator {
+    private static final double WEIGHT = 0.2;
+
+    private final ConcurrentMap<DeviceId, DeviceTimes> devices;
+
+    WaitEstimator() {
+        this.devices = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param sourceQueued Whether transfers were waiting for the source device, then the
+     *                     time since the previous such departure is a sample of how fast it drains.
+     */
+    void prepared(DeviceId source, DeviceId destination, long nanos, long now, boolean sourceQueued) {
+        if (source == null)
+            return;
+
+        DeviceTimes times = times(source);
+        times.prepare.record(nanos);
+        if (destination != null)
+            times.link(destination).prepare.record(nanos);
+
+        long previous = times.lastDeparture.getAndSet(now);
+        if (sourceQueued && previous != 0)
+            times.departureInterval.record(now - previous);
+    }
+
+    void performed(DeviceId source, DeviceId destination, long nanos) {
+        if (destination == null)
+            return;
+
+        times(destination).perform.record(nanos);
+        if (source != null)
+            times(source).link(destination).perform.record(nanos);
+    }
+
+    /**
+     * Time until a transfer arriving now at the device would start to prepare, given that
+     * the given number of transfers are ahead of it. Empty while nothing is known about the device.
+     */
+    OptionalLong waitFor(Device dev, int ahead, long now) {
+        if (dev.freeSpace() > 0)
+            return OptionalLong.of(0);
+
+        DeviceTimes times = devices.get(dev.id());
+        if (times == null)
+            return OptionalLong.empty();
+
+        double interval = times.departureInterval.isEmpty() ? times.prepare.value() : times.departureInterval.value();
+        if (Double.isNaN(interval))
+            return OptionalLong.empty();
+
+        // The first slot comes from an executing chain end once it has prepared, or else with
+        // the next departure; every transfer ahead takes one more departure.
+        PendingTransfer chainEnd = dev.executingTransfers().publishedFirst();
+        double first = interval;
+        if (chainEnd != null && !times.prepare.isEmpty())
+            first = Math.max(0, times.prepare.value() - (now - chainEnd.phraseSince()));
+        return OptionalLong.of((long) (first + ahead * interval));
+    }
+
+    /**
+     * Falls back to what is known about the devices when nothing is known about the link.
+     */
+    OptionalLong prepareTime(DeviceId source, DeviceId destination) {
+        if (source == null)
+            return OptionalLong.of(0);
+        DeviceTimes times = devices.get(source);
+        if (times == null)
+            return OptionalLong.empty();
+        LinkTimes link = destination == null ? null : times.links.get(destination);
+        return estimate(link != null && !link.prepare.isEmpty() ? link.prepare : times.prepare);
+    }
+
+    OptionalLong performTime(DeviceId source, DeviceId destination) {
+        if (destination == null)
+            return OptionalLong.of(0);
+        DeviceTimes sourceTimes = source == null ? null : devices.get(source);
+        LinkTimes link = sourceTimes == null ? null : sourceTimes.links.get(destination);
+        if (link != null && !link.perform.isEmpty())
+            return estimate(link.perform);
+        DeviceTimes times = devices.get(destination);
+        return times == null ? OptionalLong.empty() : estimate(times.perform);
+    }
+
+    private static OptionalLong estimate(Ewma ewma) {
+        return ewma.isEmpty() ? OptionalLong.empty() : OptionalLong.of((long) ewma.value());
+    }
+
+    private DeviceTimes times(DeviceId device) {
+        DeviceTimes times = devices.get(device);
+        return times != null ? times : devices.computeIfAbsent(device, d -> new DeviceTimes());
+    }
+
+    private static final class DeviceTimes {
+        // Of transfers from the device.
+        private final Ewma prepare = new Ewma(WEIGHT);
+        // Of transfers to the device.
+        private final Ewma perform = new Ewma(WEIGHT);
+        private final Ewma departureInterval = new Ewma(WEIGHT);
+        private final AtomicLong lastDeparture = new AtomicLong();
+        // By destination.
+        private final ConcurrentMap<DeviceId, LinkTimes> links = new ConcurrentHashMap<>();
+
+        LinkTimes link(DeviceId destination) {
+            LinkTimes link = links.get(destination);
+            return link != null ? link : links.computeIfAbsent(destination, d -> new LinkTimes());
+        }
+    }
+
+    private static final class LinkTimes {
+        private final Ewma prepare = new Ewma(WEIGHT);
+        private final Ewma perform = new Ewma(WEIGHT);
+    }
+}
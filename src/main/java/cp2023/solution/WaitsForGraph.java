@@ -0,0 +1,146 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.util.*;
+
+/**
+ * Who waits for whom: devices with their inbound queues and the chain ends which will vacate
+ * their slots, and every pending transfer with its phrase and links. A transfer in an inbound
+ * queue waits for a slot of the device, the device waits for its executing chain ends, and
+ * a transfer with a previous one waits for it to be prepared before performing.
+ *
+ * @param consistent  Whether it was read under devicesLock. If not, the parts may not fit together.
+ * @param takenAtNanos As given by System.nanoTime().
+ */
+public record WaitsForGraph(long takenAtNanos, boolean consistent,
+                            List<DeviceNode> devices, List<TransferNode> transfers) {
+
+    public record DeviceNode(DeviceId id, int capacity, int freeSpace,
+                             List<ComponentId> inbound, List<ComponentId> executingChainEnds) {
+    }
+
+    /**
+     * @param phraseNanos How long the transfer has been in its current phrase.
+     * @param ageNanos    How long ago the transfer was accepted.
+     */
+    public record TransferNode(ComponentId component, DeviceId source, DeviceId destination,
+                               PendingTransfer.Phrase phrase, long phraseNanos, long ageNanos,
+                               ComponentId previous, ComponentId next, boolean chainEnd) {
+    }
+
+    static WaitsForGraph of(Collection<Device> devices, Collection<PendingTransfer> transfers,
+                            boolean consistent, long now) {
+        List<DeviceNode> deviceNodes = new ArrayList<>();
+        for (Device dev : devices) {
+            deviceNodes.add(new DeviceNode(dev.id(), dev.capacity(), dev.freeSpace(),
+                    componentsOf(dev.inbound()), componentsOf(dev.executingTransfers())));
+        }
+        deviceNodes.sort(Comparator.comparing(DeviceNode::id));
+
+        List<TransferNode> transferNodes = new ArrayList<>();
+        for (PendingTransfer t : transfers) {
+            transferNodes.add(new TransferNode(t.getComponentId(), t.getSourceDeviceId(), t.getDestinationDeviceId(),
+                    t.phrase(), now - t.phraseSince(), now - t.created(),
+                    t.previous() == null ? null : t.previous().getComponentId(),
+                    t.next() == null ? null : t.next().getComponentId(),
+                    t.isChainEnd()));
+        }
+        transferNodes.sort(Comparator.comparing(TransferNode::component));
+
+        return new WaitsForGraph(now, consistent, List.copyOf(deviceNodes), List.copyOf(transferNodes));
+    }
+
+    /**
+     * Without devicesLock a list may change while it is being copied, the copy is then only
+     * a best effort: a transfer unlinked under our feet ends it early.
+     */
+    private static List<ComponentId> componentsOf(TransferList transfers) {
+        List<ComponentId> ids = new ArrayList<>();
+        for (PendingTransfer t = transfers.first(); t != null; t = t.listNext())
+            ids.add(t.getComponentId());
+        return ids;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"consistent\":").append(consistent).append(",\"devices\":[");
+        for (int i = 0; i < devices.size(); i++) {
+            DeviceNode d = devices.get(i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"id\":").append(quote(d.id()))
+                    .append(",\"capacity\":").append(d.capacity())
+                    .append(",\"freeSpace\":").append(d.freeSpace())
+                    .append(",\"inbound\":").append(quoteAll(d.inbound()))
+                    .append(",\"executingChainEnds\":").append(quoteAll(d.executingChainEnds()))
+                    .append('}');
+        }
+        json.append("],\"transfers\":[");
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferNode t = transfers.get(i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"component\":").append(quote(t.component()))
+                    .append(",\"source\":").append(quote(t.source()))
+                    .append(",\"destination\":").append(quote(t.destination()))
+                    .append(",\"phrase\":").append(quote(t.phrase()))
+                    .append(",\"phraseNanos\":").append(t.phraseNanos())
+                    .append(",\"ageNanos\":").append(t.ageNanos())
+                    .append(",\"previous\":").append(quote(t.previous()))
+                    .append(",\"next\":").append(quote(t.next()))
+                    .append(",\"chainEnd\":").append(t.chainEnd())
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    public String toDot() {
+        return toDot(Set.of());
+    }
+
+    /**
+     * @param highlighted Transfers to be drawn in red, e.g. the stalled ones.
+     */
+    public String toDot(Collection<ComponentId> highlighted) {
+        StringBuilder dot = new StringBuilder("digraph waits_for {\n");
+        if (!consistent)
+            dot.append("  label=\"read without devicesLock, may be inconsistent\";\n");
+        for (DeviceNode d : devices) {
+            dot.append("  ").append(quote(d.id())).append(" [shape=box,label=\"")
+                    .append(d.id()).append("\\nfree ").append(d.freeSpace()).append('/').append(d.capacity())
+                    .append("\"];\n");
+            for (ComponentId end : d.executingChainEnds())
+                dot.append("  ").append(quote(d.id())).append(" -> ").append(quote(end))
+                        .append(" [label=\"vacated by\"];\n");
+        }
+        for (TransferNode t : transfers) {
+            dot.append("  ").append(quote(t.component())).append(" [label=\"")
+                    .append(t.component()).append("\\n").append(t.source()).append(" -> ").append(t.destination())
+                    .append("\\n").append(t.phrase()).append(String.format(" %.1fms", t.phraseNanos() / 1e6))
+                    .append('"').append(highlighted.contains(t.component()) ? ",color=red,fontcolor=red" : "")
+                    .append("];\n");
+            if (t.previous() != null)
+                dot.append("  ").append(quote(t.component())).append(" -> ").append(quote(t.previous()))
+                        .append(" [style=dashed,label=\"performs after\"];\n");
+        }
+        for (DeviceNode d : devices) {
+            for (ComponentId waiting : d.inbound())
+                dot.append("  ").append(quote(waiting)).append(" -> ").append(quote(d.id()))
+                        .append(" [label=\"waits for slot\"];\n");
+        }
+        return dot.append("}\n").toString();
+    }
+
+    private static String quote(Object value) {
+        if (value == null)
+            return "null";
+        return '"' + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static String quoteAll(List<?> values) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        for (Object value : values)
+            joiner.add(quote(value));
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package cp2023.trace;
+
+import cp2023.metrics.LatencySummary;
+
+/**
+ * @param mismatched Calls which ended differently than in the trace, e.g. were rejected
+ *                   during the replay but completed when recorded.
+ * @param waits      From the (scaled) submission time until prepare(), even if the replay
+ *                   issued the call later.
+ * @param latencies  From the (scaled) submission time until execute() returned.
+ * @param waitErrors How far off the wait estimated by the system just before submission was,
+ *                   in either direction. Empty unless the system gives estimates.
+ */
+public record ReplayReport(int issued, int mismatched, long wallNanos,
+                           LatencySummary waits, LatencySummary latencies, LatencySummary waitErrors) {
+
+    public double throughput() {
+        return wallNanos == 0 ? 0 : issued / (wallNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        String report = String.format("issued=%d mismatched=%d wall=%.3fs throughput=%.1f/s%n  waits:     %s%n  latencies: %s",
+                issued, mismatched, wallNanos / 1e9, throughput(), waits, latencies);
+        return waitErrors.count() == 0 ? report : report + String.format("%n  wait estimate errors: %s", waitErrors);
+    }
+}
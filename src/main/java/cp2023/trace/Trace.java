@@ -0,0 +1,15 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recorded trace: the system it was recorded on and its execute() calls ordered by submission time.
+ */
+public record Trace(Map<DeviceId, Integer> deviceTotalSlots,
+                    Map<ComponentId, DeviceId> componentPlacement,
+                    List<TraceEvent> events) {
+}
@@ -0,0 +1,27 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+/**
+ * A single execute() call: when it was issued (relative to the start of the recording),
+ * what it asked for, how long it waited before prepare() and how long prepare() and
+ * perform() took. Durations of a transfer which has been rejected are zero.
+ */
+public record TraceEvent(long submitNanos, ComponentId componentId, DeviceId source, DeviceId destination,
+                         long waitNanos, long prepareNanos, long performNanos, Outcome outcome) {
+
+    /**
+     * How the call ended, in the order of codes used in trace files.
+     */
+    public enum Outcome {
+        COMPLETED,
+        ILLEGAL_TRANSFER_TYPE,
+        DEVICE_DOES_NOT_EXIST,
+        COMPONENT_ALREADY_EXISTS,
+        COMPONENT_DOES_NOT_EXIST,
+        COMPONENT_DOES_NOT_NEED_TRANSFER,
+        COMPONENT_IS_BEING_OPERATED_ON,
+        OTHER_FAILURE
+    }
+}
@@ -0,0 +1,152 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The binary trace format. After a header with the initial state of the system, every
+ * record takes a flags byte followed by variable-length integers: the submission time as
+ * a delta from the previous record, the ids and the three durations. A typical record
+ * fits in about 15 bytes.
+ * <p>
+ * ComponentId and DeviceId do not expose their numbers other than through hashCode(),
+ * which is the number itself, so that is what gets stored.
+ */
+public final class TraceFile {
+    private static final int MAGIC = 0x43505452; // "CPTR"
+    private static final int VERSION = 1;
+
+    private static final int HAS_SOURCE = 1;
+    private static final int HAS_DESTINATION = 2;
+    private static final int OUTCOME_SHIFT = 2;
+
+    private TraceFile() {
+    }
+
+    public static Trace read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a trace file: " + path);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported trace version " + version);
+
+            Map<DeviceId, Integer> devices = new HashMap<>();
+            int deviceCount = readVarInt(in);
+            for (int i = 0; i < deviceCount; i++)
+                devices.put(new DeviceId(readVarInt(in)), readVarInt(in));
+
+            Map<ComponentId, DeviceId> placement = new HashMap<>();
+            int componentCount = readVarInt(in);
+            for (int i = 0; i < componentCount; i++)
+                placement.put(new ComponentId(readVarInt(in)), new DeviceId(readVarInt(in)));
+
+            List<TraceEvent> events = new ArrayList<>();
+            long submitted = 0;
+            int flags;
+            while ((flags = in.read()) != -1) {
+                submitted += readVarLong(in);
+                ComponentId component = new ComponentId(readVarInt(in));
+                DeviceId source = (flags & HAS_SOURCE) != 0 ? new DeviceId(readVarInt(in)) : null;
+                DeviceId destination = (flags & HAS_DESTINATION) != 0 ? new DeviceId(readVarInt(in)) : null;
+                long wait = readVarLong(in);
+                long prepare = readVarLong(in);
+                long perform = readVarLong(in);
+                TraceEvent.Outcome outcome = TraceEvent.Outcome.values()[flags >>> OUTCOME_SHIFT];
+                events.add(new TraceEvent(submitted, component, source, destination, wait, prepare, perform, outcome));
+            }
+
+            events.sort(Comparator.comparingLong(TraceEvent::submitNanos));
+            return new Trace(devices, placement, events);
+        }
+    }
+
+    /**
+     * Records are appended in the order in which the calls finish, not in which they were issued.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long lastSubmitted;
+
+        public Writer(Path path, Map<DeviceId, Integer> deviceTotalSlots,
+                      Map<ComponentId, DeviceId> componentPlacement) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            this.lastSubmitted = 0;
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeVarInt(out, deviceTotalSlots.size());
+            for (Map.Entry<DeviceId, Integer> device : deviceTotalSlots.entrySet()) {
+                writeVarInt(out, device.getKey().hashCode());
+                writeVarInt(out, device.getValue());
+            }
+            writeVarInt(out, componentPlacement.size());
+            for (Map.Entry<ComponentId, DeviceId> component : componentPlacement.entrySet()) {
+                writeVarInt(out, component.getKey().hashCode());
+                writeVarInt(out, component.getValue().hashCode());
+            }
+        }
+
+        public synchronized void write(TraceEvent event) throws IOException {
+            int flags = event.outcome().ordinal() << OUTCOME_SHIFT;
+            if (event.source() != null)
+                flags |= HAS_SOURCE;
+            if (event.destination() != null)
+                flags |= HAS_DESTINATION;
+
+            out.writeByte(flags);
+            writeVarLong(out, event.submitNanos() - lastSubmitted);
+            lastSubmitted = event.submitNanos();
+            writeVarInt(out, event.componentId().hashCode());
+            if (event.source() != null)
+                writeVarInt(out, event.source().hashCode());
+            if (event.destination() != null)
+                writeVarInt(out, event.destination().hashCode());
+            writeVarLong(out, event.waitNanos());
+            writeVarLong(out, event.prepareNanos());
+            writeVarLong(out, event.performNanos());
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value);
+    }
+
+    /**
+     * Zigzag-encoded, so that small negative numbers (e.g. deltas) stay short.
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
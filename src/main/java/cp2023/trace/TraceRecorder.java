@@ -0,0 +1,196 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.*;
+import cp2023.solution.DestinationChoosingTransfer;
+import cp2023.solution.SlotAwareTransfer;
+import cp2023.solution.TenantTransfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wraps any StorageSystem and appends every execute() call to a trace file.
+ * The initial state of the system has to be given up front, so that the trace
+ * can be replayed against a fresh system later on.
+ */
+public class TraceRecorder implements StorageSystem, Closeable {
+    private final StorageSystem delegate;
+    private final TraceFile.Writer writer;
+    private final long start;
+
+    public TraceRecorder(StorageSystem delegate, Path path,
+                         Map<DeviceId, Integer> deviceTotalSlots,
+                         Map<ComponentId, DeviceId> componentPlacement) throws IOException {
+        this.delegate = delegate;
+        this.writer = new TraceFile.Writer(path, deviceTotalSlots, componentPlacement);
+        this.start = System.nanoTime();
+    }
+
+    @Override
+    public void execute(ComponentTransfer transfer) throws TransferException {
+        TimedTransfer timed = wrap(transfer);
+        TraceEvent.Outcome outcome = TraceEvent.Outcome.OTHER_FAILURE;
+        try {
+            delegate.execute(timed);
+            outcome = TraceEvent.Outcome.COMPLETED;
+        } catch (TransferException e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            record(timed, outcome);
+        }
+    }
+
+    /**
+     * Keeps whatever the system may ask of the transfer beyond the base interface.
+     */
+    private static TimedTransfer wrap(ComponentTransfer transfer) {
+        if (transfer instanceof DestinationChoosingTransfer choosing)
+            return transfer instanceof SlotAwareTransfer slotAware
+                    ? new TimedSlotAwareChoosingTransfer(choosing, slotAware) : new TimedChoosingTransfer(choosing);
+        if (transfer instanceof SlotAwareTransfer slotAware)
+            return new TimedSlotAwareTransfer(slotAware);
+        return new TimedTransfer(transfer);
+    }
+
+    private void record(TimedTransfer timed, TraceEvent.Outcome outcome) {
+        boolean completed = outcome == TraceEvent.Outcome.COMPLETED;
+        TraceEvent event = new TraceEvent(
+                timed.submitted - start,
+                timed.getComponentId(),
+                timed.getSourceDeviceId(),
+                timed.getDestinationDeviceId(),
+                completed ? timed.prepareStarted - timed.submitted : 0,
+                completed ? timed.performStarted - timed.prepareStarted : 0,
+                completed ? timed.performFinished - timed.performStarted : 0,
+                outcome);
+        try {
+            writer.write(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot record a trace event", e);
+        }
+    }
+
+    private static TraceEvent.Outcome outcomeOf(TransferException e) {
+        if (e instanceof IllegalTransferType)
+            return TraceEvent.Outcome.ILLEGAL_TRANSFER_TYPE;
+        if (e instanceof DeviceDoesNotExist)
+            return TraceEvent.Outcome.DEVICE_DOES_NOT_EXIST;
+        if (e instanceof ComponentAlreadyExists)
+            return TraceEvent.Outcome.COMPONENT_ALREADY_EXISTS;
+        if (e instanceof ComponentDoesNotExist)
+            return TraceEvent.Outcome.COMPONENT_DOES_NOT_EXIST;
+        if (e instanceof ComponentDoesNotNeedTransfer)
+            return TraceEvent.Outcome.COMPONENT_DOES_NOT_NEED_TRANSFER;
+        if (e instanceof ComponentIsBeingOperatedOn)
+            return TraceEvent.Outcome.COMPONENT_IS_BEING_OPERATED_ON;
+        return TraceEvent.Outcome.OTHER_FAILURE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static class TimedTransfer implements TenantTransfer {
+        private final ComponentTransfer transfer;
+        private final long submitted;
+        private long prepareStarted;
+        private long performStarted;
+        private long performFinished;
+
+        TimedTransfer(ComponentTransfer transfer) {
+            this.transfer = transfer;
+            this.submitted = System.nanoTime();
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return transfer.getComponentId();
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return transfer.getSourceDeviceId();
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return transfer.getDestinationDeviceId();
+        }
+
+        @Override
+        public String getTenantId() {
+            return transfer instanceof TenantTransfer tenantTransfer ? tenantTransfer.getTenantId() : null;
+        }
+
+        @Override
+        public void prepare() {
+            prepareStarted = System.nanoTime();
+            transfer.prepare();
+        }
+
+        @Override
+        public void perform() {
+            performStarted = System.nanoTime();
+            transfer.perform();
+            performFinished = System.nanoTime();
+        }
+    }
+
+    private static class TimedChoosingTransfer extends TimedTransfer implements DestinationChoosingTransfer {
+        private final DestinationChoosingTransfer transfer;
+
+        TimedChoosingTransfer(DestinationChoosingTransfer transfer) {
+            super(transfer);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public Set<DeviceId> getCandidateDestinationIds() {
+            return transfer.getCandidateDestinationIds();
+        }
+
+        @Override
+        public void setDestinationDeviceId(DeviceId destination) {
+            transfer.setDestinationDeviceId(destination);
+        }
+    }
+
+    private static final class TimedSlotAwareTransfer extends TimedTransfer implements SlotAwareTransfer {
+        private final SlotAwareTransfer transfer;
+
+        TimedSlotAwareTransfer(SlotAwareTransfer transfer) {
+            super(transfer);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void setSlots(int sourceSlot, int destinationSlot) {
+            transfer.setSlots(sourceSlot, destinationSlot);
+        }
+    }
+
+    private static final class TimedSlotAwareChoosingTransfer extends TimedChoosingTransfer
+            implements SlotAwareTransfer {
+        private final SlotAwareTransfer transfer;
+
+        TimedSlotAwareChoosingTransfer(DestinationChoosingTransfer choosing, SlotAwareTransfer transfer) {
+            super(choosing);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void setSlots(int sourceSlot, int destinationSlot) {
+            transfer.setSlots(sourceSlot, destinationSlot);
+        }
+    }
+}
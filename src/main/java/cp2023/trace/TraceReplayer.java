@@ -0,0 +1,171 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.TransferException;
+import cp2023.metrics.LatencySummary;
+import cp2023.solution.ConcurrentStorageSystem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Re-issues a recorded trace against any StorageSystem, keeping the recorded gaps between
+ * submissions and the recorded prepare() and perform() durations, all divided by the speed-up.
+ * Calls on different components overlap as they did when recorded, and a call which waits longer
+ * than it did delays the later calls on its component.
+ * <p>
+ * A single thread schedules the calls and hands each one to a worker when it is due. Workers are
+ * reused once their call returns, so there are only as many as calls were in flight at once, not
+ * one per component. A bounded number would not do, as calls may wait for each other's slots.
+ */
+public final class TraceReplayer {
+
+    private TraceReplayer() {
+    }
+
+    public static ReplayReport replay(Trace trace, StorageSystem system, double speedup) throws InterruptedException {
+        if (speedup <= 0)
+            throw new IllegalArgumentException("The speed-up has to be positive");
+
+        // Calls on a single component are replayed in the recorded order, each one no sooner
+        // than the previous one has returned, just like the callers which produced the trace.
+        Map<ComponentId, List<TraceEvent>> lanes = new LinkedHashMap<>();
+        for (TraceEvent event : trace.events())
+            lanes.computeIfAbsent(event.componentId(), c -> new ArrayList<>()).add(event);
+
+        LatencySummary waits = new LatencySummary();
+        LatencySummary latencies = new LatencySummary();
+        LatencySummary waitErrors = new LatencySummary();
+        AtomicInteger mismatched = new AtomicInteger();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("replay-scheduler"));
+        ExecutorService workers = Executors.newCachedThreadPool(daemon("replay-worker"));
+        CountDownLatch finished = new CountDownLatch(lanes.size());
+
+        long start = System.nanoTime();
+        for (List<TraceEvent> lane : lanes.values()) {
+            Runnable step = new Runnable() {
+                private int next = 0;
+
+                @Override
+                public void run() {
+                    // A call which throws anything but a TransferException ends its lane, like it would
+                    // have ended the caller.
+                    boolean more = false;
+                    try {
+                        replay(lane.get(next));
+                        more = ++next < lane.size();
+                    } finally {
+                        if (more)
+                            schedule(scheduler, workers, this, start + (long) (lane.get(next).submitNanos() / speedup));
+                        else
+                            finished.countDown();
+                    }
+                }
+
+                private void replay(TraceEvent event) {
+                    long submitted = start + (long) (event.submitNanos() / speedup);
+                    long issued = System.nanoTime();
+                    ReplayedTransfer transfer = new ReplayedTransfer(event, speedup);
+                    OptionalLong estimate = system instanceof ConcurrentStorageSystem estimating
+                            ? estimating.estimateWait(transfer) : OptionalLong.empty();
+                    boolean completed = true;
+                    try {
+                        system.execute(transfer);
+                    } catch (TransferException e) {
+                        completed = false;
+                    }
+
+                    // Measured from when the call should have been made, even if the replay was late.
+                    if (completed) {
+                        waits.record(transfer.prepareStarted - submitted);
+                        if (estimate.isPresent())
+                            waitErrors.record(Math.abs(estimate.getAsLong() - (transfer.prepareStarted - issued)));
+                        latencies.record(System.nanoTime() - submitted);
+                    }
+                    if (completed != (event.outcome() == TraceEvent.Outcome.COMPLETED))
+                        mismatched.incrementAndGet();
+                }
+            };
+            schedule(scheduler, workers, step, start + (long) (lane.get(0).submitNanos() / speedup));
+        }
+
+        finished.await();
+        scheduler.shutdown();
+        workers.shutdown();
+        return new ReplayReport(trace.events().size(), mismatched.get(), System.nanoTime() - start, waits, latencies,
+                waitErrors);
+    }
+
+    /**
+     * Hands the step to a worker at the deadline, or right away if it has passed.
+     */
+    private static void schedule(ScheduledExecutorService scheduler, ExecutorService workers, Runnable step,
+                                 long deadline) {
+        scheduler.schedule(() -> workers.execute(step), deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+            LockSupport.parkNanos(remaining);
+    }
+
+    private static final class ReplayedTransfer implements ComponentTransfer {
+        private final TraceEvent event;
+        private final double speedup;
+        private long prepareStarted;
+
+        ReplayedTransfer(TraceEvent event, double speedup) {
+            this.event = event;
+            this.speedup = speedup;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return event.componentId();
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return event.source();
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return event.destination();
+        }
+
+        @Override
+        public void prepare() {
+            prepareStarted = System.nanoTime();
+            parkUntil(prepareStarted + (long) (event.prepareNanos() / speedup));
+        }
+
+        @Override
+        public void perform() {
+            parkUntil(System.nanoTime() + (long) (event.performNanos() / speedup));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cp2023.backend;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.CoordinatedStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileBackendTest {
+    private static final int BLOB_SIZE = 10_000;
+
+    @Test
+    void shouldKeepBlobsIntactThroughCycleOfFullDevicesTest(@TempDir Path dir) throws Exception {
+        for (FileBackend.Mode mode : FileBackend.Mode.values()) {
+            // given
+            int devices = 3;
+            Map<DeviceId, Integer> capacities = new HashMap<>();
+            Map<ComponentId, DeviceId> placement = new HashMap<>();
+            for (int d = 0; d < devices; d++) {
+                capacities.put(new DeviceId(d), 2);
+                placement.put(new ComponentId(2 * d), new DeviceId(d));
+                placement.put(new ComponentId(2 * d + 1), new DeviceId(d));
+            }
+            ConcurrentStorageSystem system =
+                    (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+            // A buffer size which does not divide the blob size, so that the last chunk is shorter.
+            FileBackend.Options options = new FileBackend.Options(mode, 4096, mode != FileBackend.Mode.BUFFERED, false);
+
+            try (FileBackend backend = FileBackend.create(dir.resolve(mode.name()), capacities, BLOB_SIZE, options)) {
+                for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet())
+                    backend.write(entry.getValue(), system.slotOf(entry.getKey()).orElseThrow(), blob(entry.getKey()));
+
+                // when
+                List<Thread> threads = new ArrayList<>();
+                for (int d = 0; d < devices; d++) {
+                    ComponentTransfer move = backend.transfer(new ComponentId(2 * d), new DeviceId(d),
+                            new DeviceId((d + 1) % devices));
+                    threads.add(new Thread(() -> execute(system, move)));
+                }
+                for (Thread t : threads)
+                    t.start();
+                for (Thread t : threads)
+                    t.join(10_000);
+                ComponentId added = new ComponentId(100);
+                system.execute(backend.transfer(new ComponentId(1), new DeviceId(0), null));
+                system.execute(backend.transfer(added, null, new DeviceId(0)));
+
+                // then
+                for (Thread t : threads)
+                    assertFalse(t.isAlive(), "transfers got stuck");
+                for (int c = 0; c < 2 * devices; c++) {
+                    ComponentId comp = new ComponentId(c);
+                    if (c == 1)
+                        continue;
+                    DeviceId device = system.locate(comp).orElseThrow();
+                    assertEquals(blob(comp), backend.read(device, system.slotOf(comp).orElseThrow()), mode + " " + comp);
+                }
+                ByteBuffer addedBlob = backend.read(new DeviceId(0), system.slotOf(added).orElseThrow());
+                for (int i = 0; i < BLOB_SIZE; i++)
+                    assertEquals(FileBackend.fillByte(added), addedBlob.get(i));
+            }
+        }
+    }
+
+    @Test
+    void shouldReuseStagingOfFinishedTransfersTest(@TempDir Path dir) throws Exception {
+        // given
+        Map<DeviceId, Integer> capacities = Map.of(new DeviceId(0), 1, new DeviceId(1), 1);
+        ComponentId comp = new ComponentId(0);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                capacities, Map.of(comp, new DeviceId(0)));
+        FileBackend.Options options = new FileBackend.Options(FileBackend.Mode.TRANSFER_TO, 4096, false, false);
+
+        try (FileBackend backend = FileBackend.create(dir, capacities, BLOB_SIZE, options)) {
+            backend.write(new DeviceId(0), system.slotOf(comp).orElseThrow(), blob(comp));
+
+            // when
+            for (int i = 0; i < 10; i++) {
+                DeviceId src = new DeviceId(i % 2);
+                Thread t = new Thread(() -> execute(system, backend.transfer(comp, src, new DeviceId(1 - src.hashCode()))));
+                t.start();
+                t.join();
+            }
+
+            // then
+            assertEquals(1, backend.stagingAreas());
+            assertEquals(blob(comp), backend.read(new DeviceId(0), system.slotOf(comp).orElseThrow()));
+        }
+    }
+
+    @Test
+    void shouldRefuseTransfersOfSystemNotReportingSlotsTest(@TempDir Path dir) throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId moved = new ComponentId(1);
+        ComponentId resident = new ComponentId(2);
+        Map<DeviceId, Integer> capacities = Map.of(d1, 1, d2, 2);
+
+        try (CoordinatedStorageSystem system = StorageSystemFactory.newCoordinatedSystem(
+                capacities, Map.of(moved, d1, resident, d2));
+             FileBackend backend = FileBackend.create(dir, capacities, BLOB_SIZE, FileBackend.Options.DEFAULT)) {
+            backend.write(d1, 0, blob(moved));
+            backend.write(d2, 0, blob(resident));
+
+            // when, then
+            assertThrows(IllegalStateException.class, () -> system.execute(backend.transfer(moved, d1, d2)));
+            assertEquals(blob(resident), backend.read(d2, 0));
+        }
+    }
+
+    /**
+     * A blob which differs from that of every other component in this test at every position.
+     */
+    private static ByteBuffer blob(ComponentId component) {
+        ByteBuffer blob = ByteBuffer.allocate(BLOB_SIZE);
+        for (int i = 0; i < BLOB_SIZE; i++)
+            blob.put((byte) (component.hashCode() * 31 + i));
+        return blob.flip();
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cp2023.simulation;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.trace.Trace;
+import cp2023.trace.TraceEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulatorTest {
+    private static final DeviceId D1 = new DeviceId(1);
+    private static final DeviceId D2 = new DeviceId(2);
+    private static final ComponentId C1 = new ComponentId(1);
+    private static final ComponentId C2 = new ComponentId(2);
+
+    @Test
+    void shouldStartCycleOnceItClosesTest() {
+        // given
+        Trace trace = new Trace(Map.of(D1, 1, D2, 1), Map.of(C1, D1, C2, D2), List.of(
+                move(0, C1, D1, D2, 10, 20),
+                move(5, C2, D2, D1, 10, 20)));
+
+        // when
+        SimulationReport report = Simulator.run(trace);
+
+        // then
+        assertEquals(2, report.completed());
+        assertEquals(0, report.stuck());
+        assertEquals(5, report.waits().max());
+        assertEquals(35, report.virtualNanos());
+    }
+
+    @Test
+    void shouldHandSlotOfDeletedComponentToWaitingMoveTest() {
+        // given
+        Trace trace = new Trace(Map.of(D1, 1, D2, 1), Map.of(C1, D1, C2, D2), List.of(
+                move(0, C1, D1, D2, 10, 20),
+                move(5, C2, D2, null, 10, 20)));
+
+        // when
+        SimulationReport report = Simulator.run(trace);
+
+        // then
+        assertEquals(2, report.completed());
+        assertEquals(5, report.waits().max());
+        // The move starts preparing together with the delete, but performs only once the delete has been prepared.
+        assertEquals(35, report.latencies().max());
+    }
+
+    @Test
+    void shouldRejectMoveOfComponentMissingOnSourceTest() {
+        // given
+        Trace trace = new Trace(Map.of(D1, 1, D2, 1), Map.of(C1, D1), List.of(
+                move(0, C1, D2, D1, 10, 20)));
+
+        // when
+        SimulationReport report = Simulator.run(trace);
+
+        // then
+        assertEquals(1, report.rejected());
+        assertEquals(1, report.mismatched());
+        assertEquals(0, report.completed());
+    }
+
+    @Test
+    void shouldAgreeWithConcurrentSystemOnSmallTraceTest() throws Exception {
+        // given
+        Trace trace = Workloads.cycleHeavy(3, 2, 5, 1_000_000, 1_000_000, 2_000_000, 3);
+
+        // when
+        CrossCheck check = CrossCheck.run(trace);
+
+        // then
+        assertTrue(check.outcomesAgree(), check.toString());
+    }
+
+    private static TraceEvent move(long submitted, ComponentId comp, DeviceId src, DeviceId dst,
+                                   long prepare, long perform) {
+        return new TraceEvent(submitted, comp, src, dst, 0, prepare, perform, TraceEvent.Outcome.COMPLETED);
+    }
+}
@@ -0,0 +1,404 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.TransferException;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Races transfers against each other many times over and checks, from within the transfers,
+ * that no device ever physically holds more components than it has slots, and that no slot
+ * number is ever given to two components at once. A component leaves its source once prepare()
+ * returns and arrives at its destination when perform() starts.
+ * Seeds are fixed, so a failure can be rerun, although thread scheduling still varies.
+ * Every test runs against each engine; the state of the system itself is only checked where
+ * the engine exposes it.
+ */
+class ConcurrentStorageSystemStressTest {
+    private static final int ROUNDS = 200;
+    private static final long JOIN_MILLIS = 10_000;
+
+    private enum Engine {
+        CONCURRENT, COORDINATED;
+
+        StorageSystem newSystem(Map<DeviceId, Integer> capacities, Map<ComponentId, DeviceId> placement) {
+            return this == CONCURRENT ? StorageSystemFactory.newSystem(capacities, placement)
+                    : StorageSystemFactory.newCoordinatedSystem(capacities, placement);
+        }
+    }
+
+    @Test
+    void shouldReleaseRacingChainWithoutOverfillingTest() throws Exception {
+        int devices = 6;
+        for (Engine engine : Engine.values()) {
+            for (int round = 0; round < ROUNDS; round++) {
+                // given
+                Shadow shadow = new Shadow(devices, 1);
+                Map<ComponentId, DeviceId> placement = new HashMap<>();
+                for (int d = 0; d < devices; d++)
+                    placement.put(new ComponentId(d), new DeviceId(d));
+                StorageSystem system = shadow.newSystem(engine, placement);
+
+                // when
+                List<ComponentTransfer> transfers = new ArrayList<>();
+                for (int d = 0; d < devices - 1; d++)
+                    transfers.add(shadow.transfer(d, d, d + 1));
+                transfers.add(shadow.transfer(devices - 1, devices - 1, -1));
+                runConcurrently(system, transfers, round);
+                close(system);
+
+                // then
+                shadow.assertNoViolations();
+                assertEquals(0, shadow.occupied(0), engine.name());
+                for (int d = 1; d < devices; d++)
+                    assertEquals(new DeviceId(d), shadow.location(d - 1), engine.name());
+                if (system instanceof ConcurrentStorageSystem concurrent) {
+                    assertEquals(1, concurrent.freeSpace(new DeviceId(0)).orElseThrow());
+                    for (int d = 1; d < devices; d++)
+                        assertEquals(new DeviceId(d), concurrent.locate(new ComponentId(d - 1)).orElseThrow());
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldResolveCycleRacingWithSlotReleaseTest() throws Exception {
+        int devices = 4;
+        for (Engine engine : Engine.values()) {
+            for (int round = 0; round < ROUNDS; round++) {
+                // given
+                Shadow shadow = new Shadow(devices, 2);
+                Map<ComponentId, DeviceId> placement = new HashMap<>();
+                for (int c = 0; c < 2 * devices; c++)
+                    placement.put(new ComponentId(c), new DeviceId(c % devices));
+                StorageSystem system = shadow.newSystem(engine, placement);
+
+                // when
+                List<ComponentTransfer> transfers = new ArrayList<>();
+                for (int d = 0; d < devices; d++)
+                    transfers.add(shadow.transfer(d, d, (d + 1) % devices));
+                // Frees a slot on the first device while the cycle is being formed and lets an add take it.
+                transfers.add(shadow.transfer(devices, 0, -1));
+                transfers.add(shadow.transfer(2 * devices, -1, 0));
+                runConcurrently(system, transfers, round);
+                close(system);
+
+                // then
+                shadow.assertNoViolations();
+                for (int d = 0; d < devices; d++) {
+                    assertEquals(new DeviceId((d + 1) % devices), shadow.location(d), engine.name());
+                    assertEquals(2, shadow.occupied(d), engine.name());
+                }
+                assertEquals(new DeviceId(0), shadow.location(2 * devices), engine.name());
+                if (system instanceof ConcurrentStorageSystem concurrent) {
+                    for (int d = 0; d < devices; d++) {
+                        assertEquals(new DeviceId((d + 1) % devices), concurrent.locate(new ComponentId(d)).orElseThrow());
+                        assertEquals(0, concurrent.freeSpace(new DeviceId(d)).orElseThrow());
+                    }
+                    assertEquals(new DeviceId(0), concurrent.locate(new ComponentId(2 * devices)).orElseThrow());
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldAddAndDeleteOnFullDeviceTest() throws Exception {
+        int capacity = 3;
+        for (Engine engine : Engine.values()) {
+            for (int round = 0; round < ROUNDS; round++) {
+                // given
+                Shadow shadow = new Shadow(1, capacity);
+                Map<ComponentId, DeviceId> placement = new HashMap<>();
+                for (int c = 0; c < capacity; c++)
+                    placement.put(new ComponentId(c), new DeviceId(0));
+                StorageSystem system = shadow.newSystem(engine, placement);
+
+                // when
+                List<ComponentTransfer> transfers = new ArrayList<>();
+                for (int c = 0; c < capacity; c++) {
+                    transfers.add(shadow.transfer(c, 0, -1));
+                    transfers.add(shadow.transfer(capacity + c, -1, 0));
+                }
+                runConcurrently(system, transfers, round);
+                close(system);
+
+                // then
+                shadow.assertNoViolations();
+                assertEquals(capacity, shadow.occupied(0), engine.name());
+                if (system instanceof ConcurrentStorageSystem concurrent) {
+                    assertEquals(0, concurrent.freeSpace(new DeviceId(0)).orElseThrow());
+                    assertEquals(capacity, concurrent.snapshot().devices().get(new DeviceId(0)).components().size());
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepCapacityInvariantsUnderRandomTrafficTest() throws Exception {
+        int devices = 5;
+        int capacity = 3;
+        int operations = 300;
+        for (Engine engine : Engine.values()) {
+            // given
+            Shadow shadow = new Shadow(devices, capacity);
+            Map<ComponentId, DeviceId> placement = new HashMap<>();
+            for (int c = 0; c < devices * capacity - 2; c++)
+                placement.put(new ComponentId(c), new DeviceId(c % devices));
+            StorageSystem system = shadow.newSystem(engine, placement);
+            Queue<String> snapshotViolations = new ConcurrentLinkedQueue<>();
+            Thread reader = new Thread(() -> {
+                if (!(system instanceof ConcurrentStorageSystem concurrent))
+                    return;
+                long lastVersion = -1;
+                while (!Thread.currentThread().isInterrupted()) {
+                    StorageSnapshot snapshot = concurrent.snapshot();
+                    if (snapshot.version() < lastVersion)
+                        snapshotViolations.add("version went back to " + snapshot.version());
+                    lastVersion = snapshot.version();
+                    for (StorageSnapshot.DeviceSnapshot d : snapshot.devices().values()) {
+                        if (d.freeSpace() < 0 || d.freeSpace() > d.capacity())
+                            snapshotViolations.add(d.id() + " has " + d.freeSpace() + " free slots");
+                    }
+                }
+            });
+
+            // when
+            List<Thread> threads = new ArrayList<>();
+            for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet()) {
+                int component = entry.getKey().hashCode();
+                threads.add(new Thread(() -> {
+                    Random random = new Random(component);
+                    int src = entry.getValue().hashCode();
+                    for (int i = 0; i < operations; i++) {
+                        int dst = random.nextInt(devices);
+                        if (dst == src)
+                            dst = -1;
+                        execute(system, shadow.transfer(component, src, dst));
+                        // A deleted component comes back on a random device.
+                        src = dst == -1 ? random.nextInt(devices) : dst;
+                        if (dst == -1)
+                            execute(system, shadow.transfer(component, -1, src));
+                    }
+                    // Deleting never waits and frees the slots other threads may still be waiting for.
+                    execute(system, shadow.transfer(component, src, -1));
+                }));
+            }
+            reader.start();
+            for (Thread t : threads)
+                t.start();
+            for (Thread t : threads)
+                t.join(JOIN_MILLIS * 3);
+            reader.interrupt();
+            reader.join();
+
+            // then
+            for (Thread t : threads)
+                assertFalse(t.isAlive(), engine + " transfers got stuck" + waitsFor(system));
+            shadow.assertNoViolations();
+            assertEquals(List.of(), List.copyOf(snapshotViolations));
+            if (system instanceof ConcurrentStorageSystem concurrent) {
+                for (int d = 0; d < devices; d++)
+                    assertEquals(capacity, concurrent.freeSpace(new DeviceId(d)).orElseThrow());
+                assertEquals(0, concurrent.activeTransferCount());
+                assertEquals(0, concurrent.waitingTransferCount());
+            }
+            // All slots are free again, so as many adds as there are slots go through.
+            List<ComponentTransfer> adds = new ArrayList<>();
+            for (int c = 0; c < devices * capacity; c++)
+                adds.add(shadow.transfer(c, -1, c % devices));
+            runConcurrently(system, adds, 0);
+            close(system);
+            shadow.assertNoViolations();
+        }
+    }
+
+    /**
+     * Starts every transfer on its own thread, all at once, in an order shuffled by the seed.
+     */
+    private static void runConcurrently(StorageSystem system, List<ComponentTransfer> transfers,
+                                        long seed) throws Exception {
+        List<ComponentTransfer> shuffled = new ArrayList<>(transfers);
+        Collections.shuffle(shuffled, new Random(seed));
+        CyclicBarrier start = new CyclicBarrier(shuffled.size());
+        List<Thread> threads = new ArrayList<>();
+        for (ComponentTransfer transfer : shuffled) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                execute(system, transfer);
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join(JOIN_MILLIS);
+        for (Thread t : threads)
+            assertFalse(t.isAlive(), "transfers got stuck" + waitsFor(system));
+    }
+
+    private static void execute(StorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String waitsFor(StorageSystem system) throws InterruptedException {
+        return system instanceof ConcurrentStorageSystem concurrent ? ": " + concurrent.waitsForGraph(0).toJson() : "";
+    }
+
+    private static void close(StorageSystem system) throws Exception {
+        if (system instanceof AutoCloseable closeable)
+            closeable.close();
+    }
+
+    /**
+     * Physical occupancy of the devices as seen by the transfers themselves. Slot numbers are
+     * only checked for engines which report them.
+     */
+    private static final class Shadow {
+        private final int devices;
+        private final int capacity;
+        private final AtomicIntegerArray occupied;
+        private final ConcurrentMap<ComponentId, DeviceId> locations;
+        // Number of the component in every slot of every device plus one, as reported to the transfers.
+        private final AtomicIntegerArray slots;
+        private final Queue<String> violations;
+        private boolean checkSlots;
+
+        Shadow(int devices, int capacity) {
+            this.devices = devices;
+            this.capacity = capacity;
+            this.occupied = new AtomicIntegerArray(devices);
+            this.locations = new ConcurrentHashMap<>();
+            this.slots = new AtomicIntegerArray(devices * capacity);
+            this.violations = new ConcurrentLinkedQueue<>();
+        }
+
+        StorageSystem newSystem(Engine engine, Map<ComponentId, DeviceId> placement) {
+            Map<DeviceId, Integer> capacities = new HashMap<>();
+            for (int d = 0; d < devices; d++)
+                capacities.put(new DeviceId(d), capacity);
+            placement.values().forEach(d -> occupied.incrementAndGet(d.hashCode()));
+            locations.putAll(placement);
+            StorageSystem system = engine.newSystem(capacities, placement);
+            if (system instanceof ConcurrentStorageSystem concurrent) {
+                checkSlots = true;
+                placement.forEach((component, device) ->
+                        take(component, device, concurrent.slotOf(component).orElseThrow()));
+            }
+            return system;
+        }
+
+        /**
+         * @param source      -1 for an add.
+         * @param destination -1 for a delete.
+         */
+        ComponentTransfer transfer(int component, int source, int destination) {
+            return new ShadowTransfer(new ComponentId(component), source == -1 ? null : new DeviceId(source),
+                    destination == -1 ? null : new DeviceId(destination), this);
+        }
+
+        int occupied(int device) {
+            return occupied.get(device);
+        }
+
+        DeviceId location(int component) {
+            return locations.get(new ComponentId(component));
+        }
+
+        void left(ComponentId component, DeviceId device, int slot) {
+            if (device == null)
+                return;
+            if (occupied.decrementAndGet(device.hashCode()) < 0)
+                violations.add(device + " holds a negative number of components");
+            locations.remove(component, device);
+            if (checkSlots && (slot < 0 || slot >= capacity
+                    || !slots.compareAndSet(device.hashCode() * capacity + slot, component.hashCode() + 1, 0)))
+                violations.add(component + " left slot " + slot + " of " + device + " it was not in");
+        }
+
+        void arrived(ComponentId component, DeviceId device, int slot) {
+            if (device == null)
+                return;
+            if (occupied.incrementAndGet(device.hashCode()) > capacity)
+                violations.add(component + " arrived at a full " + device);
+            locations.put(component, device);
+            if (checkSlots)
+                take(component, device, slot);
+        }
+
+        private void take(ComponentId component, DeviceId device, int slot) {
+            if (slot < 0 || slot >= capacity || !slots.compareAndSet(device.hashCode() * capacity + slot, 0, component.hashCode() + 1))
+                violations.add(component + " arrived at slot " + slot + " of " + device + " which is not free");
+        }
+
+        void assertNoViolations() {
+            assertEquals(List.of(), List.copyOf(violations));
+        }
+    }
+
+    private static final class ShadowTransfer implements SlotAwareTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final DeviceId dstDevId;
+        private final Shadow shadow;
+        private int sourceSlot;
+        private int destinationSlot;
+
+        ShadowTransfer(ComponentId compId, DeviceId srcDevId, DeviceId dstDevId, Shadow shadow) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.dstDevId = dstDevId;
+            this.shadow = shadow;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return dstDevId;
+        }
+
+        @Override
+        public void setSlots(int sourceSlot, int destinationSlot) {
+            this.sourceSlot = sourceSlot;
+            this.destinationSlot = destinationSlot;
+        }
+
+        @Override
+        public void prepare() {
+            Thread.yield();
+            shadow.left(compId, srcDevId, sourceSlot);
+        }
+
+        @Override
+        public void perform() {
+            shadow.arrived(compId, dstDevId, destinationSlot);
+            Thread.yield();
+        }
+    }
+}
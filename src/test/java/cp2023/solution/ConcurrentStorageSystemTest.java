@@ -0,0 +1,1099 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.ComponentAlreadyExists;
+import cp2023.exceptions.DeviceDoesNotExist;
+import cp2023.exceptions.TransferException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ConcurrentStorageSystemTest {
+
+    @Test
+    void shouldChooseCandidateWithFreeSlotTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        DeviceId d3 = new DeviceId(3);
+        Map<DeviceId, Integer> devices = new HashMap<>();
+        devices.put(d1, 1);
+        devices.put(d2, 1);
+        devices.put(d3, 2);
+
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        Map<ComponentId, DeviceId> components = new HashMap<>();
+        components.put(c1, d1);
+        components.put(c2, d2);
+
+        StorageSystem system = StorageSystemFactory.newSystem(devices, components);
+        ChoosingTransfer transfer = new ChoosingTransfer(c1, d1, Set.of(d1, d2, d3));
+
+        // when
+        system.execute(transfer);
+
+        // then
+        assertEquals(d3, transfer.getDestinationDeviceId());
+        assertEquals(d3, transfer.destinationSeenInPrepare);
+    }
+
+    @Test
+    void shouldRejectUnknownCandidateTest() {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        StorageSystem system = StorageSystemFactory.newSystem(Map.of(d1, 1), Map.of());
+
+        // then
+        assertThrows(DeviceDoesNotExist.class,
+                () -> system.execute(new ChoosingTransfer(new ComponentId(1), null, Set.of(d1, new DeviceId(2)))));
+    }
+
+    @Test
+    void shouldRejectAddingComponentPresentOnCandidateTest() {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        StorageSystem system = StorageSystemFactory.newSystem(Map.of(d1, 1, d2, 1), Map.of(c1, d2));
+
+        // then
+        assertThrows(ComponentAlreadyExists.class,
+                () -> system.execute(new ChoosingTransfer(c1, null, Set.of(d1, d2))));
+    }
+
+    @Test
+    void shouldReportPlacementAfterMoveTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2, d2, 2), Map.of(c1, d1, c2, d1));
+        long versionBefore = system.snapshot().version();
+
+        // when
+        system.execute(new ChoosingTransfer(c1, d1, Set.of(d2)));
+
+        // then
+        assertEquals(d2, system.locate(c1).orElseThrow());
+        assertEquals(1, system.freeSpace(d1).orElseThrow());
+        assertEquals(1, system.freeSpace(d2).orElseThrow());
+        assertTrue(system.locate(new ComponentId(3)).isEmpty());
+        assertTrue(system.freeSpace(new DeviceId(3)).isEmpty());
+
+        StorageSnapshot snapshot = system.snapshot();
+        assertTrue(snapshot.version() > versionBefore);
+        assertEquals(Set.of(c2), snapshot.devices().get(d1).components());
+        assertEquals(Set.of(c1), snapshot.devices().get(d2).components());
+        assertEquals(1, snapshot.devices().get(d2).freeSpace());
+    }
+
+    @Test
+    void shouldPublishPlacementEventsInOrderTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2, d2, 1), Map.of());
+        // Published to nobody, but it still takes a sequence number.
+        system.execute(new EmptyMove(new ComponentId(0), null, d1));
+        List<PlacementEvent> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(3);
+        system.placementEvents().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(PlacementEvent item) {
+                events.add(item);
+                received.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        // when
+        system.execute(new ChoosingTransfer(c1, null, Set.of(d1)));
+        system.execute(new ChoosingTransfer(c1, d1, Set.of(d2)));
+        system.execute(new ChoosingTransfer(c1, d2, Set.of()));
+
+        // then
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(
+                new PlacementEvent(2, PlacementEvent.Type.ADDED, c1, null, d1),
+                new PlacementEvent(3, PlacementEvent.Type.MOVED, c1, d1, d2),
+                new PlacementEvent(4, PlacementEvent.Type.REMOVED, c1, d2, null)), events);
+    }
+
+    @Test
+    void shouldHoldBackTransfersOverTenantCapTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2), Map.of());
+        system.configureTenant("bulk", 1, 1);
+        CountDownLatch firstPrepared = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch secondPrepared = new CountDownLatch(1);
+        Thread first = new Thread(() -> execute(system, new BlockingAdd("bulk", new ComponentId(1), d1,
+                firstPrepared, releaseFirst)));
+        Thread second = new Thread(() -> execute(system, new BlockingAdd("bulk", new ComponentId(2), d1,
+                secondPrepared, new CountDownLatch(0))));
+
+        // when
+        first.start();
+        assertTrue(firstPrepared.await(10, TimeUnit.SECONDS));
+        second.start();
+
+        // then
+        assertFalse(secondPrepared.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, system.waitingTransferCount());
+
+        releaseFirst.countDown();
+        assertTrue(secondPrepared.await(10, TimeUnit.SECONDS));
+        first.join();
+        second.join();
+        assertEquals(2, system.tenantWaits().get("bulk").count());
+        assertEquals(0, system.freeSpace(d1).orElseThrow());
+    }
+
+    @Test
+    void shouldHandSlotsToTenantsInTagOrderPastDeepBacklogTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId resident = new ComponentId(0);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1), Map.of(resident, d1));
+        system.configureTenant("light", 100, Integer.MAX_VALUE);
+        int backlog = 20;
+        List<CountDownLatch> bulkPrepared = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < backlog; i++) {
+            CountDownLatch prepared = new CountDownLatch(1);
+            bulkPrepared.add(prepared);
+            BlockingAdd add = new BlockingAdd("bulk", new ComponentId(i + 1), d1, prepared, new CountDownLatch(0));
+            threads.add(new Thread(() -> execute(system, add)));
+        }
+        CountDownLatch lightPrepared = new CountDownLatch(1);
+        ComponentId light = new ComponentId(backlog + 1);
+        threads.add(new Thread(() -> execute(system, new BlockingAdd("light", light, d1,
+                lightPrepared, new CountDownLatch(0)))));
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).start();
+            while (system.waitingTransferCount() <= i)
+                Thread.sleep(1);
+        }
+
+        // when
+        system.execute(new EmptyMove(resident, d1, null));
+
+        // then
+        assertTrue(lightPrepared.await(10, TimeUnit.SECONDS));
+        threads.get(backlog).join();
+        assertEquals(backlog, system.waitingTransferCount());
+
+        system.execute(new EmptyMove(light, d1, null));
+        assertTrue(bulkPrepared.get(0).await(10, TimeUnit.SECONDS));
+        threads.get(0).join();
+        assertEquals(backlog - 1, system.waitingTransferCount());
+        assertEquals(d1, system.locate(new ComponentId(1)).orElseThrow());
+
+        for (int i = 1; i < backlog; i++) {
+            system.execute(new EmptyMove(new ComponentId(i), d1, null));
+            threads.get(i).join();
+        }
+        assertEquals(0, system.waitingTransferCount());
+    }
+
+    @Test
+    void shouldCompleteThrottledCycleOneTransferAtATimeTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1, d2, 1), Map.of(c1, d1, c2, d2));
+        system.throttle().limitDevice(d1, 1);
+        system.throttle().limitDevice(d2, 1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Thread first = new Thread(() -> execute(system, new CountingMove(c1, d1, d2, inFlight, maxInFlight)));
+        Thread second = new Thread(() -> execute(system, new CountingMove(c2, d2, d1, inFlight, maxInFlight)));
+
+        // when
+        first.start();
+        second.start();
+        first.join(10_000);
+        second.join(10_000);
+
+        // then
+        assertFalse(first.isAlive());
+        assertFalse(second.isAlive());
+        assertEquals(1, maxInFlight.get());
+        assertEquals(d2, system.locate(c1).orElseThrow());
+        assertEquals(d1, system.locate(c2).orElseThrow());
+    }
+
+    @Test
+    void shouldNotAllocateWhenMovingBetweenFreeDevicesTest() throws Exception {
+        // given
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        StorageSystem system = StorageSystemFactory.newSystem(Map.of(d1, 1, d2, 1), Map.of(c1, d1));
+        EmptyMove there = new EmptyMove(c1, d1, d2);
+        EmptyMove back = new EmptyMove(c1, d2, d1);
+        int moves = 20_000;
+        for (int i = 0; i < moves; i++) {
+            system.execute(there);
+            system.execute(back);
+        }
+
+        // when
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < moves; i++) {
+            system.execute(there);
+            system.execute(back);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        // then
+        assertTrue(allocated < moves, "allocated " + allocated + " bytes in " + 2 * moves + " moves");
+    }
+
+    @Test
+    void shouldClearWaitsWhenSaturatedDeviceIsGrownTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2), Map.of(new ComponentId(1), d1, new ComponentId(2), d1));
+        int adds = 8;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 3; c < 3 + adds; c++) {
+            ComponentId component = new ComponentId(c);
+            threads.add(new Thread(() -> execute(system, new EmptyMove(component, null, d1))));
+        }
+        for (Thread t : threads)
+            t.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (system.waitingTransferCount() < adds && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertEquals(adds, system.waitingTransferCount());
+
+        // when
+        long start = System.nanoTime();
+        system.resizeDevice(d1, 2 + adds);
+        for (Thread t : threads)
+            t.join(10_000);
+        long cleared = System.nanoTime() - start;
+
+        // then
+        assertEquals(0, system.waitingTransferCount());
+        assertEquals(0, system.freeSpace(d1).orElseThrow());
+        assertEquals(2 + adds, system.snapshot().devices().get(d1).components().size());
+        assertTrue(cleared < TimeUnit.SECONDS.toNanos(1), "waits cleared after " + cleared + "ns");
+    }
+
+    @Test
+    void shouldEvacuateAndRemoveDrainedDeviceTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2), Map.of(c1, d1, c2, d1));
+        system.addDevice(d2, 3);
+
+        // when
+        system.drainAndRemoveDevice(d1, EmptyMove::new);
+
+        // then
+        assertEquals(d2, system.locate(c1).orElseThrow());
+        assertEquals(d2, system.locate(c2).orElseThrow());
+        assertTrue(system.freeSpace(d1).isEmpty());
+        assertEquals(Set.of(d2), system.snapshot().devices().keySet());
+        assertThrows(DeviceDoesNotExist.class, () -> system.execute(new EmptyMove(new ComponentId(3), null, d1)));
+    }
+
+    @Test
+    void shouldEvacuateDrainedDeviceConcurrentlyTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2, d2, 2), Map.of(c1, d1, c2, d1));
+        // Neither move finishes preparing until both have started.
+        CountDownLatch bothPreparing = new CountDownLatch(2);
+        Thread drain = new Thread(() -> {
+            try {
+                system.drainAndRemoveDevice(d1, (c, src, dst) -> new LatchedMove(c, src, dst, bothPreparing, bothPreparing));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // when
+        drain.start();
+        drain.join(5000);
+
+        // then
+        assertFalse(drain.isAlive(), "the components were evacuated one after another");
+        assertEquals(d2, system.locate(c1).orElseThrow());
+        assertEquals(d2, system.locate(c2).orElseThrow());
+    }
+
+    @Test
+    void shouldRemoveDrainedDeviceOnceClientsEmptyItTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId c1 = new ComponentId(1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1), Map.of(c1, d1));
+        Thread drain = new Thread(() -> {
+            try {
+                system.drainAndRemoveDevice(d1, null);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // when
+        drain.start();
+        // Nothing else holds devicesLock, so the drain can only be waiting for progress.
+        while (drain.getState() != Thread.State.WAITING)
+            Thread.sleep(1);
+        boolean removedEarly = !system.snapshot().devices().containsKey(d1);
+        system.execute(new EmptyMove(c1, d1, null));
+        drain.join(5000);
+
+        // then
+        assertFalse(removedEarly);
+        assertFalse(drain.isAlive(), "the drain was not woken up");
+        assertTrue(system.freeSpace(d1).isEmpty());
+    }
+
+    @Test
+    void shouldSwapHotComponentOntoFastDeviceTest() throws Exception {
+        // given
+        DeviceId fast = new DeviceId(1);
+        DeviceId standard = new DeviceId(2);
+        ComponentId cold = new ComponentId(1);
+        ComponentId hot = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(fast, 1, standard, 2), Map.of(cold, fast, hot, standard));
+        system.setTier(fast, DeviceTier.FAST);
+        TieredCache cache = new TieredCache(system, EmptyMove::new, 1000);
+        cache.recordAccess(cold);
+        for (int i = 0; i < 10; i++)
+            cache.recordAccess(hot);
+
+        // when
+        cache.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!system.locate(hot).equals(Optional.of(fast)) && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        cache.stop();
+
+        // then
+        assertEquals(fast, system.locate(hot).orElseThrow());
+        assertEquals(standard, system.locate(cold).orElseThrow());
+        assertEquals(1, cache.evictions());
+        assertEquals(1, cache.promotions());
+        assertEquals(1.0 / 11, cache.hitRate(), 1e-9);
+    }
+
+    @Test
+    void shouldMigrateSwapThroughSpareSlotWhenCycleExceedsBoundTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        DeviceId spare = new DeviceId(3);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1, d2, 1, spare, 1), Map.of(c1, d1, c2, d2));
+
+        // when
+        Migration migration = system.migrateTo(Map.of(c1, d2, c2, d1), EmptyMove::new, 1);
+        assertTrue(migration.await(5, TimeUnit.SECONDS));
+
+        // then
+        assertEquals(d2, system.locate(c1).orElseThrow());
+        assertEquals(d1, system.locate(c2).orElseThrow());
+        assertEquals(3, migration.completedMoves());
+        assertEquals(1, migration.hops());
+        assertEquals(0, migration.failedMoves());
+        assertEquals(1, system.freeSpace(spare).orElseThrow());
+        assertThrows(IllegalArgumentException.class,
+                () -> system.migrateTo(Map.of(c1, spare, c2, spare), EmptyMove::new, 1));
+    }
+
+    @Test
+    void shouldFinishMigrationWhenMoveThrowsTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId broken = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2, d2, 2), Map.of(broken, d1, c2, d1));
+        MoveFactory moves = (component, source, destination) -> {
+            if (component.equals(broken))
+                throw new IllegalStateException("no move for " + component);
+            return new EmptyMove(component, source, destination);
+        };
+
+        // when
+        Migration migration = system.migrateTo(Map.of(broken, d2, c2, d2), moves, 2);
+
+        // then
+        assertTrue(migration.await(5, TimeUnit.SECONDS), "the migration got stuck");
+        assertEquals(1, migration.failedMoves());
+        assertEquals(1, migration.completedMoves());
+        assertEquals(d1, system.locate(broken).orElseThrow());
+        assertEquals(d2, system.locate(c2).orElseThrow());
+    }
+
+    @Test
+    void shouldPreferDestinationInSameRackTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId sameRack = new DeviceId(2);
+        DeviceId otherRack = new DeviceId(3);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        Topology topology = new Topology(Map.of(
+                d1, new Topology.Location("z1", "r1"),
+                sameRack, new Topology.Location("z1", "r1"),
+                otherRack, new Topology.Location("z1", "r2")));
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2, sameRack, 2, otherRack, 2), Map.of(c1, d1, c2, sameRack), topology);
+
+        // when
+        ChoosingTransfer transfer = new ChoosingTransfer(c1, d1, Set.of(sameRack, otherRack));
+        system.execute(transfer);
+
+        // then
+        assertEquals(sameRack, transfer.getDestinationDeviceId());
+        assertEquals(1, system.localTransferCount());
+        assertEquals(0, system.remoteTransferCount());
+    }
+
+    @Test
+    void shouldAdmitGroupOnlyWhenSlotsForAllMembersAreFreeTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ComponentId g1 = new ComponentId(3);
+        ComponentId g2 = new ComponentId(4);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 2), Map.of(c1, d1, c2, d1));
+        List<GroupResult> results = Collections.synchronizedList(new ArrayList<>());
+        Thread group = new Thread(() -> {
+            try {
+                results.add(system.executeGroup(List.of(new EmptyMove(g1, null, d1), new EmptyMove(g2, null, d1))));
+            } catch (TransferException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // when
+        group.start();
+        while (system.activeTransferCount() < 2)
+            Thread.sleep(1);
+        system.execute(new EmptyMove(c1, d1, null));
+        Thread.sleep(20);
+        boolean admittedEarly = system.locate(g1).isPresent() || system.locate(g2).isPresent();
+        system.execute(new EmptyMove(c2, d1, null));
+        group.join(5000);
+
+        // then
+        assertFalse(admittedEarly);
+        assertEquals(d1, system.locate(g1).orElseThrow());
+        assertEquals(d1, system.locate(g2).orElseThrow());
+        assertEquals(2, results.get(0).transfers());
+        assertTrue(results.get(0).admissionWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, system.freeSpace(d1).orElseThrow());
+    }
+
+    @Test
+    void shouldAdmitGroupClosingCycleWithWaitingTransferTest() throws Exception {
+        for (boolean groupFirst : new boolean[]{false, true}) {
+            // given
+            DeviceId a = new DeviceId(1);
+            DeviceId b = new DeviceId(2);
+            ComponentId onA = new ComponentId(1);
+            ComponentId onB = new ComponentId(2);
+            ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                    Map.of(a, 1, b, 1), Map.of(onA, a, onB, b));
+            Thread group = new Thread(() -> {
+                try {
+                    system.executeGroup(List.of(new EmptyMove(onA, a, b)));
+                } catch (TransferException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread single = new Thread(() -> execute(system, new EmptyMove(onB, b, a)));
+
+            // when
+            (groupFirst ? group : single).start();
+            while (system.activeTransferCount() < 1)
+                Thread.sleep(1);
+            (groupFirst ? single : group).start();
+            group.join(5000);
+            single.join(5000);
+
+            // then
+            assertFalse(group.isAlive(), "the group got stuck");
+            assertFalse(single.isAlive(), "the transfer waiting for the group got stuck");
+            assertEquals(b, system.locate(onA).orElseThrow());
+            assertEquals(a, system.locate(onB).orElseThrow());
+        }
+    }
+
+    @Test
+    void shouldRunGroupFollowingItsOwnMembersTest() throws Exception {
+        // given
+        DeviceId a = new DeviceId(1);
+        DeviceId b = new DeviceId(2);
+        DeviceId c = new DeviceId(3);
+        ComponentId onA = new ComponentId(1);
+        ComponentId onB = new ComponentId(2);
+        ComponentId onC = new ComponentId(3);
+        ComponentId added = new ComponentId(4);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(a, 1, b, 1, c, 2), Map.of(onA, a, onB, b, onC, c));
+
+        // when
+        // A swap of a and b, and a chain into c, which has one free slot, through b and a.
+        GroupResult swap = system.executeGroup(List.of(new EmptyMove(onA, a, b), new EmptyMove(onB, b, a)));
+        GroupResult chain = system.executeGroup(List.of(new EmptyMove(added, null, b),
+                new EmptyMove(onA, b, a), new EmptyMove(onB, a, c)));
+
+        // then
+        assertEquals(2, swap.transfers());
+        assertEquals(3, chain.transfers());
+        assertEquals(b, system.locate(added).orElseThrow());
+        assertEquals(a, system.locate(onA).orElseThrow());
+        assertEquals(c, system.locate(onB).orElseThrow());
+        assertEquals(0, system.freeSpace(c).orElseThrow());
+        assertEquals(0, system.activeTransferCount());
+    }
+
+    @Test
+    void shouldRunGroupMembersConcurrentlyTest() throws Exception {
+        // given
+        DeviceId a = new DeviceId(1);
+        DeviceId b = new DeviceId(2);
+        ComponentId onA = new ComponentId(1);
+        ComponentId onB = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(a, 2, b, 2), Map.of(onA, a, onB, b));
+        // Neither member finishes preparing until both have started.
+        CountDownLatch bothPreparing = new CountDownLatch(2);
+        Thread group = new Thread(() -> {
+            try {
+                system.executeGroup(List.of(new LatchedMove(onA, a, b, bothPreparing, bothPreparing),
+                        new LatchedMove(onB, b, a, bothPreparing, bothPreparing)));
+            } catch (TransferException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // when
+        group.start();
+        group.join(5000);
+
+        // then
+        assertFalse(group.isAlive(), "the members ran one after another");
+        assertEquals(b, system.locate(onA).orElseThrow());
+        assertEquals(a, system.locate(onB).orElseThrow());
+    }
+
+    @Test
+    void shouldFinishEveryMemberOfGroupWithThrowingMemberTest() throws Exception {
+        // given
+        DeviceId a = new DeviceId(1);
+        DeviceId b = new DeviceId(2);
+        ComponentId onA = new ComponentId(1);
+        ComponentId added = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(a, 1, b, 1), Map.of(onA, a));
+
+        // when
+        // The add follows the failing move into its slot on a.
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> system.executeGroup(
+                List.of(new ThrowingMove(onA, a, b), new EmptyMove(added, null, a))));
+
+        // then
+        assertEquals("prepare failed", failure.getMessage());
+        assertEquals(0, system.activeTransferCount());
+        assertEquals(a, system.locate(added).orElseThrow());
+        assertEquals(b, system.locate(onA).orElseThrow());
+        assertEquals(0, system.freeSpace(a).orElseThrow());
+        assertEquals(0, system.freeSpace(b).orElseThrow());
+        system.execute(new EmptyMove(onA, b, null));
+        system.execute(new EmptyMove(added, a, b));
+        assertEquals(b, system.locate(added).orElseThrow());
+    }
+
+    @Test
+    void shouldRunNoMemberOfGroupWithInvalidTransferTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId added = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 3), Map.of(c1, d1));
+
+        // when
+        assertThrows(ComponentAlreadyExists.class, () -> system.executeGroup(
+                List.of(new EmptyMove(added, null, d1), new EmptyMove(c1, null, d1))));
+        assertThrows(IllegalArgumentException.class, () -> system.executeGroup(
+                List.of(new EmptyMove(added, null, d1), new EmptyMove(added, null, d1))));
+
+        // then
+        assertTrue(system.locate(added).isEmpty());
+        assertEquals(0, system.activeTransferCount());
+        system.execute(new EmptyMove(added, null, d1));
+        assertEquals(d1, system.locate(added).orElseThrow());
+    }
+
+    @Test
+    void shouldStartLongestChainOnFreedSlotTest() throws Exception {
+        // given
+        DeviceId a = new DeviceId(1);
+        DeviceId b = new DeviceId(2);
+        DeviceId c = new DeviceId(3);
+        DeviceId d = new DeviceId(4);
+        ComponentId onA = new ComponentId(1);
+        ComponentId onB = new ComponentId(2);
+        ComponentId onC = new ComponentId(3);
+        ComponentId onD = new ComponentId(4);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(a, 1, b, 1, c, 1, d, 1), Map.of(onA, a, onB, b, onC, c, onD, d));
+        system.setReleasePolicy(ReleasePolicy.LONGEST_CHAIN);
+        Set<ComponentId> prepared = Collections.synchronizedSet(new HashSet<>());
+        // The first one to wait for a leads nowhere, the second one is followed by a move waiting for b.
+        Thread fromD = new Thread(() -> execute(system, new RecordingMove(onD, d, a, prepared)));
+        Thread fromB = new Thread(() -> execute(system, new RecordingMove(onB, b, a, prepared)));
+        Thread fromC = new Thread(() -> execute(system, new RecordingMove(onC, c, b, prepared)));
+        for (Thread t : List.of(fromD, fromB, fromC)) {
+            int waiting = system.waitingTransferCount();
+            t.start();
+            while (system.waitingTransferCount() == waiting)
+                Thread.sleep(1);
+        }
+
+        // when
+        system.execute(new EmptyMove(onA, a, null));
+        fromB.join(10_000);
+        fromC.join(10_000);
+
+        // then
+        assertEquals(Set.of(onB, onC), prepared);
+        assertEquals(1, system.waitingTransferCount());
+
+        system.execute(new EmptyMove(onB, a, null));
+        fromD.join(10_000);
+        assertEquals(a, system.locate(onD).orElseThrow());
+    }
+
+    @Test
+    void shouldGiveFreedSlotToLeaseBeforeEarlierWaiterTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId waiting = new ComponentId(2);
+        ComponentId leased = new ComponentId(3);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1), Map.of(c1, d1));
+        Thread plain = new Thread(() -> execute(system, new EmptyMove(waiting, null, d1)));
+        plain.start();
+        while (system.waitingTransferCount() == 0)
+            Thread.sleep(1);
+        CapacityLease lease = system.lease(d1, 1, 10, TimeUnit.SECONDS);
+        Thread withLease = new Thread(() -> {
+            try {
+                lease.execute(new EmptyMove(leased, null, d1));
+            } catch (TransferException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        withLease.start();
+        while (system.waitingTransferCount() == 1)
+            Thread.sleep(1);
+
+        // when
+        system.execute(new EmptyMove(c1, d1, null));
+        withLease.join(10_000);
+
+        // then
+        assertEquals(d1, system.locate(leased).orElseThrow());
+        assertEquals(1, lease.usedSlots());
+        assertEquals(0, lease.claimedSlots());
+        assertTrue(plain.isAlive());
+
+        system.execute(new EmptyMove(leased, d1, null));
+        plain.join(10_000);
+        assertEquals(d1, system.locate(waiting).orElseThrow());
+    }
+
+    @Test
+    void shouldHandExpiredLeaseSlotToWaitingTransferTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId c1 = new ComponentId(1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1), Map.of());
+        CapacityLease lease = system.lease(d1, 1, 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, lease.heldSlots());
+        assertEquals(0, system.freeSpace(d1).orElseThrow());
+
+        // when
+        Thread plain = new Thread(() -> execute(system, new EmptyMove(c1, null, d1)));
+        plain.start();
+        plain.join(10_000);
+
+        // then
+        assertFalse(plain.isAlive());
+        assertFalse(lease.isActive());
+        assertEquals(0, lease.usedSlots());
+        assertEquals(d1, system.locate(c1).orElseThrow());
+        assertEquals(0, system.freeSpace(d1).orElseThrow());
+    }
+
+    @Test
+    void shouldEstimateWaitAndEtaFromLearnedTimesTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1, d2, 2), Map.of(c1, d1));
+        ComponentTransfer addToFull = new EmptyMove(c2, null, d1);
+        assertTrue(system.estimateWait(addToFull).isEmpty());
+
+        // when
+        system.execute(new SleepingMove(c1, d1, d2, 40));
+        system.execute(new SleepingMove(c1, d2, d1, 40));
+        CountDownLatch prepared = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread moving = new Thread(() -> execute(system, new LatchedMove(c1, d1, d2, prepared, release)));
+        moving.start();
+        assertTrue(prepared.await(10, TimeUnit.SECONDS));
+
+        // then
+        assertEquals(0, system.estimateWait(new EmptyMove(c2, null, d2)).orElseThrow());
+        long wait = system.estimateWait(addToFull).orElseThrow();
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(50), "estimated " + wait);
+        long eta = system.eta(c1).orElseThrow();
+        assertTrue(eta > 0 && eta <= TimeUnit.MILLISECONDS.toNanos(100), "estimated " + eta);
+        assertTrue(system.eta(c2).isEmpty());
+
+        release.countDown();
+        moving.join();
+    }
+
+    @Test
+    void shouldKeepMappedPlacementTableInSyncWithSystemTest(@TempDir Path dir) throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        DeviceId d3 = new DeviceId(3);
+        int components = 40;
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < components; c++)
+            placement.put(new ComponentId(c), d1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, components, d2, components), placement);
+        Path file = dir.resolve("placement");
+        system.publishPlacementTable(PlacementTable.create(file, 3, components));
+        PlacementTableReader reader = PlacementTableReader.open(file);
+        assertEquals(components, reader.componentCount());
+
+        // when
+        for (int c = 0; c < components; c++)
+            system.execute(new EmptyMove(new ComponentId(c), d1, c % 2 == 0 ? null : d2));
+        system.addDevice(d3, 5);
+
+        // then
+        assertEquals(components / 2, reader.componentCount());
+        for (int c = 0; c < components; c++)
+            assertEquals(system.locate(new ComponentId(c)), reader.locate(new ComponentId(c)));
+        assertEquals(components, reader.freeSpace(d1).orElseThrow());
+        assertEquals(components / 2, reader.freeSpace(d2).orElseThrow());
+        assertEquals(5, reader.freeSpace(d3).orElseThrow());
+        assertTrue(reader.freeSpace(new DeviceId(4)).isEmpty());
+        assertTrue(reader.isLive());
+    }
+
+    @Test
+    void shouldGiveUpOnPlacementTableWriterStuckInUpdateTest(@TempDir Path dir) throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        ComponentId c1 = new ComponentId(1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1), Map.of(c1, d1));
+        Path file = dir.resolve("placement");
+        system.publishPlacementTable(PlacementTable.create(file, 1, 1));
+        PlacementTableReader reader = PlacementTableReader.open(file, 10, TimeUnit.MILLISECONDS);
+        assertEquals(Optional.of(d1), reader.locate(c1));
+
+        // when
+        // What a writer dying in the middle of an update leaves behind.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            PlacementTable.LONGS.setRelease(buffer, PlacementTable.SEQUENCE_OFFSET,
+                    (long) PlacementTable.LONGS.getAcquire(buffer, PlacementTable.SEQUENCE_OFFSET) | 1);
+        }
+
+        // then
+        assertThrows(IllegalStateException.class, () -> reader.locate(c1));
+        assertThrows(IllegalStateException.class, reader::version);
+    }
+
+    @Test
+    void shouldNotHandOutSlotStillHeldOverShrunkCapacityTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < 3; c++)
+            placement.put(new ComponentId(c), d1);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 3), placement);
+        Set<Integer> initialSlots = new HashSet<>();
+        for (int c = 0; c < 3; c++)
+            initialSlots.add(system.slotOf(new ComponentId(c)).orElseThrow());
+        assertEquals(Set.of(0, 1, 2), initialSlots);
+        ComponentId inLastSlot = new ComponentId(2);
+        for (int c = 0; c < 3; c++) {
+            if (system.slotOf(new ComponentId(c)).orElseThrow() == 2)
+                inLastSlot = new ComponentId(c);
+        }
+
+        // when
+        system.resizeDevice(d1, 2);
+        system.resizeDevice(d1, 4);
+        system.execute(new EmptyMove(new ComponentId(3), null, d1));
+        system.execute(new EmptyMove(inLastSlot, d1, null));
+        system.execute(new EmptyMove(new ComponentId(4), null, d1));
+
+        // then
+        assertEquals(3, system.slotOf(new ComponentId(3)).orElseThrow());
+        assertEquals(2, system.slotOf(new ComponentId(4)).orElseThrow());
+        assertTrue(system.slotOf(inLastSlot).isEmpty());
+    }
+
+    private static void execute(StorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private record BlockingAdd(String getTenantId, ComponentId getComponentId, DeviceId getDestinationDeviceId,
+                               CountDownLatch prepared, CountDownLatch release) implements TenantTransfer {
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return null;
+        }
+
+        @Override
+        public void prepare() {
+            prepared.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+
+    private record RecordingMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                 DeviceId getDestinationDeviceId, Set<ComponentId> prepared)
+            implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            prepared.add(getComponentId());
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+
+    private record SleepingMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId, long millis) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            sleep();
+        }
+
+        @Override
+        public void perform() {
+            sleep();
+        }
+
+        private void sleep() {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private record LatchedMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                               DeviceId getDestinationDeviceId, CountDownLatch prepared,
+                               CountDownLatch release) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            prepared.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+
+    private record ThrowingMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            throw new IllegalStateException("prepare failed");
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+
+    private record EmptyMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                             DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+
+    private record CountingMove(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                                DeviceId getDestinationDeviceId, AtomicInteger inFlight,
+                                AtomicInteger maxInFlight) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            io();
+        }
+
+        @Override
+        public void perform() {
+            io();
+        }
+
+        private void io() {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static final class ChoosingTransfer implements DestinationChoosingTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final Set<DeviceId> candidates;
+        private DeviceId dstDevId;
+        private DeviceId destinationSeenInPrepare;
+
+        ChoosingTransfer(ComponentId compId, DeviceId srcDevId, Set<DeviceId> candidates) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public Set<DeviceId> getCandidateDestinationIds() {
+            return candidates;
+        }
+
+        @Override
+        public void setDestinationDeviceId(DeviceId destination) {
+            this.dstDevId = destination;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+            destinationSeenInPrepare = dstDevId;
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
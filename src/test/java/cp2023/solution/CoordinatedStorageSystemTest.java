@@ -0,0 +1,48 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Races under load are covered for this engine by {@link ConcurrentStorageSystemStressTest}.
+ */
+class CoordinatedStorageSystemTest {
+    @Test
+    void shouldRejectInvalidTransfersTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+
+        try (CoordinatedStorageSystem system = StorageSystemFactory.newCoordinatedSystem(
+                Map.of(d1, 1, d2, 1), Map.of(c1, d1))) {
+            // when, then
+            assertThrows(IllegalTransferType.class, () -> system.execute(new Move(c1, null, null)));
+            assertThrows(DeviceDoesNotExist.class, () -> system.execute(new Move(c1, d1, new DeviceId(3))));
+            assertThrows(ComponentAlreadyExists.class, () -> system.execute(new Move(c1, null, d2)));
+            assertThrows(ComponentDoesNotExist.class, () -> system.execute(new Move(c2, d2, d1)));
+            assertThrows(ComponentDoesNotNeedTransfer.class, () -> system.execute(new Move(c1, d1, d1)));
+            system.execute(new Move(c1, d1, d2));
+            assertThrows(ComponentDoesNotExist.class, () -> system.execute(new Move(c1, d1, null)));
+        }
+    }
+
+    private record Move(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                        DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
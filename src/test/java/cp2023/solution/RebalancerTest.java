@@ -0,0 +1,107 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RebalancerTest {
+    private static final long TIMEOUT_NANOS = 10_000_000_000L;
+
+    @Test
+    void shouldEvenOutSkewedDevicesWhileForegroundTransfersCompleteTest() throws Exception {
+        // given
+        int devices = 4;
+        int capacity = 8;
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        for (int d = 0; d < devices; d++)
+            capacities.put(new DeviceId(d), capacity);
+        // The first device is full, the others are empty.
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < capacity; c++)
+            placement.put(new ComponentId(c), new DeviceId(0));
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        Rebalancer rebalancer = new Rebalancer(system, Move::new, 1000, 0.3);
+
+        // when
+        rebalancer.start();
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (spread(system) > 0.3 && System.nanoTime() < deadline)
+            Thread.sleep(5);
+        double converged = spread(system);
+
+        // Foreground traffic between the two devices the rebalancer fills.
+        List<Thread> foreground = new ArrayList<>();
+        for (int c = capacity; c < capacity + 4; c++) {
+            ComponentId comp = new ComponentId(c);
+            foreground.add(new Thread(() -> {
+                DeviceId src = null;
+                for (int i = 0; i < 50; i++) {
+                    DeviceId dst = new DeviceId(i % 2 == 0 ? 2 : 3);
+                    execute(system, new Move(comp, src, dst));
+                    src = dst;
+                }
+                execute(system, new Move(comp, src, null));
+            }));
+        }
+        for (Thread t : foreground)
+            t.start();
+        for (Thread t : foreground)
+            t.join(TIMEOUT_NANOS / 1_000_000);
+        rebalancer.stop();
+
+        // then
+        for (Thread t : foreground)
+            assertFalse(t.isAlive(), "foreground transfers got stuck");
+        assertTrue(converged <= 0.3, "fill ratios still differ by " + converged);
+        assertTrue(rebalancer.movesIssued() > 0);
+        int components = 0;
+        for (int d = 0; d < devices; d++)
+            components += capacity - system.freeSpace(new DeviceId(d)).orElseThrow();
+        assertEquals(capacity, components);
+    }
+
+    /**
+     * Difference between the highest and the lowest fill ratio of the devices.
+     */
+    private static double spread(ConcurrentStorageSystem system) {
+        double min = 1;
+        double max = 0;
+        for (Device dev : system.devices()) {
+            double fill = 1.0 - (double) dev.freeSpace() / dev.capacity();
+            min = Math.min(min, fill);
+            max = Math.max(max, fill);
+        }
+        return max - min;
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private record Move(ComponentId getComponentId, DeviceId getSourceDeviceId,
+                        DeviceId getDestinationDeviceId) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            Thread.yield();
+        }
+
+        @Override
+        public void perform() {
+            Thread.yield();
+        }
+    }
+}
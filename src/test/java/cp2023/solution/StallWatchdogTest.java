@@ -0,0 +1,117 @@
+package cp2023.solution;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.exceptions.TransferException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class StallWatchdogTest {
+
+    @Test
+    void shouldReportStalledChainAndWaitingTransferOnceTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(2);
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(
+                Map.of(d1, 1, d2, 2), Map.of(c1, d1, c2, d2));
+        StallWatchdog watchdog = new StallWatchdog(system, 20, 1, TimeUnit.MILLISECONDS, report -> {
+        });
+        CountDownLatch prepared = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread stuck = new Thread(() -> execute(system, new Move(c1, d1, d2, prepared, release)));
+        Thread waiting = new Thread(() -> execute(system, new Move(c2, d2, d1, new CountDownLatch(1),
+                new CountDownLatch(0))));
+
+        // when
+        stuck.start();
+        assertTrue(prepared.await(10, TimeUnit.SECONDS));
+        Thread.sleep(5);
+        waiting.start();
+        Thread.sleep(50);
+        StallWatchdog.StallReport report = watchdog.check();
+        StallWatchdog.StallReport repeated = watchdog.check();
+
+        // then
+        assertNotNull(report);
+        assertNull(repeated);
+        assertEquals(List.of(c1, c2), report.stalled());
+        assertTrue(report.graph().consistent());
+        WaitsForGraph.TransferNode first = report.graph().transfers().get(0);
+        assertEquals(PendingTransfer.Phrase.PREPARE, first.phrase());
+        assertEquals(c2, first.next());
+        assertTrue(report.toJson().contains("\"stalled\":[\"" + c1 + "\",\"" + c2 + "\"]"));
+        assertTrue(report.toDot().startsWith("digraph"));
+
+        release.countDown();
+        stuck.join();
+        waiting.join();
+        assertNull(watchdog.check());
+    }
+
+    @Test
+    void shouldAllocateLittleInQuietSampleTest() throws Exception {
+        // given
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        Map<DeviceId, Integer> capacities = new HashMap<>();
+        Map<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            capacities.put(new DeviceId(i), 1);
+            placement.put(new ComponentId(i), new DeviceId(i));
+        }
+        ConcurrentStorageSystem system = (ConcurrentStorageSystem) StorageSystemFactory.newSystem(capacities, placement);
+        StallWatchdog watchdog = new StallWatchdog(system, 20, 1, TimeUnit.MILLISECONDS, report -> {
+        });
+        int samples = 20_000;
+        for (int i = 0; i < samples; i++)
+            watchdog.check();
+
+        // when
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < samples; i++)
+            watchdog.check();
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        // then
+        // At most the iterator over the components, unless compiled code got rid of it, however many there are.
+        assertTrue(allocated <= 64L * samples, "allocated " + allocated + " bytes in " + samples + " samples");
+    }
+
+    private static void execute(ConcurrentStorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private record Move(ComponentId getComponentId, DeviceId getSourceDeviceId, DeviceId getDestinationDeviceId,
+                        CountDownLatch prepared, CountDownLatch release) implements ComponentTransfer {
+        @Override
+        public void prepare() {
+            prepared.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
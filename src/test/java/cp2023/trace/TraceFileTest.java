@@ -0,0 +1,46 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceFileTest {
+
+    @Test
+    void shouldReadBackWrittenTraceInSubmissionOrderTest(@TempDir Path dir) throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId c1 = new ComponentId(1);
+        ComponentId c2 = new ComponentId(300);
+        Map<DeviceId, Integer> devices = Map.of(d1, 2, d2, 1);
+        Map<ComponentId, DeviceId> placement = Map.of(c1, d1);
+        TraceEvent move = new TraceEvent(5_000, c1, d1, d2, 10, 1_000_000, 2_000_000,
+                TraceEvent.Outcome.COMPLETED);
+        TraceEvent add = new TraceEvent(1_000, c2, null, d1, 0, 0, 0,
+                TraceEvent.Outcome.COMPONENT_ALREADY_EXISTS);
+        TraceEvent delete = new TraceEvent(7_000_000_000L, c1, d2, null, 0, 3, 4,
+                TraceEvent.Outcome.COMPLETED);
+        Path path = dir.resolve("test.trace");
+
+        // when
+        try (TraceFile.Writer writer = new TraceFile.Writer(path, devices, placement)) {
+            writer.write(move);
+            writer.write(add);
+            writer.write(delete);
+        }
+        Trace trace = TraceFile.read(path);
+
+        // then
+        assertEquals(devices, trace.deviceTotalSlots());
+        assertEquals(placement, trace.componentPlacement());
+        assertEquals(List.of(add, move, delete), trace.events());
+    }
+}
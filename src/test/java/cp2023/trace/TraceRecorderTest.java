@@ -0,0 +1,61 @@
+package cp2023.trace;
+
+import cp2023.backend.FileBackend;
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.solution.ConcurrentStorageSystem;
+import cp2023.solution.StorageSystemFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceRecorderTest {
+    private static final int BLOB_SIZE = 4096;
+
+    @Test
+    void shouldPassSlotsThroughToRecordedFileTransfersTest(@TempDir Path dir) throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        DeviceId d2 = new DeviceId(2);
+        ComponentId moved = new ComponentId(1);
+        ComponentId resident = new ComponentId(2);
+        Map<DeviceId, Integer> devices = Map.of(d1, 2, d2, 2);
+        Map<ComponentId, DeviceId> placement = Map.of(moved, d1, resident, d2);
+        ConcurrentStorageSystem system =
+                (ConcurrentStorageSystem) StorageSystemFactory.newSystem(devices, placement);
+        Path path = dir.resolve("test.trace");
+
+        try (FileBackend backend = FileBackend.create(dir.resolve("devices"), devices, BLOB_SIZE,
+                FileBackend.Options.DEFAULT)) {
+            for (Map.Entry<ComponentId, DeviceId> entry : placement.entrySet())
+                backend.write(entry.getValue(), system.slotOf(entry.getKey()).orElseThrow(), blob(entry.getKey()));
+
+            // when
+            try (TraceRecorder recorder = new TraceRecorder(system, path, devices, placement)) {
+                recorder.execute(backend.transfer(moved, d1, d2));
+            }
+
+            // then
+            int slot = system.slotOf(moved).orElseThrow();
+            assertNotEquals(system.slotOf(resident).orElseThrow(), slot);
+            assertEquals(blob(moved), backend.read(d2, slot));
+            assertEquals(blob(resident), backend.read(d2, system.slotOf(resident).orElseThrow()));
+        }
+        List<TraceEvent> events = TraceFile.read(path).events();
+        assertEquals(1, events.size());
+        assertEquals(TraceEvent.Outcome.COMPLETED, events.get(0).outcome());
+    }
+
+    private static ByteBuffer blob(ComponentId component) {
+        ByteBuffer blob = ByteBuffer.allocate(BLOB_SIZE);
+        for (int i = 0; i < BLOB_SIZE; i++)
+            blob.put((byte) (component.hashCode() * 31 + i));
+        return blob.flip();
+    }
+}
@@ -0,0 +1,40 @@
+package cp2023.trace;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.solution.StorageSystemFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceReplayerTest {
+
+    @Test
+    void shouldReplayManyComponentsOnFewThreadsTest() throws Exception {
+        // given
+        DeviceId d1 = new DeviceId(1);
+        int components = 300;
+        List<TraceEvent> events = new ArrayList<>();
+        for (int c = 0; c < components; c++)
+            events.add(new TraceEvent(c * 1_000_000L, new ComponentId(c), null, d1, 0, 0, 0,
+                    TraceEvent.Outcome.COMPLETED));
+        Trace trace = new Trace(Map.of(d1, components), Map.of(), events);
+
+        // when
+        ReplayReport report = TraceReplayer.replay(trace,
+                StorageSystemFactory.newSystem(trace.deviceTotalSlots(), trace.componentPlacement()), 1);
+
+        // then
+        assertEquals(components, report.issued());
+        assertEquals(0, report.mismatched());
+        assertEquals(components, report.waits().count());
+        // Calls of one component each, which return long before the next one is due.
+        long workers = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("replay-worker")).count();
+        assertTrue(workers < components / 4, workers + " worker threads");
+    }
+}